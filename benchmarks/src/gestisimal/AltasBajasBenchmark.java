@@ -0,0 +1,119 @@
+package gestisimal;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Rendimiento de las altas y las bajas. Cada iteracion mide un lote de LOTE operaciones sobre un
+ * almacen lleno (modo SingleShotTime, asi que el resultado es el tiempo del lote y los percentiles
+ * son los de los lotes) y al terminarla se deja el almacen como estaba: se eliminan los articulos
+ * dados de alta y se reponen los eliminados, de forma que todas las iteraciones miden el almacen
+ * con el mismo numero de articulos.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = AltasBajasBenchmark.LOTE)
+@Measurement(iterations = 100, batchSize = AltasBajasBenchmark.LOTE)
+@Fork(1)
+public class AltasBajasBenchmark {
+  /**
+   * operaciones de cada iteracion
+   */
+  static final int LOTE = 1000;
+
+  /**
+   * articulos del almacen
+   */
+  @Param({"1000", "100000", "1000000", "10000000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * generador de los articulos nuevos
+   */
+  private final SplittableRandom azar = new SplittableRandom(DatosBenchmark.SEMILLA);
+  /**
+   * codigos de los articulos del almacen, en el orden en el que se eliminan
+   */
+  private int[] codigos;
+  /**
+   * siguiente posicion de codigos que se elimina
+   */
+  private int siguiente;
+  /**
+   * posiciones de codigos eliminadas en la iteracion
+   */
+  private final int[] eliminados = new int[LOTE];
+  /**
+   * numero de posiciones eliminadas en la iteracion
+   */
+  private int numeroEliminados;
+  /**
+   * codigos dados de alta en la iteracion
+   */
+  private final int[] nuevos = new int[LOTE];
+  /**
+   * numero de codigos dados de alta en la iteracion
+   */
+  private int numeroNuevos;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+    codigos = DatosBenchmark.codigos(almacen);
+    for (int i = codigos.length - 1; i > 0; i--) {
+      int j = azar.nextInt(i + 1);
+      int codigo = codigos[i];
+      codigos[i] = codigos[j];
+      codigos[j] = codigo;
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void reponer()
+      throws NumeroNegativoException, ArticuloRepetidoException, CodigoNoValidoException {
+    for (int i = 0; i < numeroNuevos; i++)
+      almacen.eliminar(nuevos[i]);
+    for (int i = 0; i < numeroEliminados; i++)
+      codigos[eliminados[i]] = DatosBenchmark.alta(almacen, azar, -1);
+    numeroNuevos = 0;
+    numeroEliminados = 0;
+  }
+
+  @Benchmark
+  public int alta() throws NumeroNegativoException, ArticuloRepetidoException {
+    int codigo = DatosBenchmark.alta(almacen, azar, -1);
+    nuevos[numeroNuevos++] = codigo;
+    return codigo;
+  }
+
+  @Benchmark
+  public boolean eliminar() throws CodigoNoValidoException {
+    int posicion = siguiente;
+    siguiente = (siguiente + 1) % codigos.length;
+    eliminados[numeroEliminados++] = posicion;
+    return almacen.eliminar(codigos[posicion]);
+  }
+}
@@ -0,0 +1,124 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.AlmacenXMLException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Rendimiento de guardar y cargar el almacen en CSV y en XML, sin comprimir y comprimido con gzip
+ * (ver {@link Compresion}). Cada operacion se mide entera, una vez por iteracion (modo
+ * SingleShotTime). Los archivos que se cargan se generan al empezar con el mismo almacen que se
+ * guarda, en un directorio temporal que se borra al terminar.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchivosBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"1000", "100000", "1000000", "10000000"})
+  int articulos;
+  /**
+   * true para guardar y cargar los archivos comprimidos
+   */
+  @Param({"false", "true"})
+  boolean comprimido;
+
+  /**
+   * almacen que se guarda
+   */
+  private Almacen almacen;
+  /**
+   * directorio de los archivos
+   */
+  private Path directorio;
+  /**
+   * archivo CSV que se carga
+   */
+  private String csv;
+  /**
+   * archivo XML que se carga
+   */
+  private String xml;
+  /**
+   * archivo CSV que se guarda
+   */
+  private String csvGuardado;
+  /**
+   * archivo XML que se guarda
+   */
+  private String xmlGuardado;
+
+  @Setup(Level.Trial)
+  public void generar()
+      throws NumeroNegativoException, ArticuloRepetidoException, IOException,
+      AlmacenXMLException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+    directorio = Files.createTempDirectory("gestisimal-benchmark");
+    String extension = comprimido ? Compresion.EXTENSION : "";
+    csv = directorio.resolve("gestisimal.txt" + extension).toString();
+    xml = directorio.resolve("gestisimal.xml" + extension).toString();
+    csvGuardado = directorio.resolve("guardado.txt" + extension).toString();
+    xmlGuardado = directorio.resolve("guardado.xml" + extension).toString();
+    almacen.guardarCSV(csv);
+    almacen.guardarXML(xml);
+  }
+
+  @TearDown(Level.Trial)
+  public void borrar() throws IOException {
+    try (Stream<Path> archivos = Files.walk(directorio)) {
+      for (Path archivo : (Iterable<Path>) archivos.sorted(Comparator.reverseOrder())::iterator)
+        Files.delete(archivo);
+    }
+  }
+
+  @Benchmark
+  public void guardarCSV() throws IOException {
+    almacen.guardarCSV(csvGuardado);
+  }
+
+  @Benchmark
+  public Almacen cargarCSV() throws AlmacenCSVException, NumeroNegativoException, IOException {
+    Almacen cargado = new Almacen();
+    cargado.cargarCSV(csv);
+    return cargado;
+  }
+
+  @Benchmark
+  public void guardarXML() throws AlmacenXMLException, IOException {
+    almacen.guardarXML(xmlGuardado);
+  }
+
+  @Benchmark
+  public Almacen cargarXml() throws AlmacenXMLException, NumeroNegativoException, IOException {
+    Almacen cargado = new Almacen();
+    cargado.cargarXml(xml);
+    return cargado;
+  }
+}
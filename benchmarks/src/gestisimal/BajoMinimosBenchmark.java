@@ -0,0 +1,61 @@
+package gestisimal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * La consulta de los articulos bajo minimos con el indice ({@link IndiceStock}) frente a
+ * recorrer el almacen entero comparando las unidades de cada articulo con su stock de seguridad,
+ * que es lo que habria que hacer sin el indice. Los articulos tienen unidades al azar como las de
+ * los archivos, asi que mas o menos uno de cada ocho esta bajo minimos.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BajoMinimosBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"100000", "1000000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+  }
+
+  @Benchmark
+  public Articulo[] indice() {
+    return almacen.articulosBajoMinimos();
+  }
+
+  @Benchmark
+  public Articulo[] recorrido() {
+    return almacen.articulos()
+        .filter(articulo -> articulo.getNumeroUnidades() < articulo.getStockSeguridad())
+        .toArray(Articulo[]::new);
+  }
+}
@@ -0,0 +1,97 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Compara el almacen por columnas (ver {@link AlmacenColumnar}) con {@link Almacen} en las
+ * operaciones que recorren todos los articulos: valorar el almacen sumando unidades por precio
+ * (Almacen mantiene el total al dia, asi que aqui se recorre su vista) y guardar el CSV. Los dos
+ * almacenes tienen los mismos articulos.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarBenchmark {
+  /**
+   * articulos de cada almacen
+   */
+  @Param({"100000", "1000000", "10000000"})
+  int articulos;
+
+  /**
+   * almacen con un objeto por articulo
+   */
+  private Almacen objetos;
+  /**
+   * almacen por columnas
+   */
+  private AlmacenColumnar columnas;
+  /**
+   * directorio de los archivos
+   */
+  private Path directorio;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException, IOException {
+    objetos = DatosBenchmark.llenar(articulos, -1);
+    columnas = DatosBenchmark.llenarColumnar(articulos, -1);
+    directorio = Files.createTempDirectory("gestisimal-benchmark");
+  }
+
+  @TearDown(Level.Trial)
+  public void borrar() throws IOException {
+    Files.deleteIfExists(directorio.resolve("objetos.txt"));
+    Files.deleteIfExists(directorio.resolve("columnas.txt"));
+    Files.delete(directorio);
+  }
+
+  @Benchmark
+  public double valorObjetos() {
+    double total = 0;
+    try (VistaAlmacen vista = objetos.vista()) {
+      for (int i = 0; i < vista.numero(); i++)
+        total += vista.unidades(i) * vista.articulo(i).getPrecioVenta();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public double valorColumnas() {
+    return columnas.valorVenta();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void guardarCSVObjetos() throws IOException {
+    objetos.guardarCSV(directorio.resolve("objetos.txt").toString());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void guardarCSVColumnas() throws IOException {
+    columnas.guardarCSV(directorio.resolve("columnas.txt").toString());
+  }
+}
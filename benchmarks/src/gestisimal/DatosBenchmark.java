@@ -0,0 +1,104 @@
+package gestisimal;
+
+import java.util.SplittableRandom;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Genera los almacenes de las pruebas de rendimiento, con articulos como los de gestisimal.txt y
+ * gestisimal.xml: descripciones cortas, precios con un decimal, la venta por encima de la compra y
+ * unas pocas decenas de unidades. Siempre con la misma semilla, para que todas las pruebas midan
+ * los mismos datos.
+ * @author Sergio Vera Jurado
+ *
+ */
+final class DatosBenchmark {
+  /**
+   * semilla de los datos
+   */
+  static final long SEMILLA = 20210510L;
+  /**
+   * palabras de las descripciones
+   */
+  private static final String[] DESCRIPCIONES = {"pechuga", "salmon", "salmorejo", "merluza",
+      "lomo", "queso", "aceite", "arroz", "tomate", "pan"};
+
+  private DatosBenchmark() {
+  }
+
+  /**
+   * crea un almacen con articulos al azar
+   * @param articulos numero de articulos
+   * @param unidades unidades de cada articulo, o -1 para unidades al azar como las de los archivos
+   * @return el almacen
+   * @throws NumeroNegativoException nunca, los datos son positivos
+   * @throws ArticuloRepetidoException nunca, los codigos son nuevos
+   */
+  static Almacen llenar(int articulos, int unidades)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    Almacen almacen = new Almacen();
+    SplittableRandom azar = new SplittableRandom(SEMILLA);
+    for (int i = 0; i < articulos; i++)
+      alta(almacen, azar, unidades);
+    return almacen;
+  }
+
+  /**
+   * crea un almacen por columnas (ver {@link AlmacenColumnar}) con los mismos articulos que
+   * {@link #llenar(int, int)}
+   * @param articulos numero de articulos
+   * @param unidades unidades de cada articulo, o -1 para unidades al azar como las de los archivos
+   * @return el almacen
+   * @throws NumeroNegativoException nunca, los datos son positivos
+   * @throws ArticuloRepetidoException nunca, los codigos son nuevos
+   */
+  static AlmacenColumnar llenarColumnar(int articulos, int unidades)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    AlmacenColumnar almacen = new AlmacenColumnar();
+    SplittableRandom azar = new SplittableRandom(SEMILLA);
+    for (int i = 0; i < articulos; i++) {
+      double compra = azar.nextInt(1, 1000) / 10.0;
+      double venta = compra + azar.nextInt(0, 500) / 10.0;
+      int seguridad = azar.nextInt(0, 50);
+      almacen.alta(compra, venta,
+          DESCRIPCIONES[azar.nextInt(DESCRIPCIONES.length)] + " " + azar.nextInt(1000),
+          unidades < 0 ? azar.nextInt(0, 200) : unidades, seguridad,
+          seguridad + azar.nextInt(50, 200));
+    }
+    return almacen;
+  }
+
+  /**
+   * da de alta un articulo al azar
+   * @param almacen almacen
+   * @param azar generador de numeros al azar
+   * @param unidades unidades del articulo, o -1 para unidades al azar
+   * @return el codigo del articulo
+   * @throws NumeroNegativoException nunca, los datos son positivos
+   * @throws ArticuloRepetidoException nunca, el codigo es nuevo
+   */
+  static int alta(Almacen almacen, SplittableRandom azar, int unidades)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    double compra = azar.nextInt(1, 1000) / 10.0;
+    double venta = compra + azar.nextInt(0, 500) / 10.0;
+    int seguridad = azar.nextInt(0, 50);
+    return almacen.alta(compra, venta,
+        DESCRIPCIONES[azar.nextInt(DESCRIPCIONES.length)] + " " + azar.nextInt(1000),
+        unidades < 0 ? azar.nextInt(0, 200) : unidades, seguridad,
+        seguridad + azar.nextInt(50, 200));
+  }
+
+  /**
+   * devuelve los codigos de un almacen en el orden de alta
+   * @param almacen almacen
+   * @return sus codigos
+   */
+  static int[] codigos(Almacen almacen) {
+    try (VistaAlmacen vista = almacen.vista()) {
+      int[] codigos = new int[vista.numero()];
+      for (int i = 0; i < codigos.length; i++)
+        codigos[i] = vista.articulo(i).getCodigo();
+      return codigos;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package gestisimal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Latencia de la busqueda por descripcion con el indice ({@link IndiceDescripciones}) frente a
+ * recorrer el almacen partiendo cada descripcion en palabras y comparando sus principios, que es
+ * lo que habria que hacer sin el indice. Las descripciones son una de diez palabras y un numero
+ * menor que mil, asi que "queso 123" encuentra uno de cada diez mil articulos, "pech" y "merluza"
+ * uno de cada diez y "l" (un prefijo muy amplio) tambien uno de cada diez.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescripcionesBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"1000000"})
+  int articulos;
+  /**
+   * texto que se busca
+   */
+  @Param({"queso 123", "pech", "merluza", "l"})
+  String texto;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * palabras del texto, para el recorrido
+   */
+  private List<String> palabras;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+    palabras = IndiceDescripciones.palabras(texto);
+  }
+
+  @Benchmark
+  public int[] indice() {
+    return almacen.buscarPorDescripcion(texto);
+  }
+
+  @Benchmark
+  public int[] recorrido() {
+    return almacen.articulos()
+        .filter(articulo -> encaja(IndiceDescripciones.palabras(articulo.getDescripcion())))
+        .mapToInt(Articulo::getCodigo)
+        .toArray();
+  }
+
+  /**
+   * @param descripcion palabras de una descripcion
+   * @return si cada palabra del texto es el principio de alguna de ellas
+   */
+  private boolean encaja(List<String> descripcion) {
+    for (String palabra : palabras) {
+      boolean encontrada = false;
+      for (int i = 0; i < descripcion.size() && !encontrada; i++)
+        encontrada = descripcion.get(i).startsWith(palabra);
+      if (!encontrada)
+        return false;
+    }
+    return true;
+  }
+}
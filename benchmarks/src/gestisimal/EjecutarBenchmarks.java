@@ -0,0 +1,35 @@
+package gestisimal;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lanzador de las pruebas de rendimiento. Acepta las mismas opciones que JMH y añade siempre el
+ * perfilador gc (-prof gc), para que cada prueba informe tambien de la memoria que reserva por
+ * operacion y del trabajo del recolector.
+ * @author Sergio Vera Jurado
+ *
+ */
+public class EjecutarBenchmarks {
+  public static void main(String[] args)
+      throws CommandLineOptionException, RunnerException, IOException {
+    CommandLineOptions opciones = new CommandLineOptions(args);
+    if (opciones.shouldHelp() || opciones.shouldList() || opciones.shouldListWithParams()
+        || opciones.shouldListProfilers() || opciones.shouldListResultFormats()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder constructor = new OptionsBuilder().parent(opciones);
+    if (opciones.getProfilers().stream()
+        .noneMatch(perfilador -> perfilador.getKlass().equals(GCProfiler.class.getName())
+            || perfilador.getKlass().equals("gc")))
+      constructor.addProfiler(GCProfiler.class);
+    new Runner(constructor.build()).run();
+  }
+}
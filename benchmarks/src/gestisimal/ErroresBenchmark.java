@@ -0,0 +1,111 @@
+package gestisimal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Lo que cuesta una operacion que falla con excepciones frente a la misma operacion sin ellas
+ * (ver {@link ResultadoMovimiento}): busquedas y salidas de codigos que no existen, y salidas de
+ * articulos sin unidades. Los articulos existentes tienen cero unidades, asi que toda salida de
+ * una unidad falla.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ErroresBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"100000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * codigos de sus articulos
+   */
+  private int[] codigos;
+  /**
+   * codigos que no son de ningun articulo
+   */
+  private int[] inexistentes;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, 0);
+    codigos = DatosBenchmark.codigos(almacen);
+    int mayor = 0;
+    for (int codigo : codigos)
+      mayor = Math.max(mayor, codigo);
+    inexistentes = new int[codigos.length];
+    for (int i = 0; i < inexistentes.length; i++)
+      inexistentes[i] = mayor + 1 + i;
+  }
+
+  @Benchmark
+  public Object buscarConExcepcion(OperacionesBenchmark.Azar azar) {
+    try {
+      return almacen.buscarArticulo(azar.codigo(inexistentes));
+    } catch (ArticuloInexistenteException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public Articulo buscarSinExcepcion(OperacionesBenchmark.Azar azar) {
+    return almacen.buscarSiExiste(azar.codigo(inexistentes));
+  }
+
+  @Benchmark
+  public Exception inexistenteConExcepcion(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException {
+    try {
+      almacen.decrementarCantidad(1, azar.codigo(inexistentes));
+      return null;
+    } catch (ArticuloInexistenteException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public ResultadoMovimiento inexistenteSinExcepcion(OperacionesBenchmark.Azar azar) {
+    return almacen.salida(1, azar.codigo(inexistentes));
+  }
+
+  @Benchmark
+  public Exception sinUnidadesConExcepcion(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    try {
+      almacen.decrementarCantidad(1, azar.codigo(codigos));
+      return null;
+    } catch (IllegalArgumentException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public ResultadoMovimiento sinUnidadesSinExcepcion(OperacionesBenchmark.Azar azar) {
+    return almacen.salida(1, azar.codigo(codigos));
+  }
+}
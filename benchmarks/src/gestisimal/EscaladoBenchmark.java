@@ -0,0 +1,102 @@
+package gestisimal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Escalado de los movimientos de mercancia con el numero de hilos: la misma entrada y salida de
+ * una unidad sobre articulos al azar con 1, 2, 4 y 8 hilos a la vez. Con pocos articulos los
+ * hilos coinciden en las mismas franjas de cerrojos; con muchos casi nunca. El resultado de cada
+ * prueba es el total de operaciones de todos sus hilos.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EscaladoBenchmark {
+  /**
+   * unidades iniciales de cada articulo
+   */
+  private static final int UNIDADES = 1_000_000_000;
+
+  /**
+   * articulos del almacen
+   */
+  @Param({"16", "100000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * codigos de sus articulos
+   */
+  private int[] codigos;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, UNIDADES);
+    codigos = DatosBenchmark.codigos(almacen);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void hilos1(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    mover(azar);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void hilos2(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    mover(azar);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void hilos4(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    mover(azar);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void hilos8(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    mover(azar);
+  }
+
+  /**
+   * mete y saca una unidad de un articulo al azar
+   * @param azar generador del hilo
+   * @throws NumeroNegativoException nunca, las cantidades son positivas
+   * @throws ArticuloInexistenteException nunca, los codigos existen
+   */
+  private void mover(OperacionesBenchmark.Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    int codigo = azar.codigo(codigos);
+    almacen.incrementarCantidad(1, codigo);
+    almacen.decrementarCantidad(1, codigo);
+  }
+}
@@ -0,0 +1,92 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Busquedas por rango de precio de venta y los N mas caros con el indice ordenado (ver
+ * {@link IndiceOrdenado}) y recorriendo el almacen. El rango esta centrado en la mediana y coge
+ * la fraccion de los articulos que indica la selectividad.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndicesBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"100000", "1000000"})
+  int articulos;
+  /**
+   * fraccion de los articulos que estan en el rango
+   */
+  @Param({"0.0001", "0.01", "0.1"})
+  double selectividad;
+  /**
+   * true para crear el indice ordenado por precio de venta
+   */
+  @Param({"false", "true"})
+  boolean indexado;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * precio minimo del rango
+   */
+  private double desde;
+  /**
+   * precio maximo del rango
+   */
+  private double hasta;
+  /**
+   * numero de articulos de los N mayores, los mismos que hay en el rango
+   */
+  private int n;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+    double[] precios = new double[articulos];
+    try (VistaAlmacen vista = almacen.vista()) {
+      for (int i = 0; i < precios.length; i++)
+        precios[i] = vista.articulo(i).getPrecioVenta();
+    }
+    Arrays.sort(precios);
+    n = Math.max(1, (int) (articulos * selectividad));
+    desde = precios[(articulos - n) / 2];
+    hasta = precios[(articulos - n) / 2 + n - 1];
+    if (indexado)
+      almacen.crearIndiceOrdenado(IndiceOrdenado.Campo.PRECIO_VENTA);
+  }
+
+  @Benchmark
+  public int[] buscarEntre() {
+    return almacen.buscarEntre(IndiceOrdenado.Campo.PRECIO_VENTA, desde, hasta);
+  }
+
+  @Benchmark
+  public int[] mayores() {
+    return almacen.mayores(IndiceOrdenado.Campo.PRECIO_VENTA, n);
+  }
+}
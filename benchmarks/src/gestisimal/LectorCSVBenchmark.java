@@ -0,0 +1,127 @@
+package gestisimal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Lectura de un CSV grande con {@link LectorCSV} frente a la lectura que hacia antes
+ * {@link Almacen#cargarCSV(String)}: una linea cada vez con BufferedReader, partida con split y
+ * con las comillas quitadas con replace, y los numeros leidos con parseDouble y parseInt. Las dos
+ * crean los mismos articulos pero no los añaden a ningun almacen, asi que se mide solo la lectura
+ * del archivo, que es lo que ha cambiado (la carga completa esta en {@link ArchivosBenchmark}).
+ * El archivo se genera al empezar, con articulos al azar como los de {@link DatosBenchmark} y en
+ * el formato de {@link Almacen#guardarCSV(String)}.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LectorCSVBenchmark {
+  /**
+   * palabras de las descripciones
+   */
+  private static final String[] DESCRIPCIONES = {"pechuga", "salmon", "salmorejo", "merluza",
+      "lomo", "queso", "aceite", "arroz", "tomate", "pan"};
+
+  /**
+   * registros del archivo
+   */
+  @Param({"5000000"})
+  int filas;
+
+  /**
+   * archivo que se lee
+   */
+  private Path csv;
+
+  @Setup(Level.Trial)
+  public void generar() throws IOException {
+    csv = Files.createTempFile("gestisimal-benchmark", ".txt");
+    SplittableRandom azar = new SplittableRandom(DatosBenchmark.SEMILLA);
+    try (BufferedWriter file = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+      Almacen.guardarCabeceraCSV(file);
+      for (int i = 0; i < filas; i++) {
+        double compra = azar.nextInt(1, 1000) / 10.0;
+        double venta = compra + azar.nextInt(0, 500) / 10.0;
+        int seguridad = azar.nextInt(0, 50);
+        String[] campos = {DESCRIPCIONES[azar.nextInt(DESCRIPCIONES.length)] + " "
+            + azar.nextInt(1000), String.valueOf(compra), String.valueOf(venta),
+            String.valueOf(azar.nextInt(0, 200)), String.valueOf(seguridad + azar.nextInt(50, 200)),
+            String.valueOf(seguridad)};
+        for (int j = 0; j < campos.length; j++) {
+          if (j > 0)
+            file.write(',');
+          Almacen.guardarCampoCSV(campos[j], file);
+        }
+        file.newLine();
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void borrar() throws IOException {
+    Files.delete(csv);
+  }
+
+  @Benchmark
+  public long lectorCSV() throws IOException, AlmacenCSVException, NumeroNegativoException {
+    long leidos = 0;
+    try (LectorCSV lector = new LectorCSV(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+      Almacen.validadCabeceraCSV(lector);
+      while (lector.siguienteRegistro()) {
+        Almacen.validarRegistroCSV(lector);
+        Articulo articulo = new Articulo(lector.decimal(1), lector.decimal(2), lector.texto(0),
+            lector.entero(3), lector.entero(5), lector.entero(4));
+        leidos += articulo.getNumeroUnidades();
+      }
+    }
+    return leidos;
+  }
+
+  @Benchmark
+  public long splitReplace() throws IOException, AlmacenCSVException, NumeroNegativoException {
+    long leidos = 0;
+    try (BufferedReader file = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+      if (file.readLine().trim().split(",").length != 6)
+        throw new AlmacenCSVException("Cabecera errónea en el CSV.");
+      String line;
+      while ((line = file.readLine()) != null) {
+        if (line.split("\",").length != 6)
+          throw new AlmacenCSVException(line + ": no es un formato válido.");
+        String[] campos = line.split("\",");
+        Articulo articulo = new Articulo(Double.parseDouble(campos[1].replace("\"", "")),
+            Double.parseDouble(campos[2].replace("\"", "")), campos[0].replace("\"", ""),
+            Integer.parseInt(campos[3].replace("\"", "")),
+            Integer.parseInt(campos[5].replace("\"", "")),
+            Integer.parseInt(campos[4].replace("\"", "")));
+        leidos += articulo.getNumeroUnidades();
+      }
+    }
+    return leidos;
+  }
+}
@@ -0,0 +1,128 @@
+package gestisimal;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Un lote de entradas y salidas aplicado de una vez con {@link Almacen#aplicarMovimientos} (en
+ * los dos modos) frente al mismo lote aplicado movimiento a movimiento con
+ * incrementarCantidad y decrementarCantidad. Los lotes se generan al empezar, con codigos al azar
+ * y la mitad de las lineas repitiendo un codigo de la linea anterior, y se van alternando; cada
+ * lote tiene tantas entradas como salidas de cada articulo, asi que las unidades no cambian.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LotesBenchmark {
+  /**
+   * unidades iniciales de cada articulo
+   */
+  private static final int UNIDADES = 1_000_000;
+  /**
+   * lotes distintos que se alternan
+   */
+  private static final int LOTES = 64;
+
+  /**
+   * articulos del almacen
+   */
+  @Param({"100000"})
+  int articulos;
+  /**
+   * movimientos de cada lote
+   */
+  @Param({"10", "100", "1000"})
+  int lineas;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * codigos de cada lote
+   */
+  private int[][] codigos;
+  /**
+   * cantidades de cada lote
+   */
+  private int[][] cantidades;
+  /**
+   * siguiente lote
+   */
+  private int siguiente;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, UNIDADES);
+    int[] existentes = DatosBenchmark.codigos(almacen);
+    SplittableRandom azar = new SplittableRandom(DatosBenchmark.SEMILLA);
+    codigos = new int[LOTES][lineas * 2];
+    cantidades = new int[LOTES][lineas * 2];
+    for (int l = 0; l < LOTES; l++) {
+      for (int i = 0; i < lineas; i++) {
+        int codigo = i > 0 && azar.nextBoolean() ? codigos[l][i - 1]
+            : existentes[azar.nextInt(existentes.length)];
+        int cantidad = azar.nextInt(1, 10);
+        codigos[l][i] = codigo;
+        cantidades[l][i] = cantidad;
+        codigos[l][lineas + i] = codigo;
+        cantidades[l][lineas + i] = -cantidad;
+      }
+    }
+  }
+
+  @Benchmark
+  public ResultadoMovimiento[] loteMejorEsfuerzo() {
+    int l = lote();
+    return almacen.aplicarMovimientos(codigos[l], cantidades[l], false);
+  }
+
+  @Benchmark
+  public ResultadoMovimiento[] loteTodoONada() {
+    int l = lote();
+    return almacen.aplicarMovimientos(codigos[l], cantidades[l], true);
+  }
+
+  @Benchmark
+  public void movimientoAMovimiento()
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    int l = lote();
+    int[] codigosLote = codigos[l];
+    int[] cantidadesLote = cantidades[l];
+    for (int i = 0; i < codigosLote.length; i++) {
+      if (cantidadesLote[i] >= 0)
+        almacen.incrementarCantidad(cantidadesLote[i], codigosLote[i]);
+      else
+        almacen.decrementarCantidad(-cantidadesLote[i], codigosLote[i]);
+    }
+  }
+
+  /**
+   * @return posicion del siguiente lote
+   */
+  private int lote() {
+    int l = siguiente;
+    siguiente = (l + 1) % LOTES;
+    return l;
+  }
+}
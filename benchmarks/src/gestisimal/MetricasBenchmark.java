@@ -0,0 +1,80 @@
+package gestisimal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Lo que cuestan las metricas (ver {@link Metricas}) en una operacion rapida: la busqueda de un
+ * articulo al azar con metricas ({@link Almacen#buscarSiExiste(int)}) y sin ellas
+ * ({@link Almacen#leer(int)}), y solo el contar y medir una llamada, con el reloj leido en una de
+ * cada pocas llamadas como en las operaciones rapidas o en todas como en las cargas.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricasBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"1000", "1000000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * codigos de sus articulos
+   */
+  private int[] codigos;
+  /**
+   * metricas propias, para medirlas sin el almacen
+   */
+  private Metricas metricas;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, 100);
+    codigos = DatosBenchmark.codigos(almacen);
+    metricas = new Metricas();
+  }
+
+  @Benchmark
+  public Articulo conMetricas(OperacionesBenchmark.Azar azar) {
+    return almacen.buscarSiExiste(azar.codigo(codigos));
+  }
+
+  @Benchmark
+  public Articulo sinMetricas(OperacionesBenchmark.Azar azar) {
+    return almacen.leer(azar.codigo(codigos));
+  }
+
+  @Benchmark
+  public void muestreo() {
+    metricas.terminar(Metricas.Operacion.BUSCAR, metricas.empezar(Metricas.Operacion.BUSCAR));
+  }
+
+  @Benchmark
+  public void siempre() {
+    metricas.terminar(Metricas.Operacion.BUSCAR,
+        metricas.empezarSiempre(Metricas.Operacion.BUSCAR));
+  }
+}
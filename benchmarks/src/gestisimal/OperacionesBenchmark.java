@@ -0,0 +1,97 @@
+package gestisimal;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Rendimiento de las busquedas y los movimientos de mercancia sobre articulos al azar de un
+ * almacen lleno: operaciones por microsegundo y percentiles de la latencia (modo SampleTime).
+ * Los articulos empiezan con mil millones de unidades para que las salidas no se queden sin
+ * unidades ni las entradas se salgan de rango durante la prueba.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperacionesBenchmark {
+  /**
+   * unidades iniciales de cada articulo
+   */
+  private static final int UNIDADES = 1_000_000_000;
+
+  /**
+   * articulos del almacen
+   */
+  @Param({"1000", "100000", "1000000", "10000000"})
+  int articulos;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * codigos de sus articulos
+   */
+  private int[] codigos;
+
+  /**
+   * Generador de numeros al azar de cada hilo
+   */
+  @State(Scope.Thread)
+  public static class Azar {
+    /**
+     * generador
+     */
+    private final SplittableRandom azar = new SplittableRandom(DatosBenchmark.SEMILLA);
+
+    /**
+     * @param codigos codigos entre los que se elige
+     * @return uno de ellos al azar
+     */
+    int codigo(int[] codigos) {
+      return codigos[azar.nextInt(codigos.length)];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(articulos, UNIDADES);
+    codigos = DatosBenchmark.codigos(almacen);
+  }
+
+  @Benchmark
+  public Articulo buscarArticulo(Azar azar) throws ArticuloInexistenteException {
+    return almacen.buscarArticulo(azar.codigo(codigos));
+  }
+
+  @Benchmark
+  public void incrementarCantidad(Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    almacen.incrementarCantidad(1, azar.codigo(codigos));
+  }
+
+  @Benchmark
+  public void decrementarCantidad(Azar azar)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    almacen.decrementarCantidad(1, azar.codigo(codigos));
+  }
+}
@@ -0,0 +1,113 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Contencion de las reservas (ver {@link ReservasAlmacen}) sobre unos pocos articulos muy
+ * solicitados. En el grupo "reservas" tres hilos reservan y confirman una unidad y otro reserva y
+ * libera, todos sobre los mismos articulos calientes; el grupo "salidas" hace lo mismo con
+ * salidas y entradas normales, que cogen el cerrojo de la franja del articulo, para comparar. El
+ * numero de hilos de cada grupo se puede cambiar con -tg.
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservasBenchmark {
+  /**
+   * articulos del almacen
+   */
+  private static final int ARTICULOS = 1000;
+  /**
+   * unidades iniciales de cada articulo
+   */
+  private static final int UNIDADES = 1_000_000_000;
+  /**
+   * milisegundos que dura una reserva si no se confirma ni se libera
+   */
+  private static final long PLAZO = 60_000;
+
+  /**
+   * articulos calientes, sobre los que trabajan todos los hilos
+   */
+  @Param({"1", "2", "4"})
+  int calientes;
+
+  /**
+   * almacen de la prueba
+   */
+  private Almacen almacen;
+  /**
+   * reservas del almacen
+   */
+  private ReservasAlmacen reservas;
+  /**
+   * codigos de los articulos calientes
+   */
+  private int[] codigos;
+
+  @Setup(Level.Trial)
+  public void llenar() throws NumeroNegativoException, ArticuloRepetidoException {
+    almacen = DatosBenchmark.llenar(ARTICULOS, UNIDADES);
+    codigos = Arrays.copyOf(DatosBenchmark.codigos(almacen), calientes);
+    reservas = new ReservasAlmacen(almacen);
+  }
+
+  @TearDown(Level.Trial)
+  public void cerrar() {
+    long pendientes = reservas.pendientes();
+    reservas.close();
+    if (pendientes != 0)
+      throw new IllegalStateException("Quedan " + pendientes + " reservas pendientes");
+  }
+
+  @Benchmark
+  @Group("reservas")
+  @GroupThreads(3)
+  public boolean reservarConfirmar(OperacionesBenchmark.Azar azar) {
+    return reservas.confirmar(reservas.reservar(azar.codigo(codigos), 1, PLAZO));
+  }
+
+  @Benchmark
+  @Group("reservas")
+  @GroupThreads(1)
+  public boolean reservarLiberar(OperacionesBenchmark.Azar azar) {
+    return reservas.liberar(reservas.reservar(azar.codigo(codigos), 1, PLAZO));
+  }
+
+  @Benchmark
+  @Group("salidas")
+  @GroupThreads(3)
+  public ResultadoMovimiento salida(OperacionesBenchmark.Azar azar) {
+    return almacen.salida(1, azar.codigo(codigos));
+  }
+
+  @Benchmark
+  @Group("salidas")
+  @GroupThreads(1)
+  public ResultadoMovimiento entrada(OperacionesBenchmark.Azar azar) {
+    return almacen.entrada(1, azar.codigo(codigos));
+  }
+}
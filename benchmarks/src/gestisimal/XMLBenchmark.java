@@ -0,0 +1,201 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import gestisimal.excepciones.AlmacenXMLException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Carga y guardado del XML con StAX ({@link Almacen#cargarXml(String)} y
+ * {@link Almacen#guardarXML(String)}) frente a como se hacian antes con DOM: el documento entero
+ * se construye en memoria con DocumentBuilder y se recorre con getElementsByTagName, o se escribe
+ * con un Transformer. Los dos caminos de DOM se conservan aqui como referencia. Con -prof gc se ve
+ * lo que reserva cada uno, y al terminar cada iteracion se escribe el pico de memoria ocupada
+ * (la suma de los picos de cada zona del heap, asi que es una cota por arriba).
+ * @author Sergio Vera Jurado
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class XMLBenchmark {
+  /**
+   * articulos del almacen
+   */
+  @Param({"100000", "1000000"})
+  int articulos;
+
+  /**
+   * almacen que se guarda
+   */
+  private Almacen almacen;
+  /**
+   * directorio de los archivos
+   */
+  private Path directorio;
+  /**
+   * archivo XML que se carga
+   */
+  private Path xml;
+  /**
+   * archivo XML que se guarda
+   */
+  private Path guardado;
+  /**
+   * memoria ocupada al empezar la iteracion
+   */
+  private long ocupada;
+
+  @Setup(Level.Trial)
+  public void generar()
+      throws NumeroNegativoException, ArticuloRepetidoException, IOException,
+      AlmacenXMLException {
+    almacen = DatosBenchmark.llenar(articulos, -1);
+    directorio = Files.createTempDirectory("gestisimal-benchmark");
+    xml = directorio.resolve("gestisimal.xml");
+    guardado = directorio.resolve("guardado.xml");
+    almacen.guardarXML(xml.toString());
+  }
+
+  @TearDown(Level.Trial)
+  public void borrar() throws IOException {
+    try (Stream<Path> archivos = Files.walk(directorio)) {
+      for (Path archivo : (Iterable<Path>) archivos.sorted(Comparator.reverseOrder())::iterator)
+        Files.delete(archivo);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void empezarPico() {
+    System.gc();
+    ocupada = 0;
+    for (MemoryPoolMXBean zona : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (zona.getType() == MemoryType.HEAP) {
+        zona.resetPeakUsage();
+        ocupada += zona.getUsage().getUsed();
+      }
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void escribirPico() {
+    long pico = 0;
+    for (MemoryPoolMXBean zona : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (zona.getType() == MemoryType.HEAP)
+        pico += zona.getPeakUsage().getUsed();
+    }
+    System.out.printf("pico de memoria: %d MB por encima de los %d MB de antes%n",
+        (pico - ocupada) >> 20, ocupada >> 20);
+  }
+
+  @Benchmark
+  public Almacen cargarStAX() throws AlmacenXMLException, NumeroNegativoException, IOException {
+    Almacen cargado = new Almacen();
+    cargado.cargarXml(xml.toString());
+    return cargado;
+  }
+
+  @Benchmark
+  public Almacen cargarDOM() throws ParserConfigurationException, SAXException, IOException,
+      NumeroNegativoException, ArticuloRepetidoException {
+    Document documento =
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xml.toFile());
+    documento.getDocumentElement().normalize();
+    Almacen cargado = new Almacen();
+    NodeList nodos = documento.getElementsByTagName("Articulo");
+    for (int i = 0; i < nodos.getLength(); i++) {
+      Element nodo = (Element) nodos.item(i);
+      cargado.alta(Double.parseDouble(campo(nodo, "PrecioCompra")),
+          Double.parseDouble(campo(nodo, "PrecioVenta")), campo(nodo, "Descripcion"),
+          Integer.parseInt(campo(nodo, "NumeroUnidades")),
+          Integer.parseInt(campo(nodo, "StockSeguridad")),
+          Integer.parseInt(campo(nodo, "StockMaximo")));
+    }
+    return cargado;
+  }
+
+  @Benchmark
+  public void guardarStAX() throws AlmacenXMLException, IOException {
+    almacen.guardarXML(guardado.toString());
+  }
+
+  @Benchmark
+  public void guardarDOM() throws ParserConfigurationException, TransformerException, IOException {
+    Document documento =
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Element raiz = documento.createElement("Almacen");
+    documento.appendChild(raiz);
+    for (Iterator<Articulo> i = almacen.articulos().iterator(); i.hasNext();) {
+      Articulo articulo = i.next();
+      Element nodo = documento.createElement("Articulo");
+      raiz.appendChild(nodo);
+      anadirCampo(nodo, "Descripcion", articulo.getDescripcion());
+      anadirCampo(nodo, "PrecioCompra", String.valueOf(articulo.getPrecioCompra()));
+      anadirCampo(nodo, "PrecioVenta", String.valueOf(articulo.getPrecioVenta()));
+      anadirCampo(nodo, "NumeroUnidades", String.valueOf(articulo.getNumeroUnidades()));
+      anadirCampo(nodo, "StockMaximo", String.valueOf(articulo.getStockMaximo()));
+      anadirCampo(nodo, "StockSeguridad", String.valueOf(articulo.getStockSeguridad()));
+    }
+    try (OutputStream salida = Files.newOutputStream(guardado)) {
+      TransformerFactory.newInstance().newTransformer()
+          .transform(new DOMSource(documento), new StreamResult(salida));
+    }
+  }
+
+  /**
+   * @param nodo elemento de un articulo
+   * @param nombre nombre de uno de sus campos
+   * @return el texto del campo
+   */
+  private static String campo(Element nodo, String nombre) {
+    return nodo.getElementsByTagName(nombre).item(0).getTextContent();
+  }
+
+  /**
+   * añade un campo a un elemento de un articulo
+   * @param nodo elemento del articulo
+   * @param nombre nombre del campo
+   * @param valor texto del campo
+   */
+  private static void anadirCampo(Element nodo, String nombre, String valor) {
+    Element campo = nodo.getOwnerDocument().createElement(nombre);
+    campo.appendChild(nodo.getOwnerDocument().createTextNode(valor));
+    nodo.appendChild(campo);
+  }
+}
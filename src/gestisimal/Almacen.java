@@ -1,27 +1,45 @@
 package gestisimal;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.JMException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import gestisimal.excepciones.AlmacenBinarioException;
 import gestisimal.excepciones.AlmacenCSVException;
 import gestisimal.excepciones.AlmacenXMLException;
 import gestisimal.excepciones.ArticuloInexistenteException;
@@ -30,12 +48,20 @@ import gestisimal.excepciones.CodigoNoValidoException;
 import gestisimal.excepciones.NumeroNegativoException;
 /**
  * Clase Almacen que realice el alta, baja, modificacion, entrada de mercancia (incrementa
- * unidades), salida de mercancia (decrementa unidades). El estado sera un ArrayList de articulos.
- * Esta clase es un envoltorio de un ArrayList. Su comportamiento sera: añadir articulos (no puede
- * haber dos artículos iguales), eliminar articulos, incrementar las existencias de un articulo (se
- * delega en la clase Articulo), decrementar las existencias de un articulo (nunca por debajo de
- * cero, se delega en la clase Articulo), devolver un articulo (para mostrarlo). Para listar el
- * almacen podra devolverse una cadena con todos los articulos del almacen (toString).
+ * unidades), salida de mercancia (decrementa unidades). El estado sera un indice de articulos por
+ * codigo (ver {@link IndiceArticulos}) que conserva el orden de alta. Su comportamiento sera:
+ * añadir articulos (no puede haber dos artículos iguales), eliminar articulos, incrementar las
+ * existencias de un articulo (se delega en la clase Articulo), decrementar las existencias de un
+ * articulo (nunca por debajo de cero, se delega en la clase Articulo), devolver un articulo (para
+ * mostrarlo). Para listar el almacen podra devolverse una cadena con todos los articulos del
+ * almacen (toString).
+ * Cada almacen tiene sus propios articulos y puede usarse desde varios hilos: el indice se
+ * protege con un StampedLock (las busquedas son lecturas optimistas) y las entradas y salidas de
+ * mercancia con cerrojos por franjas de codigo, asi que movimientos sobre articulos distintos no
+ * compiten entre si. Cada operacion cuenta sus llamadas, errores y latencias (ver
+ * {@link Metricas}), que se consultan con {@link #estadisticas()} o por JMX. Los guardados en CSV
+ * y XML escriben una vista del almacen en un momento dado (ver {@link VistaAlmacen}), asi que
+ * tambien pueden hacerse en otro hilo sin parar las entradas y salidas.
  * @author Sergio Vera Jurado
  *
  */
@@ -45,10 +71,116 @@ public class Almacen {
  */
   private static final String CSV_CABECERA =
       "Descripcion,Precio compra,Precio venta,Numero unidades,Stock maximo,Stock seguridad";
+  /**
+   * campos de la cabecera del csv
+   */
+  private static final String[] CSV_CAMPOS = CSV_CABECERA.split(",");
+  /**
+   * cabecera del csv de cambios: el codigo, si es una baja y los campos del csv
+   */
+  private static final String CAMBIOS_CABECERA = "Codigo,Baja," + CSV_CABECERA;
+  /**
+   * campos de la cabecera del csv de cambios
+   */
+  private static final String[] CAMBIOS_CAMPOS = CAMBIOS_CABECERA.split(",");
+  /**
+   * elementos con los campos de cada Articulo en el xml
+   */
+  private static final String[] XML_CAMPOS = {"Descripcion", "PrecioCompra", "PrecioVenta",
+      "NumeroUnidades", "StockMaximo", "StockSeguridad"};
+  /**
+   * numero de cerrojos entre los que se reparten los articulos (potencia de dos)
+   */
+  private static final int NUMERO_FRANJAS = 256;
+  /**
+   * mensaje de la excepcion de los codigos que no existen
+   */
+  private static final String ARTICULO_INEXISTENTE =
+      "El codigo introducido no pertenece a ningun art�culo";
+  /**
+   * articulos que se leen de cada vez al recorrer el almacen con {@link #articulos()}
+   */
+  private static final int TAMANO_PAGINA = 1024;
+  /**
+   * exportaciones en segundo plano que se escriben a la vez, como mucho
+   */
+  private static final int HILOS_EXPORTACION = 2;
+  /**
+   * exportaciones que pueden esperar a un hilo libre
+   */
+  private static final int COLA_EXPORTACION = 16;
+  /**
+   * ejecutor por defecto de las exportaciones (ver {@link #ejecutorExportaciones()})
+   */
+  private static final ThreadPoolExecutor EXPORTACIONES = ejecutorExportaciones();
   /**
    * objeto almacen en el que se guardan los articulos
    */
-  private static ArrayList<Articulo> almacen = new ArrayList<Articulo>();
+  private final IndiceArticulos almacen = new IndiceArticulos();
+  /**
+   * cerrojo del indice: exclusivo para altas, bajas y cargas, optimista para las busquedas
+   */
+  private final StampedLock cerrojo = new StampedLock();
+  /**
+   * cerrojos de las unidades de los articulos, repartidos por el codigo
+   */
+  private final ReentrantLock[] franjas = new ReentrantLock[NUMERO_FRANJAS];
+  /**
+   * observadores de los cambios de los articulos (se sustituye el array entero al cambiarlos)
+   */
+  private volatile ObservadorAlmacen[] observadores = new ObservadorAlmacen[0];
+  /**
+   * articulos bajo minimos y sobre el maximo, al dia con cada cambio
+   */
+  private final IndiceStock indiceStock = new IndiceStock();
+  /**
+   * totales de unidades y valor, al dia con cada cambio
+   */
+  private final Valoracion valoracion = new Valoracion();
+  /**
+   * palabras de las descripciones de los articulos
+   */
+  private final IndiceDescripciones indiceDescripciones = new IndiceDescripciones(codigo -> {
+    Articulo articulo = leer(codigo);
+    return articulo == null ? null : articulo.getDescripcion();
+  });
+  /**
+   * indices ordenados creados, por el ordinal de su campo (null si no se ha creado). Se sustituye
+   * el array entero al cambiarlos
+   */
+  private volatile IndiceOrdenado[] indicesOrdenados =
+      new IndiceOrdenado[IndiceOrdenado.Campo.values().length];
+  /**
+   * diario de operaciones, o null si el almacen no lo usa
+   */
+  private volatile Diario diario;
+  /**
+   * instantanea de los puntos de control del diario
+   */
+  private Path instantanea;
+  /**
+   * generacion de la ultima instantanea de un punto de control
+   */
+  private int generacion;
+  /**
+   * articulos cambiados desde los puntos de control de cambios, o null si no se apuntan
+   */
+  private volatile CambiosAlmacen cambios;
+  /**
+   * numero de llamadas, errores y latencias de cada operacion
+   */
+  private final Metricas metricas = new Metricas();
+
+  /**
+   * Constructor de un almacen vacio
+   */
+  Almacen() {
+    for (int i = 0; i < franjas.length; i++)
+      franjas[i] = new ReentrantLock();
+    anadirObservador(indiceStock);
+    anadirObservador(valoracion);
+    anadirObservador(indiceDescripciones);
+  }
 
   /**
    * Da de alta un articulo
@@ -58,20 +190,29 @@ public class Almacen {
    * @param numeroUnidades Cantidades disponibles del nuevo articulo
    * @param stockSeguridad Stock minimo permitido de un nuevo articulo
    * @param stockMaximo Stock maximo permitido de un nuevo articulo
+   * @return codigo del articulo nuevo
    * @throws NumeroNegativoException Salta cuando el numero de unidades o el precio de compra es negativo
    * @throws ArticuloRepetidoException Salta cuando el articulo tiene el mismo codigo que otro ya creado
    */
 
-  void alta(double precioCompra, double precioVenta, String descripcion, int numeroUnidades,
+  int alta(double precioCompra, double precioVenta, String descripcion, int numeroUnidades,
       int stockSeguridad, int stockMaximo)
       throws NumeroNegativoException, ArticuloRepetidoException {
-    Articulo articulo = new Articulo(precioCompra, precioVenta, descripcion, numeroUnidades,
-        stockSeguridad, stockMaximo);
-    if (!almacen.contains(articulo))
-      almacen.add(articulo);
-    else
-      throw new ArticuloRepetidoException("El articulo introducido ya existe");
-
+    long inicio = metricas.empezar(Metricas.Operacion.ALTA);
+    Articulo articulo;
+    try {
+      articulo = new Articulo(precioCompra, precioVenta, descripcion, numeroUnidades,
+          stockSeguridad, stockMaximo);
+    } catch (NumeroNegativoException | IllegalArgumentException e) {
+      metricas.fallo(Metricas.Operacion.ALTA, inicio, e);
+      throw e;
+    }
+    if (!anadir(articulo))
+      throw metricas.fallo(Metricas.Operacion.ALTA, inicio,
+          new ArticuloRepetidoException("El articulo introducido ya existe"));
+    esperarDiario();
+    metricas.terminar(Metricas.Operacion.ALTA, inicio);
+    return articulo.getCodigo();
   }
 
   /**
@@ -83,14 +224,16 @@ public class Almacen {
    */
 
   boolean eliminar(int codigo) throws CodigoNoValidoException {
-    return almacen.remove(new Articulo(codigo));
-
+    long inicio = metricas.empezar(Metricas.Operacion.ELIMINAR);
+    boolean eliminado = quitar(codigo);
+    esperarDiario();
+    metricas.terminar(Metricas.Operacion.ELIMINAR, inicio);
+    return eliminado;
   }
 
   /**
-   * metodo que busca un articulo y llama al metodo incrementar de 
-   * la clase articulo
-   * @see Articulo
+   * metodo que da entrada a mercancia y lanza una excepcion si no se puede (ver
+   * {@link #entrada(int, int)})
    * @param cantidad el numero por el que se va a incrementar el articulo
    * @param codigo el codigo del articulo que se va a incrementar
    * @throws NumeroNegativoException Salta cuando el numero de unidades o el precio de compra es negativo
@@ -98,15 +241,12 @@ public class Almacen {
    */
   void incrementarCantidad(int cantidad, int codigo)
       throws NumeroNegativoException, ArticuloInexistenteException {
-    buscarArticulo(codigo).incrementar(cantidad);
-
-
+    lanzar(entrada(cantidad, codigo), "incrementar");
   }
 
   /**
-   * metodo que busca un articulo y llama al metodo decrementar de 
-   * la clase articulo
-   * @see Articulo 
+   * metodo que da salida a mercancia y lanza una excepcion si no se puede (ver
+   * {@link #salida(int, int)})
    * @param cantidad la cantidad en la que se va a decrementar
    * @param codigo para buscar un articulo en base a su codigo
    * @throws NumeroNegativoException Salta cuando el numero de unidades o el precio de compra es negativo
@@ -114,46 +254,1052 @@ public class Almacen {
    */
   void decrementarCantidad(int cantidad, int codigo)
       throws NumeroNegativoException, ArticuloInexistenteException {
-    buscarArticulo(codigo).decrementar(cantidad);
+    lanzar(salida(cantidad, codigo), "decrementar");
   }
 
   /**
-   * Devuelve la posición del articulo en el arraylist segun el codigo pasado
+   * Entrada de mercancia sin excepciones: en lugar de lanzarlas devuelve el resultado, asi que
+   * un codigo erroneo (algo habitual al leer con terminales) cuesta lo que una busqueda
+   * @param cantidad unidades que entran
+   * @param codigo codigo del articulo
+   * @return OK; INEXISTENTE si el codigo no existe; CANTIDAD_NEGATIVA si la cantidad es negativa;
+   *         NEGATIVO si las unidades se saldrian de rango
+   */
+  ResultadoMovimiento entrada(int cantidad, int codigo) {
+    return mover(Metricas.Operacion.INCREMENTAR, codigo, cantidad, false);
+  }
+
+  /**
+   * Salida de mercancia sin excepciones, como {@link #entrada(int, int)}
+   * @param cantidad unidades que salen
+   * @param codigo codigo del articulo
+   * @return OK; INEXISTENTE si el codigo no existe; CANTIDAD_NEGATIVA si la cantidad es negativa;
+   *         NEGATIVO si no hay unidades suficientes sin reservar (ver {@link ReservasAlmacen})
+   */
+  ResultadoMovimiento salida(int cantidad, int codigo) {
+    return mover(Metricas.Operacion.DECREMENTAR, codigo, cantidad, true);
+  }
+
+  /**
+   * hace una entrada o una salida de mercancia y apunta sus metricas
+   * @param operacion operacion que se mide
+   * @param codigo codigo del articulo
+   * @param cantidad unidades que entran o salen
+   * @param salida true si las unidades salen
+   * @return el resultado
+   */
+  private ResultadoMovimiento mover(Metricas.Operacion operacion, int codigo, int cantidad,
+      boolean salida) {
+    long inicio = metricas.empezar(operacion);
+    Articulo articulo = leer(codigo);
+    ResultadoMovimiento resultado;
+    if (articulo == null)
+      resultado = ResultadoMovimiento.INEXISTENTE;
+    else if (cantidad < 0)
+      resultado = ResultadoMovimiento.CANTIDAD_NEGATIVA;
+    else
+      resultado = moverUnidades(articulo, salida ? -cantidad : cantidad);
+    if (resultado != ResultadoMovimiento.OK) {
+      metricas.fallo(operacion, inicio, resultado.name());
+      return resultado;
+    }
+    esperarDiario();
+    metricas.terminar(operacion, inicio);
+    return resultado;
+  }
+
+  /**
+   * suma una cantidad a las unidades de un articulo con el cerrojo de su franja y avisa a los
+   * observadores. No espera al diario
+   * @param articulo articulo
+   * @param cantidad unidades que entran (positiva) o salen (negativa)
+   * @return OK; INEXISTENTE si el articulo se ha eliminado despues de buscarlo; NEGATIVO si las
+   *         unidades se saldrian de rango
+   */
+  private ResultadoMovimiento moverUnidades(Articulo articulo, int cantidad) {
+    ReentrantLock franja = franjas[indiceFranja(articulo.getCodigo())];
+    franja.lock();
+    try {
+      if (articulo.dadoDeBaja())
+        return ResultadoMovimiento.INEXISTENTE;
+      int anteriores = articulo.getNumeroUnidades();
+      if (!articulo.mover(cantidad))
+        return ResultadoMovimiento.NEGATIVO;
+      notificarMovimiento(articulo, anteriores);
+      return ResultadoMovimiento.OK;
+    } finally {
+      franja.unlock();
+    }
+  }
+
+  /**
+   * da salida a las unidades de una reserva (ver {@link ReservasAlmacen}) con el cerrojo de la
+   * franja del articulo y avisa a los observadores. Como las unidades ya se descontaron de las
+   * disponibles al reservar, no puede faltar ninguna
+   * @param articulo articulo reservado
+   * @param cantidad unidades reservadas
+   * @return false si el articulo ya no esta en el almacen
+   */
+  boolean confirmarReserva(Articulo articulo, int cantidad) {
+    long inicio = metricas.empezar(Metricas.Operacion.DECREMENTAR);
+    ReentrantLock franja = franjas[indiceFranja(articulo.getCodigo())];
+    franja.lock();
+    try {
+      if (articulo.dadoDeBaja()) {
+        metricas.fallo(Metricas.Operacion.DECREMENTAR, inicio,
+            ResultadoMovimiento.INEXISTENTE.name());
+        return false;
+      }
+      int anteriores = articulo.getNumeroUnidades();
+      articulo.confirmar(cantidad);
+      notificarMovimiento(articulo, anteriores);
+    } finally {
+      franja.unlock();
+    }
+    esperarDiario();
+    metricas.terminar(Metricas.Operacion.DECREMENTAR, inicio);
+    return true;
+  }
+
+  /**
+   * lanza la excepcion que corresponde al resultado de una entrada o salida de mercancia
+   * @param resultado resultado
+   * @param verbo "incrementar" o "decrementar", para el mensaje
+   * @throws ArticuloInexistenteException si el resultado es INEXISTENTE
+   * @throws NumeroNegativoException si el resultado es CANTIDAD_NEGATIVA
+   * @throws IllegalArgumentException si el resultado es NEGATIVO
+   */
+  private static void lanzar(ResultadoMovimiento resultado, String verbo)
+      throws ArticuloInexistenteException, NumeroNegativoException {
+    switch (resultado) {
+      case INEXISTENTE:
+        throw new ArticuloInexistenteException(ARTICULO_INEXISTENTE);
+      case CANTIDAD_NEGATIVA:
+        throw new NumeroNegativoException("No puedes " + verbo + " usando numeros negativos");
+      case NEGATIVO:
+        throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
+      default:
+    }
+  }
+
+  /**
+   * Aplica un lote de entradas y salidas de mercancia. Los movimientos se agrupan por codigo, de
+   * forma que cada articulo se busca una sola vez y sus movimientos se aplican en el orden del
+   * lote. En lugar de lanzar una excepcion por cada linea erronea se devuelve el resultado de
+   * cada una.
+   * @param codigos codigo del articulo de cada movimiento
+   * @param cantidades unidades de cada movimiento: positivas si entran, negativas si salen
+   * @param todoONada si es true, basta con que un movimiento falle para que no se aplique ninguno
+   *        (el lote se ha aplicado si todos los resultados son OK); si es false se aplican todos
+   *        los movimientos correctos
+   * @return el resultado de cada movimiento, en el mismo orden que el lote
+   */
+  ResultadoMovimiento[] aplicarMovimientos(int[] codigos, int[] cantidades, boolean todoONada) {
+    if (codigos.length != cantidades.length)
+      throw new IllegalArgumentException("Cada movimiento necesita un codigo y una cantidad");
+    ResultadoMovimiento[] resultados = new ResultadoMovimiento[codigos.length];
+    long[] orden = ordenarPorCodigo(codigos);
+    Articulo[] articulos = buscarArticulos(orden);
+    if (todoONada)
+      aplicarTodoONada(orden, articulos, cantidades, resultados);
+    else
+      aplicarMejorEsfuerzo(orden, articulos, cantidades, resultados);
+    esperarDiario();
+    return resultados;
+  }
+
+  /**
+   * ordena las lineas de un lote por codigo, manteniendo el orden del lote entre las lineas del
+   * mismo codigo
+   * @param codigos codigos del lote
+   * @return cada linea codificada como codigo (32 bits altos) y numero de linea (32 bits bajos)
+   */
+  private static long[] ordenarPorCodigo(int[] codigos) {
+    long[] orden = new long[codigos.length];
+    for (int i = 0; i < codigos.length; i++)
+      orden[i] = ((long) codigos[i] << 32) | i;
+    Arrays.sort(orden);
+    return orden;
+  }
+
+  /**
+   * busca los articulos de un lote con una sola adquisicion del cerrojo de lectura
+   * @param orden lineas del lote ordenadas por codigo
+   * @return el articulo de cada linea ordenada (null si no existe), buscado una vez por codigo
+   */
+  private Articulo[] buscarArticulos(long[] orden) {
+    Articulo[] articulos = new Articulo[orden.length];
+    long sello = cerrojo.readLock();
+    try {
+      for (int i = 0; i < orden.length; i++) {
+        int codigo = (int) (orden[i] >> 32);
+        articulos[i] = i > 0 && (int) (orden[i - 1] >> 32) == codigo ? articulos[i - 1]
+            : almacen.get(codigo);
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+    return articulos;
+  }
+
+  /**
+   * aplica cada movimiento correcto de un lote, articulo por articulo
+   * @param orden lineas del lote ordenadas por codigo
+   * @param articulos articulo de cada linea ordenada
+   * @param cantidades cantidades del lote
+   * @param resultados resultado de cada linea del lote
+   */
+  private void aplicarMejorEsfuerzo(long[] orden, Articulo[] articulos, int[] cantidades,
+      ResultadoMovimiento[] resultados) {
+    int i = 0;
+    while (i < orden.length) {
+      int fin = finGrupo(orden, i);
+      Articulo articulo = articulos[i];
+      if (articulo == null) {
+        for (; i < fin; i++)
+          resultados[(int) orden[i]] = ResultadoMovimiento.INEXISTENTE;
+        continue;
+      }
+      ReentrantLock franja = franjas[indiceFranja(articulo.getCodigo())];
+      franja.lock();
+      try {
+        for (; i < fin && articulo.dadoDeBaja(); i++)
+          resultados[(int) orden[i]] = ResultadoMovimiento.INEXISTENTE;
+        for (; i < fin; i++) {
+          int linea = (int) orden[i];
+          int anteriores = articulo.getNumeroUnidades();
+          if (articulo.mover(cantidades[linea])) {
+            resultados[linea] = ResultadoMovimiento.OK;
+            notificarMovimiento(articulo, anteriores);
+          } else {
+            resultados[linea] = ResultadoMovimiento.NEGATIVO;
+          }
+        }
+      } finally {
+        franja.unlock();
+      }
+    }
+  }
+
+  /**
+   * comprueba todos los movimientos de un lote con los cerrojos de sus articulos cogidos y solo
+   * los aplica si todos son correctos
+   * @param orden lineas del lote ordenadas por codigo
+   * @param articulos articulo de cada linea ordenada
+   * @param cantidades cantidades del lote
+   * @param resultados resultado de cada linea del lote
+   */
+  private void aplicarTodoONada(long[] orden, Articulo[] articulos, int[] cantidades,
+      ResultadoMovimiento[] resultados) {
+    int[] cogidas = franjasDelLote(articulos);
+    for (int f : cogidas)
+      franjas[f].lock();
+    try {
+      boolean correcto = true;
+      long[] finales = new long[orden.length];
+      for (int i = 0; i < orden.length;) {
+        int fin = finGrupo(orden, i);
+        Articulo articulo = articulos[i];
+        if (articulo != null && articulo.dadoDeBaja())
+          articulo = null;
+        long unidades = articulo == null ? 0 : articulo.getNumeroUnidades();
+        for (int j = i; j < fin; j++) {
+          int linea = (int) orden[j];
+          long siguiente = unidades + cantidades[linea];
+          if (articulo == null) {
+            resultados[linea] = ResultadoMovimiento.INEXISTENTE;
+            correcto = false;
+          } else if (siguiente < 0 || siguiente > Integer.MAX_VALUE) {
+            resultados[linea] = ResultadoMovimiento.NEGATIVO;
+            correcto = false;
+          } else {
+            resultados[linea] = ResultadoMovimiento.OK;
+            unidades = siguiente;
+          }
+        }
+        finales[i] = unidades;
+        i = fin;
+      }
+      if (correcto)
+        correcto = reservarSalidas(orden, articulos, cantidades, finales, resultados);
+      if (correcto) {
+        for (int i = 0; i < orden.length; i = finGrupo(orden, i)) {
+          int anteriores = articulos[i].getNumeroUnidades();
+          if (finales[i] < anteriores)
+            articulos[i].confirmar((int) (anteriores - finales[i]));
+          else
+            articulos[i].mover((int) (finales[i] - anteriores));
+          notificarMovimiento(articulos[i], anteriores);
+        }
+      }
+    } finally {
+      for (int k = cogidas.length - 1; k >= 0; k--)
+        franjas[cogidas[k]].unlock();
+    }
+  }
+
+  /**
+   * reserva las unidades que pierde cada articulo de un lote, porque las reservas (ver
+   * {@link ReservasAlmacen}) cambian las disponibles sin cerrojo. Si alguno no tiene bastantes
+   * disponibles se devuelven las ya reservadas y sus salidas quedan como NEGATIVO. Se llama con
+   * los cerrojos del lote cogidos
+   * @param orden lineas del lote ordenadas por codigo
+   * @param articulos articulo de cada linea ordenada
+   * @param cantidades cantidades del lote
+   * @param finales unidades finales de cada articulo, en su primera linea ordenada
+   * @param resultados resultado de cada linea del lote
+   * @return true si se han reservado todas
+   */
+  private static boolean reservarSalidas(long[] orden, Articulo[] articulos, int[] cantidades,
+      long[] finales, ResultadoMovimiento[] resultados) {
+    int fallo = -1;
+    for (int i = 0; i < orden.length && fallo < 0; i = finGrupo(orden, i)) {
+      long salen = articulos[i].getNumeroUnidades() - finales[i];
+      if (salen > 0 && !articulos[i].reservar((int) salen))
+        fallo = i;
+    }
+    if (fallo < 0)
+      return true;
+    for (int i = 0; i < fallo; i = finGrupo(orden, i)) {
+      long salen = articulos[i].getNumeroUnidades() - finales[i];
+      if (salen > 0)
+        articulos[i].liberar((int) salen);
+    }
+    for (int j = fallo; j < finGrupo(orden, fallo); j++) {
+      int linea = (int) orden[j];
+      if (cantidades[linea] < 0)
+        resultados[linea] = ResultadoMovimiento.NEGATIVO;
+    }
+    return false;
+  }
+
+  /**
+   * devuelve las franjas de los articulos de un lote, sin repetir y en orden creciente para que
+   * dos lotes no se bloqueen mutuamente
+   * @param articulos articulos del lote
+   * @return indices de las franjas
+   */
+  private static int[] franjasDelLote(Articulo[] articulos) {
+    boolean[] usadas = new boolean[NUMERO_FRANJAS];
+    int total = 0;
+    for (Articulo articulo : articulos) {
+      if (articulo != null && !usadas[indiceFranja(articulo.getCodigo())]) {
+        usadas[indiceFranja(articulo.getCodigo())] = true;
+        total++;
+      }
+    }
+    int[] cogidas = new int[total];
+    for (int f = 0, k = 0; f < NUMERO_FRANJAS; f++) {
+      if (usadas[f])
+        cogidas[k++] = f;
+    }
+    return cogidas;
+  }
+
+  /**
+   * devuelve el final del grupo de lineas del lote con el mismo codigo
+   * @param orden lineas del lote ordenadas por codigo
+   * @param inicio primera linea del grupo
+   * @return primera linea del grupo siguiente
+   */
+  private static int finGrupo(long[] orden, int inicio) {
+    int codigo = (int) (orden[inicio] >> 32);
+    int fin = inicio + 1;
+    while (fin < orden.length && (int) (orden[fin] >> 32) == codigo)
+      fin++;
+    return fin;
+  }
+
+  /**
+   * Devuelve el articulo del almacen segun el codigo pasado
    * @param codigo para buscar el artículo
    * @throws ArticuloInexistenteException si el codigo del articulo no existe
    * @return el Artículo encontrado   
    */
   Articulo buscarArticulo(int codigo) throws ArticuloInexistenteException {
+    Articulo articulo = buscarSiExiste(codigo);
+    if (articulo == null)
+      throw new ArticuloInexistenteException(ARTICULO_INEXISTENTE);
+    return articulo;
+  }
+
+  /**
+   * Busca un articulo sin excepciones: si el codigo no existe devuelve null, asi que un codigo
+   * erroneo no construye ninguna excepcion
+   * @param codigo codigo del articulo
+   * @return el articulo, o null si no existe
+   */
+  Articulo buscarSiExiste(int codigo) {
+    long inicio = metricas.empezar(Metricas.Operacion.BUSCAR);
+    Articulo articulo = leer(codigo);
+    if (articulo == null)
+      metricas.fallo(Metricas.Operacion.BUSCAR, inicio, ResultadoMovimiento.INEXISTENTE.name());
+    else
+      metricas.terminar(Metricas.Operacion.BUSCAR, inicio);
+    return articulo;
+  }
+
+  /**
+   * Busca articulos por su descripcion sin recorrer el almacen (ver {@link IndiceDescripciones}):
+   * cada palabra del texto debe ser el principio de alguna palabra de la descripcion, sin
+   * distinguir mayusculas ni acentos. Por ejemplo, "pech pollo" encuentra "Pechuga de pollo"
+   * @param texto palabras o principios de palabras que se buscan
+   * @return codigos de los articulos encontrados, ordenados
+   */
+  int[] buscarPorDescripcion(String texto) {
+    return indiceDescripciones.buscar(texto);
+  }
+
+  /**
+   * Suma las unidades de los articulos que encuentra {@link #buscarPorDescripcion(String)}, sin
+   * copiar los articulos ni contar busquedas en las metricas
+   * @param texto palabras o principios de palabras que se buscan
+   * @return unidades de los articulos encontrados
+   */
+  long unidadesPorDescripcion(String texto) {
+    long total = 0;
+    for (int codigo : indiceDescripciones.buscar(texto)) {
+      Articulo articulo = leer(codigo);
+      if (articulo != null)
+        total += articulo.getNumeroUnidades();
+    }
+    return total;
+  }
+
+  /**
+   * crea un indice ordenado por un campo (ver {@link IndiceOrdenado}), que ocupa memoria pero
+   * acelera {@link #buscarEntre}, {@link #mayores} y {@link #menores} con ese campo. Mientras se
+   * crea no se admite ninguna operacion
+   * @param campo campo por el que se ordena
+   */
+  void crearIndiceOrdenado(IndiceOrdenado.Campo campo) {
+    long sello = cerrojo.writeLock();
+    for (ReentrantLock franja : franjas)
+      franja.lock();
+    try {
+      if (indicesOrdenados[campo.ordinal()] != null)
+        return;
+      IndiceOrdenado indice = new IndiceOrdenado(campo);
+      for (Articulo articulo : almacen)
+        indice.alta(articulo);
+      IndiceOrdenado[] nuevos = indicesOrdenados.clone();
+      nuevos[campo.ordinal()] = indice;
+      indicesOrdenados = nuevos;
+      anadirObservador(indice);
+    } finally {
+      for (int i = franjas.length - 1; i >= 0; i--)
+        franjas[i].unlock();
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * borra el indice ordenado por un campo, si existe
+   * @param campo campo del indice
+   */
+  void borrarIndiceOrdenado(IndiceOrdenado.Campo campo) {
+    long sello = cerrojo.writeLock();
+    try {
+      IndiceOrdenado indice = indicesOrdenados[campo.ordinal()];
+      if (indice == null)
+        return;
+      quitarObservador(indice);
+      IndiceOrdenado[] nuevos = indicesOrdenados.clone();
+      nuevos[campo.ordinal()] = null;
+      indicesOrdenados = nuevos;
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * Busca los articulos con un campo entre dos valores, ambos incluidos. Usa el indice ordenado
+   * del campo si se ha creado, y si no recorre el almacen
+   * @param campo campo por el que se busca
+   * @param desde valor minimo
+   * @param hasta valor maximo
+   * @return codigos de los articulos, ordenados por el campo y luego por el codigo
+   */
+  int[] buscarEntre(IndiceOrdenado.Campo campo, double desde, double hasta) {
+    IndiceOrdenado indice = indicesOrdenados[campo.ordinal()];
+    if (indice != null)
+      return indice.buscarEntre(desde, hasta);
+    return ordenar(campo, desde, hasta, Integer.MAX_VALUE, false);
+  }
+
+  /**
+   * Devuelve los N articulos con un campo mayor. Usa el indice ordenado del campo si se ha creado,
+   * y si no recorre el almacen
+   * @param campo campo por el que se ordena
+   * @param n numero de articulos
+   * @return codigos de los articulos, de mayor a menor
+   */
+  int[] mayores(IndiceOrdenado.Campo campo, int n) {
+    IndiceOrdenado indice = indicesOrdenados[campo.ordinal()];
+    if (indice != null)
+      return indice.mayores(n);
+    return ordenar(campo, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, n, true);
+  }
+
+  /**
+   * Devuelve los N articulos con un campo menor. Usa el indice ordenado del campo si se ha creado,
+   * y si no recorre el almacen
+   * @param campo campo por el que se ordena
+   * @param n numero de articulos
+   * @return codigos de los articulos, de menor a mayor
+   */
+  int[] menores(IndiceOrdenado.Campo campo, int n) {
+    IndiceOrdenado indice = indicesOrdenados[campo.ordinal()];
+    if (indice != null)
+      return indice.menores(n);
+    return ordenar(campo, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, n, false);
+  }
+
+  /**
+   * recorre el almacen buscando los articulos con un campo en un rango, cuando no hay indice
+   * ordenado del campo
+   * @param campo campo
+   * @param desde valor minimo
+   * @param hasta valor maximo
+   * @param n numero maximo de articulos
+   * @param descendente true para ordenar de mayor a menor
+   * @return codigos de los articulos, ordenados por el campo y luego por el codigo
+   */
+  private int[] ordenar(IndiceOrdenado.Campo campo, double desde, double hasta, int n,
+      boolean descendente) {
+    if (n <= 0)
+      return new int[0];
+    double[] valores;
+    int[] codigos;
+    int total = 0;
+    long sello = cerrojo.readLock();
+    try {
+      valores = new double[almacen.size()];
+      codigos = new int[almacen.size()];
+      for (Articulo articulo : almacen) {
+        double valor = campo.valor(articulo);
+        if (valor >= desde && valor <= hasta) {
+          valores[total] = valor;
+          codigos[total++] = articulo.getCodigo();
+        }
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+    Integer[] orden = new Integer[total];
+    for (int i = 0; i < total; i++)
+      orden[i] = i;
+    Comparator<Integer> comparador = Comparator.<Integer>comparingDouble(i -> valores[i])
+        .thenComparingInt(i -> codigos[i]);
+    Arrays.sort(orden, descendente ? comparador.reversed() : comparador);
+    int[] resultado = new int[Math.min(n, total)];
+    for (int i = 0; i < resultado.length; i++)
+      resultado[i] = codigos[orden[i]];
+    return resultado;
+  }
+
+  /**
+   * Devuelve los articulos con menos unidades que su stock de seguridad, sin recorrer el almacen
+   * (ver {@link IndiceStock})
+   * @return los articulos bajo minimos, en el orden en el que han entrado en ese estado
+   */
+  Articulo[] articulosBajoMinimos() {
+    return indiceStock.bajoMinimos();
+  }
+
+  /**
+   * Devuelve los articulos con mas unidades que su stock maximo, sin recorrer el almacen
+   * @return los articulos sobre el maximo, en el orden en el que han entrado en ese estado
+   */
+  Articulo[] articulosSobreMaximo() {
+    return indiceStock.sobreMaximo();
+  }
+
+  /**
+   * @return unidades de todos los articulos del almacen
+   */
+  long unidadesTotales() {
+    return valoracion.unidades();
+  }
+
+  /**
+   * Devuelve el valor del almacen a precio de compra (precio de compra por unidades), sin
+   * recorrer el almacen (ver {@link Valoracion})
+   * @return el valor exacto
+   */
+  BigDecimal valorCompra() {
+    return valoracion.valorCompra();
+  }
+
+  /**
+   * Devuelve el valor del almacen a precio de venta (precio de venta por unidades), sin recorrer
+   * el almacen
+   * @return el valor exacto
+   */
+  BigDecimal valorVenta() {
+    return valoracion.valorVenta();
+  }
+
+  /**
+   * @return margen que se obtendria vendiendo todas las unidades (valor de venta menos valor de
+   *         compra)
+   */
+  BigDecimal margenPotencial() {
+    return valoracion.valorVenta().subtract(valoracion.valorCompra());
+  }
+
+  /**
+   * Devuelve las metricas de cada operacion hasta este momento: llamadas, errores por clase de
+   * excepcion, latencias y, en las cargas y guardados, articulos y bytes (ver {@link Metricas})
+   * @return las estadisticas de cada operacion
+   */
+  Map<Metricas.Operacion, EstadisticaOperacion> estadisticas() {
+    return metricas.estadisticas();
+  }
+
+  /**
+   * publica las metricas de cada operacion por JMX, con el nombre
+   * gestisimal:type=Almacen,name=nombre,operacion=OPERACION
+   * @param nombre nombre del almacen, distinto para cada almacen que se publique
+   * @throws JMException si el nombre no es valido o ya esta registrado
+   */
+  void registrarJMX(String nombre) throws JMException {
+    metricas.registrarJMX(nombre);
+  }
+
+  /**
+   * deja de publicar las metricas por JMX
+   * @throws JMException si falla el servidor JMX
+   */
+  void desregistrarJMX() throws JMException {
+    metricas.desregistrarJMX();
+  }
+
+  /**
+   * añade un oyente al que se avisa cuando un movimiento hace que un articulo cruce su stock de
+   * seguridad o su stock maximo
+   * @param oyente oyente que se añade
+   */
+  void anadirOyenteStock(IndiceStock.OyenteStock oyente) {
+    indiceStock.anadirOyente(oyente);
+  }
+
+  /**
+   * quita un oyente de los cambios de estado de stock
+   * @param oyente oyente que se quita
+   */
+  void quitarOyenteStock(IndiceStock.OyenteStock oyente) {
+    indiceStock.quitarOyente(oyente);
+  }
+
+  /**
+   * busca un articulo en el indice con una lectura optimista, y con el cerrojo de lectura si
+   * mientras tanto alguien ha modificado el indice. No apunta ninguna metrica, asi que tambien lo
+   * usan las clases del paquete que miden su propia operacion (ver {@link ReservasAlmacen})
+   * @param codigo codigo del articulo
+   * @return el articulo, o null si no existe
+   */
+  Articulo leer(int codigo) {
+    long sello = cerrojo.tryOptimisticRead();
+    Articulo articulo = null;
+    try {
+      articulo = almacen.get(codigo);
+    } catch (RuntimeException e) {
+      sello = 0;
+    }
+    if (!cerrojo.validate(sello)) {
+      sello = cerrojo.readLock();
+      try {
+        articulo = almacen.get(codigo);
+      } finally {
+        cerrojo.unlockRead(sello);
+      }
+    }
+    return articulo;
+  }
+
+  /**
+   * añade un articulo al indice con el cerrojo exclusivo. No espera al diario, para que las cargas
+   * esperen una sola vez al final
+   * @param articulo articulo que se añade
+   * @return false si ya existia un articulo con el mismo codigo
+   */
+  private boolean anadir(Articulo articulo) {
+    long sello = cerrojo.writeLock();
+    try {
+      if (!almacen.add(articulo))
+        return false;
+      notificarAlta(articulo);
+      return true;
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * quita un articulo del indice con el cerrojo exclusivo y el de su franja, sin esperar al
+   * diario. Con el de la franja ningun movimiento del articulo queda a medias: los que ya lo
+   * habian encontrado se aplican antes de la baja o ven despues que se ha dado de baja
+   * @param codigo codigo del articulo
+   * @return true si el articulo existia
+   */
+  private boolean quitar(int codigo) {
+    long sello = cerrojo.writeLock();
+    ReentrantLock franja = franjas[indiceFranja(codigo)];
+    franja.lock();
+    try {
+      Articulo articulo = almacen.remove(codigo);
+      if (articulo == null)
+        return false;
+      articulo.darDeBaja();
+      notificarBaja(articulo);
+      return true;
+    } finally {
+      franja.unlock();
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * añade un observador de los cambios de los articulos
+   * @param observador observador que se añade
+   */
+  synchronized void anadirObservador(ObservadorAlmacen observador) {
+    ObservadorAlmacen[] nuevos = Arrays.copyOf(observadores, observadores.length + 1);
+    nuevos[observadores.length] = observador;
+    observadores = nuevos;
+  }
+
+  /**
+   * quita un observador de los cambios de los articulos
+   * @param observador observador que se quita
+   */
+  synchronized void quitarObservador(ObservadorAlmacen observador) {
+    ObservadorAlmacen[] nuevos = new ObservadorAlmacen[observadores.length];
+    int n = 0;
+    for (ObservadorAlmacen o : observadores) {
+      if (o != observador)
+        nuevos[n++] = o;
+    }
+    observadores = Arrays.copyOf(nuevos, n);
+  }
+
+  /**
+   * avisa a los observadores de un alta
+   * @param articulo articulo nuevo
+   */
+  private void notificarAlta(Articulo articulo) {
+    for (ObservadorAlmacen observador : observadores)
+      observador.alta(articulo);
+  }
+
+  /**
+   * avisa a los observadores de las altas de una carga
+   * @param trozos articulos nuevos, repartidos en trozos
+   */
+  private void notificarAltas(Articulo[][] trozos) {
+    for (ObservadorAlmacen observador : observadores)
+      observador.altas(trozos);
+  }
+
+  /**
+   * avisa a los observadores de una baja
+   * @param articulo articulo eliminado
+   */
+  private void notificarBaja(Articulo articulo) {
+    for (ObservadorAlmacen observador : observadores)
+      observador.baja(articulo);
+  }
+
+  /**
+   * avisa a los observadores de un cambio de unidades
+   * @param articulo articulo con las unidades nuevas
+   * @param anteriores unidades que tenia antes
+   */
+  private void notificarMovimiento(Articulo articulo, int anteriores) {
+    for (ObservadorAlmacen observador : observadores)
+      observador.movimiento(articulo, anteriores);
+  }
+
+  /**
+   * espera a que las operaciones hechas hasta ahora esten en el diario, si lo hay
+   */
+  private void esperarDiario() {
+    Diario actual = diario;
+    if (actual != null)
+      actual.esperar();
+  }
+
+  /**
+   * Recupera el almacen tras arrancar: carga la instantanea del ultimo punto de control (si
+   * existe), repite encima las operaciones del diario y desde ese momento apunta en el diario
+   * cada alta, baja y movimiento antes de darlo por hecho (ver {@link Diario}). Se llama con el
+   * almacen vacio.
+   * @param fileInstantanea nombre del archivo de la instantanea de los puntos de control
+   * @param fileDiario nombre del archivo del diario
+   * @throws IOException
+   * @throws AlmacenBinarioException si la instantanea no es valida
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  void recuperar(String fileInstantanea, String fileDiario)
+      throws IOException, AlmacenBinarioException, NumeroNegativoException {
+    cerrarDiario();
+    Path rutaInstantanea = Paths.get(fileInstantanea);
+    int generacionInstantanea = 0;
+    if (Files.exists(rutaInstantanea)) {
+      generacionInstantanea = InstantaneaBinaria.generacion(rutaInstantanea);
+      cargarInstantanea(fileInstantanea);
+    }
+    Path rutaDiario = Paths.get(fileDiario);
+    Diario.reproducir(rutaDiario, generacionInstantanea, new Diario.Operaciones() {
+      @Override
+      public void alta(Articulo articulo) {
+        Articulo.avanzarCodigos(articulo.getCodigo());
+        anadir(articulo);
+      }
+
+      @Override
+      public void baja(int codigo) {
+        quitar(codigo);
+      }
+
+      @Override
+      public void movimiento(int codigo, int cantidad) {
+        Articulo articulo = leer(codigo);
+        if (articulo != null)
+          moverUnidades(articulo, cantidad);
+      }
+    });
+    Diario nuevo = new Diario(rutaDiario, generacionInstantanea);
+    synchronized (this) {
+      instantanea = rutaInstantanea;
+      generacion = generacionInstantanea;
+      diario = nuevo;
+    }
+    anadirObservador(nuevo);
+  }
+
+  /**
+   * Punto de control: guarda una instantanea con todo el almacen y vacia el diario, para que la
+   * siguiente recuperacion no tenga que repetirlo. Mientras dura no se admite ninguna operacion.
+   * @throws IOException
+   */
+  void puntoDeControl() throws IOException {
+    Diario actual = diario;
+    if (actual == null)
+      throw new IllegalStateException("El almacen no tiene diario");
+    long sello = cerrojo.writeLock();
+    for (ReentrantLock franja : franjas)
+      franja.lock();
     try {
-      return almacen.get(almacen.indexOf((new Articulo(codigo))));
-    } catch (IndexOutOfBoundsException e) {
-      throw new ArticuloInexistenteException(
-          "El codigo introducido no pertenece a ningun art�culo");
+      int siguiente = generacion + 1;
+      InstantaneaBinaria.guardar(almacen.toArray(), instantanea, siguiente);
+      actual.vaciar(siguiente);
+      generacion = siguiente;
+    } finally {
+      for (int i = franjas.length - 1; i >= 0; i--)
+        franjas[i].unlock();
+      cerrojo.unlockWrite(sello);
     }
   }
 
+  /**
+   * deja de usar el diario, esperando a que se escriban las operaciones pendientes
+   * @throws IOException
+   */
+  void cerrarDiario() throws IOException {
+    Diario actual;
+    synchronized (this) {
+      actual = diario;
+      diario = null;
+    }
+    if (actual != null) {
+      quitarObservador(actual);
+      actual.close();
+    }
+  }
+
+  /**
+   * devuelve la franja cuyo cerrojo protege las unidades de un articulo
+   * @param codigo codigo del articulo
+   * @return indice de la franja
+   */
+  static int indiceFranja(int codigo) {
+    return IndiceArticulos.hash(codigo) & (NUMERO_FRANJAS - 1);
+  }
+
 /**
  * toString del almacen
  */
   
   @Override
   public String toString() {
-    return "[almacen=" + almacen + "]";
+    long sello = cerrojo.readLock();
+    try {
+      return "[almacen=" + almacen + "]";
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
   }
 
   /**
-   * metodo que guarda los datos introducidos en un arhivo CSV
+   * Devuelve una pagina del listado del almacen, en orden de alta. Para recorrer todo el almacen
+   * se empieza por 0 y se sigue por {@link PaginaArticulos#getSiguiente()}; entre una pagina y
+   * otra no se bloquea el almacen. Las paginas siguen por numero de alta (ver
+   * {@link IndiceArticulos#posicionAlta(long)}), no por codigo, asi que si el articulo por el que
+   * se sigue se ha eliminado mientras tanto se continua por el que iba detras, sin volver a
+   * recorrer el almacen desde el principio. Si se ha vuelto a cargar el almacen entero (por
+   * ejemplo con {@link #cargarInstantanea(String)}), se sigue desde el principio
+   * @param desde numero de alta del primer articulo de la pagina, o 0 para empezar por el
+   *        principio
+   * @param tamano numero maximo de articulos de la pagina
+   * @param filtro condicion de los articulos que se listan, o null para listarlos todos. Se
+   *        evalua con el almacen bloqueado, asi que no puede llamar al almacen
+   * @return la pagina
+   */
+  PaginaArticulos listar(long desde, int tamano, Predicate<Articulo> filtro) {
+    if (tamano <= 0)
+      throw new IllegalArgumentException("El tamaño de la pagina debe ser positivo");
+    List<Articulo> articulos = new ArrayList<>(Math.min(tamano, TAMANO_PAGINA));
+    long siguiente = 0;
+    long sello = cerrojo.readLock();
+    try {
+      int fin = almacen.fin();
+      for (int posicion = desde <= 0 ? 0 : almacen.posicionAlta(desde); posicion < fin;
+          posicion++) {
+        Articulo articulo = almacen.enPosicion(posicion);
+        if (articulo == null || (filtro != null && !filtro.test(articulo)))
+          continue;
+        if (articulos.size() == tamano) {
+          siguiente = almacen.alta(posicion);
+          break;
+        }
+        articulos.add(articulo);
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+    return new PaginaArticulos(articulos.toArray(new Articulo[0]), siguiente);
+  }
+
+  /**
+   * Recorre el almacen en orden de alta leyendolo por paginas, asi que ocupa la misma memoria
+   * tenga el almacen los articulos que tenga y no lo bloquea mientras se procesa cada articulo
+   * @return los articulos del almacen
+   */
+  Stream<Articulo> articulos() {
+    Iterator<Articulo> iterador = new Iterator<Articulo>() {
+      private PaginaArticulos pagina = listar(0, TAMANO_PAGINA, null);
+      private int posicion;
+
+      @Override
+      public boolean hasNext() {
+        if (posicion == pagina.getArticulos().length && pagina.haySiguiente()) {
+          pagina = listar(pagina.getSiguiente(), TAMANO_PAGINA, null);
+          posicion = 0;
+        }
+        return posicion < pagina.getArticulos().length;
+      }
+
+      @Override
+      public Articulo next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        return pagina.getArticulos()[posicion++];
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterador,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * metodo que escribe el listado del almacen, un articulo por linea, segun lo va leyendo (ver
+   * {@link #articulos()}), en lugar de construir una sola cadena con todo como toString
+   * @param salida destino del listado, por ejemplo System.out
+   * @throws IOException si falla la escritura
+   */
+  void listar(Appendable salida) throws IOException {
+    Iterator<Articulo> articulos = articulos().iterator();
+    while (articulos.hasNext()) {
+      salida.append(articulos.next().toString()).append(System.lineSeparator());
+    }
+  }
+
+  /**
+   * metodo que guarda los datos introducidos en un arhivo CSV, comprimido con gzip si el nombre
+   * termina en .gz (ver {@link Compresion})
    * @param fileName Nombre del archivo 
    * @throws IOException
    */
 
   void guardarCSV(String fileName) throws IOException {
-    var file = Files.newBufferedWriter(Paths.get(fileName), StandardOpenOption.CREATE);
-    guardarCabeceraCSV(file);
-    for (Articulo articulo : almacen) {
-      guardarArticuloCSV(articulo, file);
+    try (VistaAlmacen vista = vista()) {
+      escribirCSV(vista, Paths.get(fileName), null);
     }
-    file.close();
+  }
+
+  /**
+   * metodo que guarda el almacen en un CSV en otro hilo mientras sigue trabajando. Se guarda tal
+   * como esta al llamar al metodo (ver {@link #vista()})
+   * @param fileName nombre del archivo
+   * @param progreso recibe el avance (ver {@link VistaAlmacen#avanzar}), o null
+   * @return se completa con el numero de articulos guardados o con la excepcion que lo haya
+   *         impedido (RejectedExecutionException si hay demasiadas exportaciones esperando).
+   *         Cancelarlo detiene la exportacion y deja el archivo como estaba
+   */
+  CompletableFuture<Long> exportarCSV(String fileName, VistaAlmacen.Progreso progreso) {
+    return exportarCSV(fileName, EXPORTACIONES, progreso);
+  }
+
+  /**
+   * metodo que guarda el almacen en un CSV con un ejecutor (ver
+   * {@link #exportarCSV(String, VistaAlmacen.Progreso)})
+   * @param fileName nombre del archivo
+   * @param ejecutor ejecutor en el que se escribe el archivo
+   * @param progreso recibe el avance, o null
+   * @return se completa con el numero de articulos guardados
+   */
+  CompletableFuture<Long> exportarCSV(String fileName, Executor ejecutor,
+      VistaAlmacen.Progreso progreso) {
+    return exportar(fileName, ejecutor, progreso, this::escribirCSV);
+  }
+
+  /**
+   * metodo que escribe una vista del almacen en un CSV. Se escribe primero un archivo temporal que
+   * despues sustituye al original, de forma que nunca queda un archivo a medias
+   * @param vista vista que se escribe
+   * @param ruta archivo
+   * @param progreso recibe el avance, o null
+   * @return numero de articulos escritos
+   * @throws IOException
+   */
+  private long escribirCSV(VistaAlmacen vista, Path ruta, VistaAlmacen.Progreso progreso)
+      throws IOException {
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.GUARDAR_CSV);
+    long filas = 0;
+    Path temporal = null;
+    try {
+      temporal = temporal(ruta);
+      try (BufferedWriter file = new BufferedWriter(new OutputStreamWriter(
+          Compresion.salida(temporal, Compresion.comprimido(ruta)),
+          StandardCharsets.UTF_8.newEncoder()))) {
+        guardarCabeceraCSV(file);
+        vista.avanzar(progreso, filas);
+        for (int i = 0; i < vista.numero(); i++) {
+          guardarArticuloCSV(vista.articulo(i), vista.unidades(i), file);
+          vista.avanzar(progreso, ++filas);
+        }
+      }
+      Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Throwable e) {
+      borrarTemporal(temporal, e);
+      metricas.fallo(Metricas.Operacion.GUARDAR_CSV, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.GUARDAR_CSV, inicio, filas, ruta);
+    }
+    return filas;
   }
 
   /**
@@ -162,7 +1308,7 @@ public class Almacen {
    * @throws IOException
    */
 
-  private void guardarCabeceraCSV(BufferedWriter file) throws IOException {
+  static void guardarCabeceraCSV(BufferedWriter file) throws IOException {
     file.write(CSV_CABECERA);
     file.newLine();
   }
@@ -170,74 +1316,123 @@ public class Almacen {
   /**
    * metodo que guarda las distintas variables de los articulos
    * @param articulo objeto de la clase articulo
+   * @param unidades unidades que se guardan (las de la vista, no las actuales)
    * @param file nombre del archivo
    * @throws IOException
    */
 
-  private void guardarArticuloCSV(Articulo articulo, BufferedWriter file)
+  private void guardarArticuloCSV(Articulo articulo, int unidades, BufferedWriter file)
       throws IOException {
-    file.write("\"" + articulo.getDescripcion() + "\",");
-    file.write("\"" + articulo.getPrecioCompra() + "\",");
-    file.write("\"" + articulo.getPrecioVenta() + "\",");
-    file.write("\"" + articulo.getNumeroUnidades() + "\",");
-    file.write("\"" + articulo.getStockMaximo() + "\",");
-    file.write("\"" + articulo.getStockSeguridad() + "\"");
+    guardarCampoCSV(articulo.getDescripcion(), file);
+    file.write(',');
+    guardarCampoCSV(String.valueOf(articulo.getPrecioCompra()), file);
+    file.write(',');
+    guardarCampoCSV(String.valueOf(articulo.getPrecioVenta()), file);
+    file.write(',');
+    guardarCampoCSV(String.valueOf(unidades), file);
+    file.write(',');
+    guardarCampoCSV(String.valueOf(articulo.getStockMaximo()), file);
+    file.write(',');
+    guardarCampoCSV(String.valueOf(articulo.getStockSeguridad()), file);
     file.newLine();
   }
 
   /**
-   * metodo que carga un archivo csv previamente especificado
+   * metodo que escribe un campo entre comillas, duplicando las comillas que contenga
+   * @param valor texto del campo
+   * @param file archivo en el que se escribe
+   * @throws IOException
+   */
+
+  static void guardarCampoCSV(String valor, BufferedWriter file) throws IOException {
+    file.write('"');
+    int desde = 0;
+    for (int i = valor.indexOf('"'); i >= 0; i = valor.indexOf('"', i + 1)) {
+      file.write(valor, desde, i + 1 - desde);
+      file.write('"');
+      desde = i + 1;
+    }
+    file.write(valor, desde, valor.length() - desde);
+    file.write('"');
+  }
+
+  /**
+   * metodo que carga un archivo csv previamente especificado. El archivo se lee en una sola
+   * pasada con {@link LectorCSV}, descomprimiendolo si esta comprimido con gzip
    * @param fileName nombre del archivo
    * @throws IOException
    * @throws AlmacenCSVException si no se encuentra el csv
    * @throws NumeroNegativoException cuando el numero es inferior a 0
    */
 
-  static void cargarCSV(String fileName)
+  void cargarCSV(String fileName)
       throws AlmacenCSVException, NumeroNegativoException, IOException {
-    var file = Files.newBufferedReader(Paths.get(fileName));
-    validadCabeceraCSV(file);
-
-    String line;
-    while ((line = file.readLine()) != null) {
-      Articulo articulo = nuevoArticuloCSV(line);
-      almacen.add(articulo);
+    Path ruta = Paths.get(fileName);
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.CARGAR_CSV);
+    long filas = 0;
+    try {
+      try (LectorCSV csv = new LectorCSV(
+          new InputStreamReader(Compresion.entrada(ruta), StandardCharsets.UTF_8.newDecoder()))) {
+        validadCabeceraCSV(csv);
+        while (csv.siguienteRegistro()) {
+          Articulo articulo = nuevoArticuloCSV(csv);
+          if (anadir(articulo))
+            filas++;
+        }
+      }
+      esperarDiario();
+    } catch (Throwable e) {
+      metricas.fallo(Metricas.Operacion.CARGAR_CSV, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.CARGAR_CSV, inicio, filas, ruta);
     }
-    file.close();
   }
 
   /**
    * metodo que valida la cabecera del csv que se va ha cargar
-   * @param file nombre del archivo
+   * @param csv lector del archivo
    * @throws IOException
    * @throws AlmacenCSVException si no se encuentra el csv
    */
-  private static void validadCabeceraCSV(BufferedReader file)
+  static void validadCabeceraCSV(LectorCSV csv)
+      throws IOException, AlmacenCSVException {
+    validarCabecera(csv, CSV_CAMPOS);
+  }
+
+  /**
+   * metodo que valida que la cabecera de un csv tenga unos campos
+   * @param csv lector del archivo
+   * @param campos campos de la cabecera
+   * @throws IOException
+   * @throws AlmacenCSVException si la cabecera no tiene esos campos
+   */
+  private static void validarCabecera(LectorCSV csv, String[] campos)
       throws IOException, AlmacenCSVException {
-    String cabecera = file.readLine().trim();
-    if (!cabecera.equalsIgnoreCase(CSV_CABECERA)) {
+    if (!csv.siguienteRegistro() || csv.numeroCampos() != campos.length)
       throw new AlmacenCSVException("Cabecera errónea en el CSV.");
+    for (int i = 0; i < campos.length; i++) {
+      if (!csv.igual(i, campos[i]))
+        throw new AlmacenCSVException("Cabecera errónea en el CSV.");
     }
   }
 
   /**
-   * metodo que lee el csv introducido y crea el articulo correspondiente
-   * @param line linea que se escribe
+   * metodo que crea el articulo correspondiente al registro actual del csv
+   * @param csv lector del archivo, situado en el registro del articulo
    * @return articulo articulo que se escribe
-   * @throws AlmacenCSVException si no se encuentra el csv
+   * @throws AlmacenCSVException si el registro no tiene los campos de la cabecera
    * @throws NumeroNegativoException si el numero es inferior a 0
    */
-  private static Articulo nuevoArticuloCSV(String line)
+  private static Articulo nuevoArticuloCSV(LectorCSV csv)
       throws AlmacenCSVException, NumeroNegativoException {
-    validarArticulosCSV(line);
-    String[] guardarArticulos = line.split("\",");
-
-    String descripcion = guardarArticulos[0].replace("\"", "");
-    double precioCompra = Double.parseDouble(guardarArticulos[1].replace("\"", ""));
-    double precioVenta = Double.parseDouble(guardarArticulos[2].replace("\"", ""));
-    int numeroUnidades = Integer.parseInt(guardarArticulos[3].replace("\"", ""));
-    int stockMaximo = Integer.parseInt(guardarArticulos[4].replace("\"", ""));
-    int stockSeguridad = Integer.parseInt(guardarArticulos[5].replace("\"", ""));
+    validarRegistroCSV(csv);
+    String descripcion = csv.texto(0);
+    double precioCompra = csv.decimal(1);
+    double precioVenta = csv.decimal(2);
+    int numeroUnidades = csv.entero(3);
+    int stockMaximo = csv.entero(4);
+    int stockSeguridad = csv.entero(5);
 
     return new Articulo(precioCompra, precioVenta, descripcion, numeroUnidades, stockSeguridad,
         stockMaximo);
@@ -245,188 +1440,661 @@ public class Almacen {
   }
 
   /**
-   * metodo que valida que las variables del csv sean las adecuadas
-   * @param line linea en la que se escribe
-   * @throws AlmacenCSVException si no se encuentra el csv
+   * metodo que valida que el registro actual del csv tenga los campos de la cabecera
+   * @param csv lector del archivo
+   * @throws AlmacenCSVException si el numero de campos no es el de la cabecera
    */
-  private static void validarArticulosCSV(String line) throws AlmacenCSVException {
-    int numeroDeCampos = line.split("\",").length;
-    int numeroDeCamposHead = CSV_CABECERA.split(",").length;
-
-    if (numeroDeCampos != numeroDeCamposHead) {
-      throw new AlmacenCSVException(
-          line + ": no es un formato válido para convertirlo en Articulo.");
+  static void validarRegistroCSV(LectorCSV csv) throws AlmacenCSVException {
+    if (csv.numeroCampos() != CSV_CAMPOS.length) {
+      throw new AlmacenCSVException("Registro " + csv.numeroRegistro()
+          + ": no es un formato válido para convertirlo en Articulo.");
     }
   }
 
   /**
-   * metodo que guarda los articulos creados en un archivo xml
+   * metodo que carga un archivo csv grande usando todos los procesadores: el archivo se proyecta
+   * en memoria y se lee por trozos en paralelo (ver {@link CargadorCSV}). Los articulos se añaden
+   * en el orden del archivo, igual que con {@link #cargarCSV(String)}, y se avisa a los
+   * observadores de todos a la vez (ver {@link ObservadorAlmacen#altas(Articulo[][])}), para que
+   * los indices y los totales se calculen tambien en paralelo. Un archivo comprimido no se puede
+   * proyectar, asi que se carga con {@link #cargarCSV(String)}
    * @param fileName nombre del archivo
-   * @throws AlmacenXMLException si no se encuentra el xml
    * @throws IOException
+   * @throws AlmacenCSVException si el csv no es valido
+   * @throws NumeroNegativoException cuando el numero es inferior a 0
    */
-  void guardarXML(String fileName) throws AlmacenXMLException, IOException {
+
+  void cargarCSVParalelo(String fileName)
+      throws AlmacenCSVException, NumeroNegativoException, IOException {
+    Path ruta = Paths.get(fileName);
+    if (Compresion.esGzip(ruta)) {
+      cargarCSV(fileName);
+      return;
+    }
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.CARGAR_CSV);
+    long filas = 0;
+    try {
+      Articulo[][] trozos = new CargadorCSV(ruta).cargar();
+      int total = 0;
+      for (Articulo[] trozo : trozos)
+        total += trozo.length;
+      long sello = cerrojo.writeLock();
+      try {
+        almacen.reservar(total);
+        for (Articulo[] trozo : trozos) {
+          for (Articulo articulo : trozo)
+            almacen.add(articulo);
+        }
+        notificarAltas(trozos);
+      } finally {
+        cerrojo.unlockWrite(sello);
+      }
+      filas = total;
+      esperarDiario();
+    } catch (Throwable e) {
+      metricas.fallo(Metricas.Operacion.CARGAR_CSV, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.CARGAR_CSV, inicio, filas, ruta);
+    }
+  }
+
+  /**
+   * Crea una vista del almacen tal como esta ahora (ver {@link VistaAlmacen}). Las entradas y
+   * salidas solo esperan mientras se coge una vez cada cerrojo para empezar a avisar a la vista,
+   * y las altas y bajas mientras se copia la lista de articulos
+   * @return la vista, que hay que cerrar al terminar con ella
+   */
+  VistaAlmacen vista() {
+    VistaAlmacen vista = new VistaAlmacen(this, franjas);
+    long sello = cerrojo.writeLock();
     try {
-      Document xml = crearDocumentXML();
-      guardarRootXML(xml);
-      for (Articulo articulo: almacen) {
-        guardarArticuloXML(articulo, xml);
+      for (ReentrantLock franja : franjas)
+        franja.lock();
+      try {
+        anadirObservador(vista);
+      } finally {
+        for (int i = franjas.length - 1; i >= 0; i--)
+          franjas[i].unlock();
       }
+      vista.fijar(almacen.toArray());
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+    return vista;
+  }
 
-      guardarArchivoXML(xml, fileName);
+  /**
+   * Escribe un archivo a partir de una vista (ver {@link #escribirCSV} y {@link #escribirXML})
+   */
+  private interface Escritor {
+    /**
+     * @param vista vista que se escribe
+     * @param ruta archivo
+     * @param progreso recibe el avance, o null
+     * @return numero de articulos escritos
+     * @throws Exception si falla la escritura
+     */
+    long escribir(VistaAlmacen vista, Path ruta, VistaAlmacen.Progreso progreso) throws Exception;
+  }
 
-    } catch (ParserConfigurationException | TransformerException e) {
-      throw new AlmacenXMLException("Error al generar XML");
+  /**
+   * crea una vista del almacen y la escribe con un ejecutor. La vista se cierra al completarse o
+   * cancelarse el resultado
+   * @param fileName nombre del archivo
+   * @param ejecutor ejecutor en el que se escribe el archivo
+   * @param progreso recibe el avance, o null
+   * @param escritor escribe la vista en el formato del archivo
+   * @return se completa con el numero de articulos escritos
+   */
+  private CompletableFuture<Long> exportar(String fileName, Executor ejecutor,
+      VistaAlmacen.Progreso progreso, Escritor escritor) {
+    Path ruta = Paths.get(fileName);
+    VistaAlmacen vista = vista();
+    CompletableFuture<Long> futuro = new CompletableFuture<>();
+    futuro.whenComplete((filas, e) -> vista.close());
+    try {
+      ejecutor.execute(() -> {
+        try {
+          futuro.complete(escritor.escribir(vista, ruta, progreso));
+        } catch (Throwable e) {
+          futuro.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      futuro.completeExceptionally(e);
     }
+    return futuro;
   }
 
   /**
-   * metodo que crea el documento Xml
-   * @return el constructor del documento
-   * @throws ParserConfigurationException
+   * crea el ejecutor por defecto de las exportaciones: HILOS_EXPORTACION hilos y una cola de
+   * COLA_EXPORTACION exportaciones, asi que una rafaga de exportaciones (por ejemplo desde
+   * {@link ServidorAlmacen}) no crea un hilo para cada una; las que no caben se rechazan. Los
+   * hilos no son daemon, para que la aplicacion no termine con una exportacion a medias, y se
+   * cierran al quedarse un segundo sin trabajo, para que tampoco la mantengan viva
+   * @return el ejecutor
    */
+  private static ThreadPoolExecutor ejecutorExportaciones() {
+    ThreadPoolExecutor ejecutor = new ThreadPoolExecutor(HILOS_EXPORTACION, HILOS_EXPORTACION,
+        1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(COLA_EXPORTACION), tarea -> {
+          Thread hilo = new Thread(tarea, "exportacion-almacen");
+          hilo.setDaemon(false);
+          return hilo;
+        });
+    ejecutor.allowCoreThreadTimeOut(true);
+    return ejecutor;
+  }
 
-  private Document crearDocumentXML() throws ParserConfigurationException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    Document document = builder.newDocument();
-    return document;
+  /**
+   * crea el archivo temporal en el que se escribe antes de sustituir al original. Esta en el
+   * mismo directorio, para que moverlo sea atomico, y tiene un nombre unico, asi que dos
+   * escrituras a la vez del mismo archivo no se pisan
+   * @param ruta archivo que se va a escribir
+   * @return archivo temporal, vacio
+   * @throws IOException si no se puede crear
+   */
+  static Path temporal(Path ruta) throws IOException {
+    Path absoluta = ruta.toAbsolutePath();
+    return Files.createTempFile(absoluta.getParent(), absoluta.getFileName() + ".", ".tmp");
   }
 
   /**
-   * metodo que crea el elemento root en el xml
-   * @param xml
+   * borra el archivo temporal de una escritura que ha fallado
+   * @param temporal archivo temporal, o null si no se llego a crear
+   * @param causa excepcion de la escritura, a la que se añade la del borrado si tambien falla
    */
+  static void borrarTemporal(Path temporal, Throwable causa) {
+    if (temporal == null)
+      return;
+    try {
+      Files.deleteIfExists(temporal);
+    } catch (IOException e) {
+      causa.addSuppressed(e);
+    }
+  }
 
-  private void guardarRootXML(Document xml) {
-    Element root = xml.createElement("Almacen");
-    xml.appendChild(root);
+  /**
+   * metodo que guarda el almacen en una instantanea binaria (ver {@link InstantaneaBinaria}), mucho
+   * mas rapida de guardar y cargar que el CSV o el XML y que conserva los codigos de los articulos.
+   * Como las exportaciones, guarda el almacen tal como estaba al empezar (ver {@link #vista()}):
+   * los articulos y las unidades se copian de la vista y despues se escribe el archivo sin ella
+   * @param fileName nombre del archivo
+   * @throws IOException
+   */
+  void guardarInstantanea(String fileName) throws IOException {
+    Articulo[] articulos;
+    int[] unidades;
+    try (VistaAlmacen vista = vista()) {
+      articulos = new Articulo[vista.numero()];
+      unidades = new int[articulos.length];
+      for (int i = 0; i < articulos.length; i++) {
+        articulos[i] = vista.articulo(i);
+        unidades[i] = vista.unidades(i);
+      }
+    }
+    InstantaneaBinaria.guardar(articulos, unidades, Paths.get(fileName), 0);
   }
 
   /**
-   * metodo que guarda las distintas variables del artículo en el xml
-   * @param articulo el articulo que se escribe
-   * @param xml el documento sobre el que se va a escribir
+   * metodo que sustituye los articulos del almacen por los de una instantanea binaria, con los
+   * mismos codigos con los que se guardaron. Los codigos se comprueban antes de tocar el almacen,
+   * asi que una instantanea erronea lo deja como estaba. El cambio se hace con todos los cerrojos,
+   * como el punto de control, y los articulos sustituidos se dan de baja: un movimiento o una
+   * reserva que los hubiera buscado antes ya no los modifica
+   * @param fileName nombre del archivo
+   * @throws IOException
+   * @throws AlmacenBinarioException si el archivo no es una instantanea valida
+   * @throws NumeroNegativoException cuando el numero es inferior a 0
    */
+  void cargarInstantanea(String fileName)
+      throws IOException, AlmacenBinarioException, NumeroNegativoException {
+    Articulo[] articulos = InstantaneaBinaria.cargar(Paths.get(fileName));
+    comprobarCodigos(articulos);
+    long sello = cerrojo.writeLock();
+    for (ReentrantLock franja : franjas)
+      franja.lock();
+    try {
+      for (Articulo anterior : almacen.toArray()) {
+        anterior.darDeBaja();
+        notificarBaja(anterior);
+      }
+      almacen.clear();
+      almacen.reservar(articulos.length);
+      for (Articulo articulo : articulos) {
+        almacen.add(articulo);
+        notificarAlta(articulo);
+      }
+    } finally {
+      for (int i = franjas.length - 1; i >= 0; i--)
+        franjas[i].unlock();
+      cerrojo.unlockWrite(sello);
+    }
+    esperarDiario();
+  }
 
-  private void guardarArticuloXML(Articulo articulo, Document xml) {
-    Element root = xml.getDocumentElement();
+  /**
+   * comprueba que los articulos de una instantanea no repiten codigo
+   * @param articulos articulos de la instantanea
+   * @throws AlmacenBinarioException si dos articulos tienen el mismo codigo
+   */
+  private static void comprobarCodigos(Articulo[] articulos) throws AlmacenBinarioException {
+    int[] codigos = new int[articulos.length];
+    for (int i = 0; i < codigos.length; i++)
+      codigos[i] = articulos[i].getCodigo();
+    Arrays.sort(codigos);
+    for (int i = 1; i < codigos.length; i++) {
+      if (codigos[i] == codigos[i - 1])
+        throw new AlmacenBinarioException("La instantanea repite el codigo " + codigos[i]);
+    }
+  }
 
-    Element articuloElement = xml.createElement("Articulo");
-    root.appendChild(articuloElement);
+  /**
+   * Punto de control de los cambios del almacen. La primera vez empieza a apuntar que articulos
+   * cambian (ver {@link CambiosAlmacen}); despues se puede exportar lo que haya cambiado desde el
+   * punto de control con {@link #exportarCambios(String, long)}. Para tener una copia al dia se
+   * guarda el almacen entero justo despues del primer punto de control, con
+   * {@link #guardarInstantanea(String)} porque conserva los codigos, y luego solo los cambios. Los
+   * cambios apuntados no se guardan: al reiniciar hay que volver a empezar con una copia entera.
+   * Mientras se cierra el punto de control no se admite ninguna operacion
+   * @return el punto de control
+   */
+  long puntoControlCambios() {
+    long sello = cerrojo.writeLock();
+    for (ReentrantLock franja : franjas)
+      franja.lock();
+    try {
+      if (cambios == null) {
+        cambios = new CambiosAlmacen();
+        anadirObservador(cambios);
+      }
+      return cambios.cerrar();
+    } finally {
+      for (int i = franjas.length - 1; i >= 0; i--)
+        franjas[i].unlock();
+      cerrojo.unlockWrite(sello);
+    }
+  }
 
-    guardarCampoArticulo("Descripcion", articulo.getDescripcion(), articuloElement);
-    guardarCampoArticulo("PrecioCompra", String.valueOf(articulo.getPrecioCompra()),
-        articuloElement);
-    guardarCampoArticulo("PrecioVenta", String.valueOf(articulo.getPrecioVenta()),
-        articuloElement);
-    guardarCampoArticulo("NumeroUnidades", String.valueOf(articulo.getNumeroUnidades()),
-        articuloElement);
-    guardarCampoArticulo("StockMaximo", String.valueOf(articulo.getStockMaximo()),
-        articuloElement);
-    guardarCampoArticulo("StockSeguridad", String.valueOf(articulo.getStockSeguridad()),
-        articuloElement);
+  /**
+   * metodo que guarda en un csv los articulos que han cambiado desde un punto de control: cada
+   * articulo que se ha dado de alta o ha tenido movimientos, tal como esta ahora y con su codigo,
+   * y una baja por cada articulo eliminado. Solo se recorren los articulos cambiados, no todo el
+   * almacen. Se comprime si el nombre termina en .gz y, como en {@link #guardarCSV(String)}, se
+   * escribe primero un archivo temporal. Los cambios anteriores al punto de control se olvidan,
+   * asi que despues solo se pueden pedir desde este o desde uno posterior
+   * @param fileName nombre del archivo
+   * @param desde punto de control devuelto por {@link #puntoControlCambios()} o por una exportacion
+   *          anterior, o 0 para todos los cambios desde que se apuntan
+   * @return punto de control hasta el que llegan los cambios guardados, para la siguiente
+   *         exportacion. Los que se hagan mientras se guardan pueden salir ya en el archivo, y
+   *         vuelven a salir en la siguiente
+   * @throws IOException
+   * @throws IllegalStateException si no se estan apuntando los cambios
+   * @throws IllegalArgumentException si los cambios desde ese punto de control ya se han olvidado
+   */
+  long exportarCambios(String fileName, long desde) throws IOException {
+    if (cambios == null)
+      throw new IllegalStateException("No se estan apuntando los cambios del almacen");
+    Path ruta = Paths.get(fileName);
+    long hasta = puntoControlCambios();
+    int[] codigos = cambios.cambiados(desde, hasta);
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.GUARDAR_CAMBIOS);
+    long filas = 0;
+    Path temporal = null;
+    try {
+      temporal = temporal(ruta);
+      try (BufferedWriter file = new BufferedWriter(new OutputStreamWriter(
+          Compresion.salida(temporal, Compresion.comprimido(ruta)),
+          StandardCharsets.UTF_8.newEncoder()))) {
+        file.write(CAMBIOS_CABECERA);
+        file.newLine();
+        for (int codigo : codigos) {
+          guardarCampoCSV(String.valueOf(codigo), file);
+          Articulo articulo = leer(codigo);
+          if (articulo == null) {
+            file.write(",\"1\",\"\",\"\",\"\",\"\",\"\",\"\"");
+            file.newLine();
+          } else {
+            file.write(",\"0\",");
+            guardarArticuloCSV(articulo, unidades(articulo), file);
+          }
+          filas++;
+        }
+      }
+      Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Throwable e) {
+      borrarTemporal(temporal, e);
+      metricas.fallo(Metricas.Operacion.GUARDAR_CAMBIOS, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.GUARDAR_CAMBIOS, inicio, filas, ruta);
+    }
+    return hasta;
+  }
 
+  /**
+   * metodo que aplica sobre el almacen los cambios guardados en otro con
+   * {@link #exportarCambios(String, long)}, normalmente una copia cargada de una instantanea. Los
+   * articulos que ya existen se quedan con las unidades del archivo, los que no existen se dan de
+   * alta con su codigo y las bajas eliminan el articulo si existe. Aplicar dos veces los mismos
+   * cambios deja el almacen igual. Si el archivo no es valido, los cambios anteriores al error se
+   * quedan aplicados. Un articulo con mas unidades reservadas (ver {@link ReservasAlmacen}) que
+   * las del archivo no puede bajar hasta ellas: se queda como estaba, se sigue con el resto y se
+   * devuelve su codigo para que se resuelva el conflicto, por ejemplo liberando las reservas y
+   * volviendo a aplicar los cambios
+   * @param fileName nombre del archivo, comprimido o no
+   * @return codigos de los articulos que no se han podido dejar con las unidades del archivo por
+   *         sus reservas, en el orden del archivo (vacio si se ha aplicado todo)
+   * @throws IOException
+   * @throws AlmacenCSVException si el csv no es valido
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  int[] cargarCambios(String fileName)
+      throws AlmacenCSVException, NumeroNegativoException, IOException {
+    Path ruta = Paths.get(fileName);
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.CARGAR_CAMBIOS);
+    long filas = 0;
+    int[] conflictos = new int[0];
+    int numeroConflictos = 0;
+    try {
+      try (LectorCSV csv = new LectorCSV(
+          new InputStreamReader(Compresion.entrada(ruta), StandardCharsets.UTF_8.newDecoder()))) {
+        validarCabecera(csv, CAMBIOS_CAMPOS);
+        while (csv.siguienteRegistro()) {
+          if (csv.numeroCampos() != CAMBIOS_CAMPOS.length)
+            throw new AlmacenCSVException("Registro " + csv.numeroRegistro()
+                + ": no es un formato válido para un cambio.");
+          int codigo = csv.entero(0);
+          if (csv.entero(1) != 0) {
+            quitar(codigo);
+          } else {
+            Articulo articulo = leer(codigo);
+            if (articulo != null) {
+              if (!fijarUnidades(articulo, csv.entero(5))) {
+                if (numeroConflictos == conflictos.length)
+                  conflictos = Arrays.copyOf(conflictos, Math.max(16, numeroConflictos * 2));
+                conflictos[numeroConflictos++] = codigo;
+              }
+            } else {
+              Articulo.avanzarCodigos(codigo);
+              anadir(new Articulo(codigo, csv.decimal(3), csv.decimal(4), csv.texto(2),
+                  csv.entero(5), csv.entero(7), csv.entero(6)));
+            }
+          }
+          filas++;
+        }
+      }
+      esperarDiario();
+    } catch (Throwable e) {
+      metricas.fallo(Metricas.Operacion.CARGAR_CAMBIOS, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.CARGAR_CAMBIOS, inicio, filas, ruta);
+    }
+    return Arrays.copyOf(conflictos, numeroConflictos);
   }
 
   /**
-   * Metodo que crea el campo en el xml
-   * @param atributo el nombre del atributo
-   * @param valorCampo valor que se escribe
-   * @param articuloElement elemento de articulo
+   * @param articulo articulo
+   * @return sus unidades, leidas con el cerrojo de su franja
    */
+  private int unidades(Articulo articulo) {
+    ReentrantLock franja = franjas[indiceFranja(articulo.getCodigo())];
+    franja.lock();
+    try {
+      return articulo.getNumeroUnidades();
+    } finally {
+      franja.unlock();
+    }
+  }
 
-  private void guardarCampoArticulo(String atributo, String valorCampo, Element articuloElement) {
-    Document xml = articuloElement.getOwnerDocument();
-    Element attrElement = xml.createElement(atributo);
-    attrElement.appendChild(xml.createTextNode(valorCampo));
-    articuloElement.appendChild(attrElement);
+  /**
+   * cambia las unidades de un articulo por otras con el cerrojo de su franja y avisa a los
+   * observadores si cambian. Si mientras tanto se ha eliminado el articulo no se hace nada. No
+   * espera al diario
+   * @param articulo articulo
+   * @param unidades unidades nuevas
+   * @return false si no se puede porque hay mas unidades reservadas que las nuevas
+   * @throws NumeroNegativoException si las unidades son negativas
+   */
+  private boolean fijarUnidades(Articulo articulo, int unidades) throws NumeroNegativoException {
+    if (unidades < 0)
+      throw new NumeroNegativoException("No puedes introducir una cantidad inferior a cero");
+    ReentrantLock franja = franjas[indiceFranja(articulo.getCodigo())];
+    franja.lock();
+    try {
+      int anteriores = articulo.getNumeroUnidades();
+      if (articulo.dadoDeBaja() || unidades == anteriores)
+        return true;
+      if (!articulo.mover(unidades - anteriores))
+        return false;
+      notificarMovimiento(articulo, anteriores);
+      return true;
+    } finally {
+      franja.unlock();
+    }
   }
 
   /**
-   * Metodo que guarda el xml con el nombre especificado
-   * @param xml documento
+   * metodo que guarda los articulos creados en un archivo xml. El xml se escribe como un flujo
+   * (StAX) sobre un buffer, articulo a articulo, sin construir el documento en memoria. Si el
+   * nombre termina en .gz se comprime con gzip (ver {@link Compresion})
    * @param fileName nombre del archivo
+   * @throws AlmacenXMLException si no se encuentra el xml
    * @throws IOException
-   * @throws TransformerException
    */
+  void guardarXML(String fileName) throws AlmacenXMLException, IOException {
+    try (VistaAlmacen vista = vista()) {
+      escribirXML(vista, Paths.get(fileName), null);
+    }
+  }
 
-  private void guardarArchivoXML(Document xml, String fileName)
-      throws IOException, TransformerException {
-    Transformer transformer = TransformerFactory.newInstance().newTransformer();
-    DOMSource xmlSource = new DOMSource(xml);
-    StreamResult output = new StreamResult(new FileWriter(fileName));
-    transformer.transform(xmlSource, output);
+  /**
+   * metodo que guarda el almacen en un xml en otro hilo mientras sigue trabajando (ver
+   * {@link #exportarCSV(String, VistaAlmacen.Progreso)})
+   * @param fileName nombre del archivo
+   * @param progreso recibe el avance, o null
+   * @return se completa con el numero de articulos guardados
+   */
+  CompletableFuture<Long> exportarXML(String fileName, VistaAlmacen.Progreso progreso) {
+    return exportarXML(fileName, EXPORTACIONES, progreso);
   }
 
   /**
-   * Metodo que carga el xml especificado
+   * metodo que guarda el almacen en un xml con un ejecutor (ver
+   * {@link #exportarCSV(String, VistaAlmacen.Progreso)})
    * @param fileName nombre del archivo
-   * @throws IOException
-   * @throws AlmacenXMLException si no se encuentra el xml
-   * @throws NumeroNegativoException si el numero es negativo
+   * @param ejecutor ejecutor en el que se escribe el archivo
+   * @param progreso recibe el avance, o null
+   * @return se completa con el numero de articulos guardados
    */
+  CompletableFuture<Long> exportarXML(String fileName, Executor ejecutor,
+      VistaAlmacen.Progreso progreso) {
+    return exportar(fileName, ejecutor, progreso, this::escribirXML);
+  }
 
-  static void cargarXml(String fileName)
-      throws IOException, AlmacenXMLException, NumeroNegativoException {
+  /**
+   * metodo que escribe una vista del almacen en un xml, como un flujo (StAX) sobre un buffer,
+   * articulo a articulo y sin construir el documento en memoria. El flujo escribe sobre un Writer
+   * con buffer: sobre un OutputStream escribiria los bytes de uno en uno, y cada uno pasaria por el
+   * cerrojo del BufferedOutputStream. Como en el CSV, se escribe un archivo temporal que despues
+   * sustituye al original
+   * @param vista vista que se escribe
+   * @param ruta archivo
+   * @param progreso recibe el avance, o null
+   * @return numero de articulos escritos
+   * @throws AlmacenXMLException si falla la generacion del xml
+   * @throws IOException
+   */
+  private long escribirXML(VistaAlmacen vista, Path ruta, VistaAlmacen.Progreso progreso)
+      throws AlmacenXMLException, IOException {
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.GUARDAR_XML);
+    long filas = 0;
+    Path temporal = null;
     try {
-      Document xml = nuevoDocumentoXML(fileName);
-      NodeList articulos = xml.getElementsByTagName("Articulo");
-      for (int i = 0; i < articulos.getLength(); i++) {
-        Articulo articulo = nuevoArticuloXML(articulos.item(i));
-        almacen.add(articulo);
+      temporal = temporal(ruta);
+      try (OutputStream file = Compresion.salida(temporal, Compresion.comprimido(ruta))) {
+        XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(
+            new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8)));
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeStartElement("Almacen");
+        vista.avanzar(progreso, filas);
+        for (int i = 0; i < vista.numero(); i++) {
+          guardarArticuloXML(vista.articulo(i), vista.unidades(i), xml);
+          vista.avanzar(progreso, ++filas);
+        }
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.close();
       }
-    } catch (ParserConfigurationException | SAXException e) {
-      throw new AlmacenXMLException("Error al cargar XML ");
+      Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (XMLStreamException e) {
+      borrarTemporal(temporal, e);
+      metricas.fallo(Metricas.Operacion.GUARDAR_XML, e);
+      throw new AlmacenXMLException("Error al generar XML");
+    } catch (Throwable e) {
+      borrarTemporal(temporal, e);
+      metricas.fallo(Metricas.Operacion.GUARDAR_XML, e);
+      throw e;
+    } finally {
+      metricas.terminar(Metricas.Operacion.GUARDAR_XML, inicio, filas, ruta);
     }
+    return filas;
+  }
+
+  /**
+   * metodo que guarda las distintas variables del artículo en el xml
+   * @param articulo el articulo que se escribe
+   * @param unidades unidades que se guardan (las de la vista, no las actuales)
+   * @param xml el flujo sobre el que se va a escribir
+   * @throws XMLStreamException
+   */
+
+  private void guardarArticuloXML(Articulo articulo, int unidades, XMLStreamWriter xml)
+      throws XMLStreamException {
+    xml.writeStartElement("Articulo");
+    guardarCampoArticulo(XML_CAMPOS[0], articulo.getDescripcion(), xml);
+    guardarCampoArticulo(XML_CAMPOS[1], String.valueOf(articulo.getPrecioCompra()), xml);
+    guardarCampoArticulo(XML_CAMPOS[2], String.valueOf(articulo.getPrecioVenta()), xml);
+    guardarCampoArticulo(XML_CAMPOS[3], String.valueOf(unidades), xml);
+    guardarCampoArticulo(XML_CAMPOS[4], String.valueOf(articulo.getStockMaximo()), xml);
+    guardarCampoArticulo(XML_CAMPOS[5], String.valueOf(articulo.getStockSeguridad()), xml);
+    xml.writeEndElement();
+  }
+
+  /**
+   * Metodo que crea el campo en el xml
+   * @param atributo el nombre del atributo
+   * @param valorCampo valor que se escribe
+   * @param xml el flujo sobre el que se va a escribir
+   * @throws XMLStreamException
+   */
+
+  private void guardarCampoArticulo(String atributo, String valorCampo, XMLStreamWriter xml)
+      throws XMLStreamException {
+    xml.writeStartElement(atributo);
+    xml.writeCharacters(valorCampo);
+    xml.writeEndElement();
   }
 
   /**
-   * metodo que crea el archivo xml
+   * Metodo que carga el xml especificado. El archivo se lee como un flujo (StAX), articulo a
+   * articulo, asi que la memoria usada no depende del tamaño del archivo. Si esta comprimido con
+   * gzip se descomprime mientras se lee
    * @param fileName nombre del archivo
-   * @return documento
-   * @throws ParserConfigurationException
    * @throws IOException
-   * @throws SAXException
+   * @throws AlmacenXMLException si no se encuentra el xml
+   * @throws NumeroNegativoException si el numero es negativo
    */
 
-  private static Document nuevoDocumentoXML(String fileName)
-      throws ParserConfigurationException, IOException, SAXException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    Document document = builder.parse(new File(fileName));
-    document.getDocumentElement().normalize();
-    return document;
+  void cargarXml(String fileName)
+      throws IOException, AlmacenXMLException, NumeroNegativoException {
+    Path ruta = Paths.get(fileName);
+    long inicio = metricas.empezarSiempre(Metricas.Operacion.CARGAR_XML);
+    long filas = 0;
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    try (InputStream file = Compresion.entrada(ruta)) {
+      XMLStreamReader xml = factory.createXMLStreamReader(file);
+      try {
+        while (xml.hasNext()) {
+          if (xml.next() == XMLStreamConstants.START_ELEMENT
+              && xml.getLocalName().equals("Articulo")) {
+            Articulo articulo = nuevoArticuloXML(xml);
+            if (anadir(articulo))
+              filas++;
+          }
+        }
+      } finally {
+        xml.close();
+      }
+    } catch (XMLStreamException e) {
+      metricas.fallo(Metricas.Operacion.CARGAR_XML, e);
+      throw new AlmacenXMLException("Error al cargar XML ");
+    } catch (Throwable e) {
+      metricas.fallo(Metricas.Operacion.CARGAR_XML, e);
+      throw e;
+    } finally {
+      esperarDiario();
+      metricas.terminar(Metricas.Operacion.CARGAR_XML, inicio, filas, ruta);
+    }
   }
 
   /**
    * metodo que crea el articulo en base a los datos del xml
-   * @param itemArticulo variable del articulo que se va a leer
+   * @param xml lector situado al principio de un elemento Articulo
    * @return un articulo nuevo
+   * @throws XMLStreamException si el xml no es valido
+   * @throws AlmacenXMLException si al articulo le falta algun campo
    * @throws NumeroNegativoException si el numero es inferior a 0
    */
-  private static Articulo nuevoArticuloXML(Node itemArticulo) throws NumeroNegativoException {
-    String descripcion = getCampoArticulo("Descripcion", itemArticulo);
-    double precioCompra = Double.parseDouble(getCampoArticulo("PrecioCompra", itemArticulo));
-    double precioVenta = Double.parseDouble(getCampoArticulo("PrecioVenta", itemArticulo));
-    int numeroUnidades = Integer.parseInt(getCampoArticulo("NumeroUnidades", itemArticulo));
-    int stockMaximo = Integer.parseInt(getCampoArticulo("StockMaximo", itemArticulo));
-    int stockSeguridad = Integer.parseInt(getCampoArticulo("StockSeguridad", itemArticulo));
+  private static Articulo nuevoArticuloXML(XMLStreamReader xml)
+      throws XMLStreamException, AlmacenXMLException, NumeroNegativoException {
+    String[] campos = new String[XML_CAMPOS.length];
+    for (int evento = xml.next(); evento != XMLStreamConstants.END_ELEMENT; evento = xml.next()) {
+      if (evento == XMLStreamConstants.START_ELEMENT)
+        getCampoArticulo(xml, campos);
+    }
+    for (int i = 0; i < campos.length; i++) {
+      if (campos[i] == null)
+        throw new AlmacenXMLException("Al articulo le falta el campo " + XML_CAMPOS[i]);
+    }
+    String descripcion = campos[0];
+    double precioCompra = Double.parseDouble(campos[1]);
+    double precioVenta = Double.parseDouble(campos[2]);
+    int numeroUnidades = Integer.parseInt(campos[3]);
+    int stockMaximo = Integer.parseInt(campos[4]);
+    int stockSeguridad = Integer.parseInt(campos[5]);
 
     return new Articulo(precioCompra, precioVenta, descripcion, numeroUnidades, stockSeguridad,
         stockMaximo);
   }
 
   /**
-   * metodo que obtiene los datos del nodo del xml
-   * @param field campo que se va a escribir
-   * @param itemArticulo nombre de la variable del articulo
-   * @return elemento
+   * metodo que lee un elemento hijo de un articulo y, si es uno de sus campos, guarda su texto
+   * @param xml lector situado al principio del elemento hijo
+   * @param campos texto de cada campo del articulo, en el orden de XML_CAMPOS
+   * @throws XMLStreamException si el xml no es valido
    */
 
-  private static String getCampoArticulo(String field, Node itemArticulo) {
-    Element elementoArticulo = (Element) itemArticulo;
-    return elementoArticulo.getElementsByTagName(field).item(0).getTextContent();
+  private static void getCampoArticulo(XMLStreamReader xml, String[] campos)
+      throws XMLStreamException {
+    String nombre = xml.getLocalName();
+    for (int i = 0; i < XML_CAMPOS.length; i++) {
+      if (XML_CAMPOS[i].equals(nombre)) {
+        campos[i] = xml.getElementText();
+        return;
+      }
+    }
+    for (int profundidad = 1; profundidad > 0;) {
+      int evento = xml.next();
+      if (evento == XMLStreamConstants.START_ELEMENT)
+        profundidad++;
+      else if (evento == XMLStreamConstants.END_ELEMENT)
+        profundidad--;
+    }
   }
 }
-
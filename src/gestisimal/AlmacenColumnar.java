@@ -0,0 +1,440 @@
+package gestisimal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Almacen que guarda los articulos por columnas (ver {@link ColumnasArticulos}) en lugar de un
+ * objeto Articulo por cada uno, pensado para almacenes de millones de articulos. Tiene las mismas
+ * operaciones basicas que {@link Almacen} y se protege igual: un StampedLock para las altas y
+ * bajas y cerrojos por franjas de codigo para las entradas y salidas de mercancia.
+ * <p>
+ * Los articulos no existen como objetos: {@link #buscarArticulo(int)} devuelve una copia, y los
+ * recorridos ({@link #recorrer(Consumer)}) pasan una sola {@link Vista} que se va situando en cada
+ * fila. Las sumas leen directamente las columnas, y el CSV una copia que se hace con el cerrojo
+ * compartido y se escribe sin el; si coinciden con entradas y salidas de mercancia, pueden ver las
+ * unidades de antes o de despues de cada una.
+ * @author Sergio Vera Jurado
+ *
+ */
+public class AlmacenColumnar {
+  /**
+   * numero de cerrojos entre los que se reparten los articulos (potencia de dos)
+   */
+  private static final int NUMERO_FRANJAS = 256;
+  /**
+   * columnas con los articulos
+   */
+  private final ColumnasArticulos columnas = new ColumnasArticulos();
+  /**
+   * cerrojo de las columnas: exclusivo para altas, bajas y cargas, compartido para el resto
+   */
+  private final StampedLock cerrojo = new StampedLock();
+  /**
+   * cerrojos de las unidades de los articulos, repartidos por el codigo
+   */
+  private final ReentrantLock[] franjas = new ReentrantLock[NUMERO_FRANJAS];
+
+  /**
+   * Acceso a los campos de una fila de las columnas con los mismos metodos que {@link Articulo}.
+   * Es un peso mosca: solo es valido dentro del recorrido que lo pasa, y no debe guardarse
+   */
+  class Vista {
+    /**
+     * fila en la que esta situada la vista
+     */
+    private int fila;
+
+    /**
+     * @return codigo
+     */
+    int getCodigo() {
+      return columnas.codigo(fila);
+    }
+
+    /**
+     * @return precioCompra
+     */
+    double getPrecioCompra() {
+      return columnas.precioCompra(fila);
+    }
+
+    /**
+     * @return precioVenta
+     */
+    double getPrecioVenta() {
+      return columnas.precioVenta(fila);
+    }
+
+    /**
+     * @return descripcion
+     */
+    String getDescripcion() {
+      return columnas.descripcion(fila);
+    }
+
+    /**
+     * @return numeroUnidades
+     */
+    int getNumeroUnidades() {
+      return columnas.unidades(fila);
+    }
+
+    /**
+     * @return stockSeguridad
+     */
+    int getStockSeguridad() {
+      return columnas.stockSeguridad(fila);
+    }
+
+    /**
+     * @return stockMaximo
+     */
+    int getStockMaximo() {
+      return columnas.stockMaximo(fila);
+    }
+
+    /**
+     * toString con el mismo formato que el de {@link Articulo}
+     */
+    @Override
+    public String toString() {
+      return "Articulo [codigo=" + getCodigo() + ", precioCompra=" + getPrecioCompra()
+          + ", precioVenta=" + getPrecioVenta() + ", descripcion=" + getDescripcion()
+          + ", numeroUnidades=" + getNumeroUnidades() + ", stockSeguridad=" + getStockSeguridad()
+          + ", stockMaximo=" + getStockMaximo() + "]";
+    }
+  }
+
+  /**
+   * Constructor de un almacen vacio
+   */
+  AlmacenColumnar() {
+    for (int i = 0; i < franjas.length; i++)
+      franjas[i] = new ReentrantLock();
+  }
+
+  /**
+   * Da de alta un articulo
+   * @param precioCompra El precio de compra de un articulo
+   * @param precioVenta El precio de venta de un articulo
+   * @param descripcion Descripción de un articulo
+   * @param numeroUnidades Cantidades disponibles del nuevo articulo
+   * @param stockSeguridad Stock minimo permitido de un nuevo articulo
+   * @param stockMaximo Stock maximo permitido de un nuevo articulo
+   * @throws NumeroNegativoException Salta cuando el numero de unidades o el precio de compra es
+   *         negativo
+   * @throws ArticuloRepetidoException Salta cuando el articulo tiene el mismo codigo que otro ya
+   *         creado
+   * @return el codigo del articulo
+   */
+  int alta(double precioCompra, double precioVenta, String descripcion, int numeroUnidades,
+      int stockSeguridad, int stockMaximo)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    validar(precioCompra, precioVenta, numeroUnidades);
+    int codigo = Articulo.reservarCodigos(1);
+    long sello = cerrojo.writeLock();
+    try {
+      if (!columnas.add(codigo, precioCompra, precioVenta, descripcion, numeroUnidades,
+          stockSeguridad, stockMaximo))
+        throw new ArticuloRepetidoException("El articulo introducido ya existe");
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+    return codigo;
+  }
+
+  /**
+   * Elimina un articulo previamente introducido pasandole el codigo
+   * @param codigo sirve para identificar un articulo
+   * @return True si la operacion se ha realizado correctamente
+   * @throws CodigoNoValidoException Si el codigo introducido no existe
+   */
+  boolean eliminar(int codigo) throws CodigoNoValidoException {
+    long sello = cerrojo.writeLock();
+    try {
+      return columnas.remove(codigo);
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * Incrementa las unidades de un articulo
+   * @param cantidad el numero por el que se va a incrementar el articulo
+   * @param codigo el codigo del articulo que se va a incrementar
+   * @throws NumeroNegativoException si la cantidad es negativa
+   * @throws ArticuloInexistenteException si el codigo introducido no se encuentra
+   */
+  void incrementarCantidad(int cantidad, int codigo)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    if (cantidad < 0)
+      throw new NumeroNegativoException("No puedes incrementar usando numeros negativos");
+    mover(codigo, cantidad);
+  }
+
+  /**
+   * Decrementa las unidades de un articulo
+   * @param cantidad el numero por el que se va a decrementar el articulo
+   * @param codigo el codigo del articulo que se va a decrementar
+   * @throws NumeroNegativoException si la cantidad es negativa
+   * @throws ArticuloInexistenteException si el codigo introducido no se encuentra
+   */
+  void decrementarCantidad(int cantidad, int codigo)
+      throws NumeroNegativoException, ArticuloInexistenteException {
+    if (cantidad < 0)
+      throw new NumeroNegativoException("No puedes decrementar usando numeros negativos");
+    mover(codigo, -cantidad);
+  }
+
+  /**
+   * Devuelve una copia del articulo del almacen segun el codigo pasado. Las entradas y salidas
+   * posteriores no cambian la copia
+   * @param codigo para buscar el artículo
+   * @throws ArticuloInexistenteException si el codigo del articulo no existe
+   * @return copia del artículo encontrado
+   */
+  Articulo buscarArticulo(int codigo) throws ArticuloInexistenteException {
+    long sello = cerrojo.readLock();
+    try {
+      int fila = buscarFila(codigo);
+      return new Articulo(codigo, columnas.precioCompra(fila), columnas.precioVenta(fila),
+          columnas.descripcion(fila), columnas.unidades(fila), columnas.stockSeguridad(fila),
+          columnas.stockMaximo(fila));
+    } catch (NumeroNegativoException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * recorre los articulos en orden de alta con una sola vista que se situa en cada uno. Mientras
+   * dura no se admiten altas ni bajas
+   * @param accion accion que se hace con cada articulo
+   */
+  void recorrer(Consumer<Vista> accion) {
+    Vista vista = new Vista();
+    long sello = cerrojo.readLock();
+    try {
+      int fin = columnas.fin();
+      for (int fila = 0; fila < fin; fila++) {
+        if (columnas.ocupada(fila)) {
+          vista.fila = fila;
+          accion.accept(vista);
+        }
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * @return numero de articulos del almacen
+   */
+  int numeroArticulos() {
+    long sello = cerrojo.readLock();
+    try {
+      return columnas.size();
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * @return suma de las unidades de todos los articulos
+   */
+  long unidadesTotales() {
+    long sello = cerrojo.readLock();
+    try {
+      return columnas.unidadesTotales();
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * @return valor del almacen a precio de compra (unidades por precio de compra)
+   */
+  double valorCompra() {
+    long sello = cerrojo.readLock();
+    try {
+      return columnas.valor(false);
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * @return valor del almacen a precio de venta (unidades por precio de venta)
+   */
+  double valorVenta() {
+    long sello = cerrojo.readLock();
+    try {
+      return columnas.valor(true);
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * toString del almacen, con el mismo formato que el de {@link Almacen}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[almacen=[");
+    recorrer(vista -> {
+      if (sb.length() > 10)
+        sb.append(", ");
+      sb.append(vista);
+    });
+    return sb.append("]]").toString();
+  }
+
+  /**
+   * metodo que guarda el almacen en un archivo CSV con el mismo formato que
+   * {@link Almacen#guardarCSV(String)} (comprimido si el nombre termina en .gz). Las columnas se
+   * copian con el cerrojo compartido y el archivo se escribe despues, sin bloquear las altas y
+   * bajas, primero en un archivo temporal que sustituye al original al terminar
+   * @param fileName Nombre del archivo
+   * @throws IOException
+   */
+  void guardarCSV(String fileName) throws IOException {
+    ColumnasArticulos copia;
+    long sello = cerrojo.readLock();
+    try {
+      copia = columnas.copiar();
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+    Path ruta = Paths.get(fileName);
+    Path temporal = Almacen.temporal(ruta);
+    try {
+      try (var file = new BufferedWriter(new OutputStreamWriter(
+          Compresion.salida(temporal, Compresion.comprimido(ruta)),
+          StandardCharsets.UTF_8.newEncoder()))) {
+        Almacen.guardarCabeceraCSV(file);
+        for (int fila = 0; fila < copia.fin(); fila++) {
+          Almacen.guardarCampoCSV(copia.descripcion(fila), file);
+          file.write(',');
+          Almacen.guardarCampoCSV(String.valueOf(copia.precioCompra(fila)), file);
+          file.write(',');
+          Almacen.guardarCampoCSV(String.valueOf(copia.precioVenta(fila)), file);
+          file.write(',');
+          Almacen.guardarCampoCSV(String.valueOf(copia.unidades(fila)), file);
+          file.write(',');
+          Almacen.guardarCampoCSV(String.valueOf(copia.stockMaximo(fila)), file);
+          file.write(',');
+          Almacen.guardarCampoCSV(String.valueOf(copia.stockSeguridad(fila)), file);
+          file.newLine();
+        }
+      }
+      Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Throwable e) {
+      Almacen.borrarTemporal(temporal, e);
+      throw e;
+    }
+  }
+
+  /**
+   * metodo que carga un archivo csv con el formato de {@link Almacen#guardarCSV(String)},
+   * escribiendo cada registro directamente en las columnas (comprimido o no)
+   * @param fileName nombre del archivo
+   * @throws IOException
+   * @throws AlmacenCSVException si el csv no es valido
+   * @throws NumeroNegativoException cuando el numero es inferior a 0
+   */
+  void cargarCSV(String fileName)
+      throws AlmacenCSVException, NumeroNegativoException, IOException {
+    try (LectorCSV csv = new LectorCSV(new InputStreamReader(
+        Compresion.entrada(Paths.get(fileName)), StandardCharsets.UTF_8.newDecoder()))) {
+      Almacen.validadCabeceraCSV(csv);
+      while (csv.siguienteRegistro()) {
+        Almacen.validarRegistroCSV(csv);
+        String descripcion = csv.texto(0);
+        double precioCompra = csv.decimal(1);
+        double precioVenta = csv.decimal(2);
+        int numeroUnidades = csv.entero(3);
+        int stockMaximo = csv.entero(4);
+        int stockSeguridad = csv.entero(5);
+        validar(precioCompra, precioVenta, numeroUnidades);
+        int codigo = Articulo.reservarCodigos(1);
+        long sello = cerrojo.writeLock();
+        try {
+          columnas.add(codigo, precioCompra, precioVenta, descripcion, numeroUnidades,
+              stockSeguridad, stockMaximo);
+        } finally {
+          cerrojo.unlockWrite(sello);
+        }
+      }
+    }
+  }
+
+  /**
+   * mueve unidades de un articulo con el cerrojo de su franja
+   * @param codigo codigo del articulo
+   * @param cantidad unidades que entran (positiva) o salen (negativa)
+   * @throws ArticuloInexistenteException si el codigo no existe
+   */
+  private void mover(int codigo, int cantidad) throws ArticuloInexistenteException {
+    long sello = cerrojo.readLock();
+    try {
+      int fila = buscarFila(codigo);
+      ReentrantLock franja = franjas[IndiceArticulos.hash(codigo) & (NUMERO_FRANJAS - 1)];
+      franja.lock();
+      try {
+        if (!columnas.mover(fila, cantidad))
+          throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
+      } finally {
+        franja.unlock();
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+  }
+
+  /**
+   * busca la fila de un articulo; quien lo llame debe tener el cerrojo
+   * @param codigo codigo del articulo
+   * @return la fila
+   * @throws ArticuloInexistenteException si el codigo no existe
+   */
+  private int buscarFila(int codigo) throws ArticuloInexistenteException {
+    int fila = columnas.buscar(codigo);
+    if (fila < 0)
+      throw new ArticuloInexistenteException(
+          "El codigo introducido no pertenece a ningun articulo");
+    return fila;
+  }
+
+  /**
+   * comprueba los valores de un articulo nuevo igual que el constructor de {@link Articulo}
+   * @param precioCompra precio de compra
+   * @param precioVenta precio de venta
+   * @param numeroUnidades unidades disponibles
+   */
+  private static void validar(double precioCompra, double precioVenta, int numeroUnidades) {
+    if (precioCompra < 0)
+      throw new IllegalArgumentException("El precio de compra no puede ser negativo");
+    if (precioVenta < 0)
+      throw new IllegalArgumentException("El precio de venta no puede ser negativo");
+    if (numeroUnidades < 0)
+      throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
+  }
+}
@@ -1,5 +1,8 @@
 package gestisimal;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
 import gestisimal.excepciones.NumeroNegativoException;
 
 /**
@@ -15,9 +18,22 @@ import gestisimal.excepciones.NumeroNegativoException;
  */
 public class Articulo {
   /**
-   * Incremento que permite identificar al articulo de forma inequivoca
+   * Incremento que permite identificar al articulo de forma inequivoca. Es atomico para que dos
+   * articulos creados a la vez desde hilos distintos no reciban el mismo codigo
    */
-  private static int codigoGenerar = 0;
+  private static final AtomicInteger codigoGenerar = new AtomicInteger();
+  /**
+   * acceso atomico a las unidades disponibles, para reservarlas sin cerrojo
+   */
+  private static final VarHandle DISPONIBLES;
+  static {
+    try {
+      DISPONIBLES =
+          MethodHandles.lookup().findVarHandle(Articulo.class, "disponibles", int.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
   /**
    * Identifica al articulo
    */
@@ -35,9 +51,17 @@ public class Articulo {
    */
   private String descripcion;
   /**
-   * Numero de unidades disponibles de un articulo
+   * Numero de unidades disponibles de un articulo. Solo se modifica con el cerrojo de su franja en
+   * el almacen; es volatile para que los listados y exportaciones vean el ultimo valor
    */
-  private int numeroUnidades;
+  private volatile int numeroUnidades;
+  /**
+   * Unidades que no estan reservadas: las unidades menos las de las reservas pendientes (ver
+   * {@link #reservar(int)}). Las reservas la cambian sin cerrojo con compareAndSet; los
+   * movimientos, con el cerrojo de la franja, la cambian antes que las unidades en las salidas y
+   * despues en las entradas, de forma que nunca supera a las unidades
+   */
+  private volatile int disponibles;
   /**
    * Stock minimo de un articulo (No es obligatorio que sea inferior al numero de unidades)
    */
@@ -46,6 +70,12 @@ public class Articulo {
    * Stock maximo de un articulo (No es obligatorio que sea inferior al numero de unidades)
    */
   private int stockMaximo;
+  /**
+   * true cuando el articulo se ha quitado del almacen. Solo se cambia y se lee con el cerrojo de
+   * su franja, para que un movimiento que ya habia encontrado el articulo no lo cambie despues de
+   * la baja
+   */
+  private boolean dadoDeBaja;
 
   /**
    * Construtor de la clase Articulo
@@ -59,7 +89,24 @@ public class Articulo {
    */
   Articulo(double precioCompra, double precioVenta, String descripcion, int numeroUnidades,
       int stockSeguridad, int stockMaximo) throws NumeroNegativoException {
-    setCodigo();
+    this(reservarCodigos(1), precioCompra, precioVenta, descripcion, numeroUnidades,
+        stockSeguridad, stockMaximo);
+  }
+
+  /**
+   * Construtor de la clase Articulo con un codigo ya reservado con {@link #reservarCodigos(int)}
+   * @param codigo codigo reservado para el articulo
+   * @param precioCompra El precio de compra de un articulo
+   * @param precioVenta El precio de venta de un articulo
+   * @param descripcion Descripción de un articulo
+   * @param numeroUnidades Cantidades disponibles del nuevo articulo
+   * @param stockSeguridad Stock minimo permitido de un nuevo articulo
+   * @param stockMaximo Stock maximo permitido de un nuevo articulo
+   * @throws NumeroNegativoException Salta cuando el numero de unidades o el precio de compra es negativo
+   */
+  Articulo(int codigo, double precioCompra, double precioVenta, String descripcion,
+      int numeroUnidades, int stockSeguridad, int stockMaximo) throws NumeroNegativoException {
+    this.codigo = codigo;
     setPrecioCompra(precioCompra);
     setPrecioVenta(precioVenta);
     setDescripcion(descripcion);
@@ -82,11 +129,21 @@ public class Articulo {
     return codigo;
   }
 /**
- * establece la variable codigo del articulo
+ * reserva codigos consecutivos para articulos nuevos, por ejemplo para crear en paralelo los
+ * articulos de un archivo conservando el orden de sus codigos
+ * @param cantidad numero de codigos que se reservan
+ * @return el primero de los codigos reservados
+ */
+  static int reservarCodigos(int cantidad) {
+    return codigoGenerar.getAndAdd(cantidad) + 1;
+  }
+/**
+ * hace que los codigos que se generen a partir de ahora sean mayores que uno dado, para cuando se
+ * cargan articulos que conservan su codigo
+ * @param codigo codigo ya usado
  */
-  private void setCodigo() {
-    codigoGenerar += 1;
-    this.codigo = codigoGenerar;
+  static void avanzarCodigos(int codigo) {
+    codigoGenerar.accumulateAndGet(codigo, Math::max);
   }
 /**
  * @return double precioCompra
@@ -151,6 +208,14 @@ public class Articulo {
       throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
     }
     this.numeroUnidades = cantidad;
+    this.disponibles = cantidad;
+  }
+
+/**
+ * @return unidades que no estan reservadas
+ */
+  int getDisponibles() {
+    return disponibles;
   }
 
 /**
@@ -192,7 +257,8 @@ public class Articulo {
   void incrementar(int cantidadAIncrementar) throws NumeroNegativoException {
     if (cantidadAIncrementar < 0)
       throw new NumeroNegativoException("No puedes incrementar usando numeros negativos");
-    setNumeroUnidades(getNumeroUnidades() + cantidadAIncrementar);
+    if (!mover(cantidadAIncrementar))
+      throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
 
   }
 
@@ -206,8 +272,92 @@ public class Articulo {
   void decrementar(int cantidadADecrementar) throws NumeroNegativoException {
     if (cantidadADecrementar < 0)
       throw new NumeroNegativoException("No puedes decrementar usando numeros negativos");
-    setNumeroUnidades(getNumeroUnidades() - cantidadADecrementar);
+    if (!mover(-cantidadADecrementar))
+      throw new IllegalArgumentException("No puedes introducir una cantidad inferior a cero");
+
+  }
+
+  /**
+   * Suma a las unidades una cantidad positiva (entrada) o negativa (salida) sin lanzar
+   * excepciones, para los movimientos por lotes. Las salidas no pueden coger unidades reservadas.
+   * Se llama con el cerrojo de la franja
+   * 
+   * @param cantidad unidades que entran (positiva) o salen (negativa)
+   * @return false si las unidades quedarian fuera de rango o no hay bastantes sin reservar, en
+   *         cuyo caso no se modifican
+   */
+
+  boolean mover(int cantidad) {
+    long unidades = (long) numeroUnidades + cantidad;
+    if (unidades < 0 || unidades > Integer.MAX_VALUE)
+      return false;
+    if (cantidad < 0) {
+      if (!reservar(-cantidad))
+        return false;
+      numeroUnidades = (int) unidades;
+    } else {
+      numeroUnidades = (int) unidades;
+      DISPONIBLES.getAndAdd(this, cantidad);
+    }
+    return true;
+  }
+
+  /**
+   * Reserva unidades sin cerrojo: las descuenta de las disponibles si hay bastantes, con
+   * compareAndSet, pero no de las unidades. Despues hay que confirmarlas con
+   * {@link #confirmar(int)} o devolverlas con {@link #liberar(int)}
+   * 
+   * @param cantidad unidades que se reservan, positiva
+   * @return false si no hay bastantes unidades disponibles
+   */
+
+  boolean reservar(int cantidad) {
+    int libres;
+    do {
+      libres = disponibles;
+      if (libres < cantidad)
+        return false;
+    } while (!DISPONIBLES.weakCompareAndSet(this, libres, libres - cantidad));
+    return true;
+  }
+
+  /**
+   * Devuelve a las disponibles unas unidades reservadas, sin cerrojo
+   * 
+   * @param cantidad unidades reservadas que se devuelven
+   */
+
+  void liberar(int cantidad) {
+    DISPONIBLES.getAndAdd(this, cantidad);
+  }
+
+  /**
+   * Da salida a unas unidades reservadas. Como ya se descontaron de las disponibles, siempre hay
+   * bastantes. Se llama con el cerrojo de la franja
+   * 
+   * @param cantidad unidades reservadas que salen
+   */
+
+  void confirmar(int cantidad) {
+    numeroUnidades -= cantidad;
+  }
+
+  /**
+   * Marca el articulo como quitado del almacen. Se llama con el cerrojo de la franja
+   */
+
+  void darDeBaja() {
+    dadoDeBaja = true;
+  }
+
+  /**
+   * Se llama con el cerrojo de la franja
+   * 
+   * @return true si el articulo se ha quitado del almacen
+   */
 
+  boolean dadoDeBaja() {
+    return dadoDeBaja;
   }
 
 /**
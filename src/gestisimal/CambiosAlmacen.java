@@ -0,0 +1,107 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Articulos cambiados de un almacen, para exportar solo lo que ha cambiado desde un punto de
+ * control (ver {@link Almacen#exportarCambios(String, long)}). Como observador apunta, por codigo,
+ * la generacion del ultimo alta, baja o movimiento de cada articulo, y cada punto de control
+ * cierra la generacion actual. Solo se guarda un numero por articulo cambiado, asi que lo que
+ * ocupa y lo que tarda una exportacion dependen de los cambios y no del tamaño del almacen.
+ * <p>
+ * Los puntos de control se cierran con todos los cerrojos del almacen cogidos, de forma que
+ * ningun cambio queda apuntado en una generacion ya cerrada despues de cerrarla.
+ * @author Sergio Vera Jurado
+ *
+ */
+class CambiosAlmacen implements ObservadorAlmacen {
+  /**
+   * generacion del ultimo cambio de cada articulo cambiado, por codigo
+   */
+  private final ConcurrentHashMap<Integer, Long> generaciones = new ConcurrentHashMap<>();
+  /**
+   * generacion en la que se apuntan los cambios. Siempre es el mismo objeto hasta que se cierra,
+   * para ver si un articulo ya esta apuntado comparando referencias y sin crear otro Long
+   */
+  private volatile Long generacion = 1L;
+  /**
+   * ultimo punto de control desde el que se han pedido cambios: los anteriores ya se han olvidado
+   */
+  private long olvidado;
+
+  @Override
+  public void alta(Articulo articulo) {
+    apuntar(articulo.getCodigo());
+  }
+
+  @Override
+  public void baja(Articulo articulo) {
+    apuntar(articulo.getCodigo());
+  }
+
+  @Override
+  public void movimiento(Articulo articulo, int unidadesAnteriores) {
+    apuntar(articulo.getCodigo());
+  }
+
+  /**
+   * apunta el cambio de un articulo en la generacion actual. Si ya estaba apuntado en ella no se
+   * escribe nada, para que los articulos con muchos movimientos no bloqueen su parte del mapa
+   * @param codigo codigo del articulo
+   */
+  private void apuntar(int codigo) {
+    Long actual = generacion;
+    if (generaciones.get(codigo) != actual)
+      generaciones.put(codigo, actual);
+  }
+
+  /**
+   * cierra la generacion actual; se llama con todos los cerrojos del almacen cogidos
+   * @return el punto de control: los cambios apuntados hasta ahora son de esta generacion o de
+   *         una anterior, y los siguientes de una posterior
+   */
+  long cerrar() {
+    long cerrada = generacion;
+    generacion = cerrada + 1;
+    return cerrada;
+  }
+
+  /**
+   * devuelve los articulos cambiados entre dos puntos de control y olvida los cambios anteriores
+   * al primero, que ya no se pueden volver a pedir
+   * @param desde punto de control desde el que se piden los cambios, o 0 para todos
+   * @param hasta punto de control hasta el que se piden, posterior a desde
+   * @return codigos de los articulos cambiados, ordenados
+   * @throws IllegalArgumentException si desde ya se ha olvidado o no es anterior a hasta
+   */
+  synchronized int[] cambiados(long desde, long hasta) {
+    if (desde < olvidado || desde >= hasta)
+      throw new IllegalArgumentException("No se conocen los cambios desde el punto de control "
+          + desde + " (se conocen desde el " + olvidado + ")");
+    olvidado = desde;
+    int[] codigos = new int[16];
+    int n = 0;
+    for (Map.Entry<Integer, Long> cambio : generaciones.entrySet()) {
+      long generacionCambio = cambio.getValue();
+      if (generacionCambio <= desde) {
+        generaciones.remove(cambio.getKey(), cambio.getValue());
+      } else if (generacionCambio <= hasta) {
+        if (n == codigos.length)
+          codigos = Arrays.copyOf(codigos, n * 2);
+        codigos[n++] = cambio.getKey();
+      }
+    }
+    codigos = Arrays.copyOf(codigos, n);
+    Arrays.sort(codigos);
+    return codigos;
+  }
+
+  /**
+   * @return numero de articulos cambiados que se recuerdan
+   */
+  int numero() {
+    return generaciones.size();
+  }
+}
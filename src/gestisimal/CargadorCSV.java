@@ -0,0 +1,343 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Carga en paralelo los articulos de un CSV grande. El archivo se proyecta en memoria con
+ * FileChannel.map y se divide en trozos que empiezan siempre al principio de un registro (un salto
+ * de linea fuera de comillas). Cada trozo se lee con su propio {@link LectorCSV} en el pool
+ * fork-join comun y, una vez se sabe cuantos articulos tiene cada trozo, se reservan los codigos
+ * y se crean los articulos tambien en paralelo, de forma que los codigos siguen el orden del
+ * archivo igual que en la carga secuencial.
+ * @author Sergio Vera Jurado
+ *
+ */
+class CargadorCSV {
+  /**
+   * por debajo de este tamaño el archivo se lee en un solo trozo
+   */
+  private static final long TAMANO_MINIMO_TROZO = 1 << 20;
+  /**
+   * tamaño maximo de un trozo antes de ajustarlo al inicio de un registro
+   */
+  private static final long TAMANO_MAXIMO_TROZO = 64L << 20;
+  /**
+   * tamaño de la ventana con la que se busca el inicio de un registro
+   */
+  private static final int VENTANA = 1 << 16;
+  /**
+   * pool en el que se ejecutan los trozos
+   */
+  private final ForkJoinPool pool = ForkJoinPool.commonPool();
+  /**
+   * archivo que se carga
+   */
+  private final Path archivo;
+
+  /**
+   * Constructor del cargador
+   * @param archivo archivo CSV que se va a cargar
+   */
+  CargadorCSV(Path archivo) {
+    this.archivo = archivo;
+  }
+
+  /**
+   * lee el archivo y crea sus articulos
+   * @return los articulos de cada trozo, en el orden del archivo
+   * @throws IOException si falla la lectura
+   * @throws AlmacenCSVException si el archivo no es un CSV de articulos valido
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  Articulo[][] cargar() throws IOException, AlmacenCSVException, NumeroNegativoException {
+    try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+      long[] fronteras = fronteras(canal);
+      List<Callable<Trozo>> lecturas = new ArrayList<>();
+      for (int i = 0; i + 1 < fronteras.length; i++) {
+        long inicio = fronteras[i];
+        long fin = fronteras[i + 1];
+        boolean conCabecera = i == 0;
+        lecturas.add(() -> leerTrozo(canal, inicio, fin, conCabecera));
+      }
+      List<Trozo> trozos = ejecutar(lecturas);
+
+      List<Callable<Articulo[]>> creaciones = new ArrayList<>();
+      for (Trozo trozo : trozos) {
+        int primerCodigo = Articulo.reservarCodigos(trozo.tamano);
+        creaciones.add(() -> trozo.crearArticulos(primerCodigo));
+      }
+      return ejecutar(creaciones).toArray(new Articulo[0][]);
+    }
+  }
+
+  /**
+   * calcula los limites de los trozos del archivo. Primero se cuentan en paralelo las comillas de
+   * cada trozo aproximado para saber si su primer byte cae dentro de un campo entre comillas, y
+   * despues cada limite se mueve hasta el siguiente salto de linea que no este entre comillas
+   * @param canal canal del archivo
+   * @return posicion de inicio de cada trozo, mas el tamaño del archivo al final
+   * @throws IOException si falla la lectura
+   * @throws AlmacenCSVException no se lanza, viene de la firma comun de las tareas
+   * @throws NumeroNegativoException no se lanza, viene de la firma comun de las tareas
+   */
+  private long[] fronteras(FileChannel canal)
+      throws IOException, AlmacenCSVException, NumeroNegativoException {
+    long tamano = canal.size();
+    int numeroTrozos = 1;
+    if (tamano >= TAMANO_MINIMO_TROZO) {
+      numeroTrozos = (int) Math.max(pool.getParallelism() * 4L,
+          (tamano + TAMANO_MAXIMO_TROZO - 1) / TAMANO_MAXIMO_TROZO);
+    }
+    long[] aproximadas = new long[numeroTrozos + 1];
+    for (int i = 0; i <= numeroTrozos; i++)
+      aproximadas[i] = tamano * i / numeroTrozos;
+
+    List<Callable<Long>> cuentas = new ArrayList<>();
+    for (int i = 0; i < numeroTrozos; i++) {
+      long inicio = aproximadas[i];
+      long fin = aproximadas[i + 1];
+      cuentas.add(() -> contarComillas(canal, inicio, fin));
+    }
+    List<Long> comillas = ejecutar(cuentas);
+
+    long[] fronteras = new long[numeroTrozos + 1];
+    fronteras[numeroTrozos] = tamano;
+    long acumuladas = 0;
+    for (int i = 1; i < numeroTrozos; i++) {
+      acumuladas += comillas.get(i - 1);
+      fronteras[i] = buscarInicioRegistro(canal, aproximadas[i], acumuladas % 2 == 1, tamano);
+    }
+    return fronteras;
+  }
+
+  /**
+   * cuenta las comillas de una parte del archivo
+   * @param canal canal del archivo
+   * @param inicio primer byte
+   * @param fin byte siguiente al ultimo
+   * @return numero de comillas
+   * @throws IOException si falla la lectura
+   */
+  private static long contarComillas(FileChannel canal, long inicio, long fin) throws IOException {
+    if (fin == inicio)
+      return 0;
+    ByteBuffer bytes = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fin - inicio);
+    long comillas = 0;
+    for (int i = 0, n = bytes.limit(); i < n; i++) {
+      if (bytes.get(i) == '"')
+        comillas++;
+    }
+    return comillas;
+  }
+
+  /**
+   * busca el primer registro que empieza en una posicion dada o despues
+   * @param canal canal del archivo
+   * @param desde posicion desde la que se busca
+   * @param entreComillas si la posicion cae dentro de un campo entre comillas
+   * @param tamano tamaño del archivo
+   * @return posicion del primer byte del registro, o el tamaño del archivo si no hay mas
+   * @throws IOException si falla la lectura
+   */
+  private static long buscarInicioRegistro(FileChannel canal, long desde, boolean entreComillas,
+      long tamano) throws IOException {
+    ByteBuffer ventana = ByteBuffer.allocate(VENTANA);
+    long posicion = desde;
+    while (posicion < tamano) {
+      ventana.clear();
+      int leidos = canal.read(ventana, posicion);
+      if (leidos <= 0)
+        break;
+      for (int i = 0; i < leidos; i++) {
+        byte b = ventana.get(i);
+        if (b == '"')
+          entreComillas = !entreComillas;
+        else if (b == '\n' && !entreComillas)
+          return posicion + i + 1;
+      }
+      posicion += leidos;
+    }
+    return tamano;
+  }
+
+  /**
+   * lee los registros de un trozo del archivo
+   * @param canal canal del archivo
+   * @param inicio primer byte del trozo
+   * @param fin byte siguiente al ultimo del trozo
+   * @param conCabecera si el trozo empieza por la cabecera del CSV
+   * @return los campos de los articulos del trozo
+   * @throws IOException si falla la lectura
+   * @throws AlmacenCSVException si el trozo no es un CSV de articulos valido
+   */
+  private static Trozo leerTrozo(FileChannel canal, long inicio, long fin, boolean conCabecera)
+      throws IOException, AlmacenCSVException {
+    Trozo trozo = new Trozo();
+    ByteBuffer bytes = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fin - inicio);
+    try (LectorCSV csv = new LectorCSV(
+        new InputStreamReader(new EntradaMapeada(bytes), StandardCharsets.UTF_8))) {
+      if (conCabecera)
+        Almacen.validadCabeceraCSV(csv);
+      while (csv.siguienteRegistro()) {
+        Almacen.validarRegistroCSV(csv);
+        trozo.anadir(csv);
+      }
+    }
+    return trozo;
+  }
+
+  /**
+   * ejecuta unas tareas en el pool y espera sus resultados
+   * @param <T> tipo del resultado de las tareas
+   * @param tareas tareas que se ejecutan
+   * @return el resultado de cada tarea, en el mismo orden
+   * @throws IOException si alguna tarea falla al leer
+   * @throws AlmacenCSVException si alguna tarea encuentra un CSV no valido
+   * @throws NumeroNegativoException si alguna tarea crea un articulo con numeros negativos
+   */
+  private <T> List<T> ejecutar(List<Callable<T>> tareas)
+      throws IOException, AlmacenCSVException, NumeroNegativoException {
+    List<T> resultados = new ArrayList<>(tareas.size());
+    try {
+      for (Future<T> futuro : pool.invokeAll(tareas))
+        resultados.add(futuro.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Carga del CSV interrumpida", e);
+    } catch (ExecutionException e) {
+      Throwable causa = e.getCause();
+      if (causa instanceof IOException)
+        throw (IOException) causa;
+      if (causa instanceof AlmacenCSVException)
+        throw (AlmacenCSVException) causa;
+      if (causa instanceof NumeroNegativoException)
+        throw (NumeroNegativoException) causa;
+      if (causa instanceof RuntimeException)
+        throw (RuntimeException) causa;
+      throw new IllegalStateException(causa);
+    }
+    return resultados;
+  }
+
+  /**
+   * campos de los articulos leidos de un trozo, guardados por columnas
+   */
+  private static class Trozo {
+    /**
+     * numero de articulos del trozo
+     */
+    private int tamano;
+    /**
+     * columna de descripciones
+     */
+    private String[] descripciones = new String[64];
+    /**
+     * columna de precios de compra
+     */
+    private double[] preciosCompra = new double[64];
+    /**
+     * columna de precios de venta
+     */
+    private double[] preciosVenta = new double[64];
+    /**
+     * columna de numeros de unidades
+     */
+    private int[] unidades = new int[64];
+    /**
+     * columna de stocks maximos
+     */
+    private int[] stocksMaximos = new int[64];
+    /**
+     * columna de stocks de seguridad
+     */
+    private int[] stocksSeguridad = new int[64];
+
+    /**
+     * guarda los campos del registro actual
+     * @param csv lector situado en el registro
+     */
+    void anadir(LectorCSV csv) {
+      if (tamano == descripciones.length) {
+        int capacidad = tamano * 2;
+        descripciones = Arrays.copyOf(descripciones, capacidad);
+        preciosCompra = Arrays.copyOf(preciosCompra, capacidad);
+        preciosVenta = Arrays.copyOf(preciosVenta, capacidad);
+        unidades = Arrays.copyOf(unidades, capacidad);
+        stocksMaximos = Arrays.copyOf(stocksMaximos, capacidad);
+        stocksSeguridad = Arrays.copyOf(stocksSeguridad, capacidad);
+      }
+      descripciones[tamano] = csv.texto(0);
+      preciosCompra[tamano] = csv.decimal(1);
+      preciosVenta[tamano] = csv.decimal(2);
+      unidades[tamano] = csv.entero(3);
+      stocksMaximos[tamano] = csv.entero(4);
+      stocksSeguridad[tamano] = csv.entero(5);
+      tamano++;
+    }
+
+    /**
+     * crea los articulos del trozo con codigos consecutivos
+     * @param primerCodigo codigo del primer articulo
+     * @return los articulos
+     * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+     */
+    Articulo[] crearArticulos(int primerCodigo) throws NumeroNegativoException {
+      Articulo[] articulos = new Articulo[tamano];
+      for (int i = 0; i < tamano; i++) {
+        articulos[i] = new Articulo(primerCodigo + i, preciosCompra[i], preciosVenta[i],
+            descripciones[i], unidades[i], stocksSeguridad[i], stocksMaximos[i]);
+      }
+      return articulos;
+    }
+  }
+
+  /**
+   * flujo de entrada sobre los bytes de un archivo proyectado en memoria
+   */
+  private static class EntradaMapeada extends InputStream {
+    /**
+     * bytes del archivo
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * Constructor del flujo
+     * @param bytes bytes que se leen
+     */
+    EntradaMapeada(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() {
+      return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] destino, int desde, int longitud) {
+      if (longitud == 0)
+        return 0;
+      if (!bytes.hasRemaining())
+        return -1;
+      int leidos = Math.min(longitud, bytes.remaining());
+      bytes.get(destino, desde, leidos);
+      return leidos;
+    }
+  }
+}
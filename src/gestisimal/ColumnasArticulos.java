@@ -0,0 +1,505 @@
+package gestisimal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Articulos guardados por columnas: un array de tipos primitivos por cada campo (codigos, precios,
+ * unidades...) en lugar de un objeto por articulo, asi que un almacen grande no gasta memoria en
+ * cabeceras y referencias y el recolector de basura no tiene que recorrer millones de objetos.
+ * Las descripciones tampoco son objetos String: se guardan en UTF-8, una detras de otra, en un
+ * solo array de bytes. Cada articulo ocupa una fila, en orden de insercion; los eliminados dejan
+ * la fila con codigo 0 hasta que se compacta. Las filas se buscan por codigo con una tabla hash
+ * de direccionamiento abierto igual que la de {@link IndiceArticulos}.
+ * @author Sergio Vera Jurado
+ *
+ */
+class ColumnasArticulos {
+  /**
+   * capacidad inicial de las columnas (la tabla hash tiene el doble, siempre potencia de dos)
+   */
+  private static final int CAPACIDAD_INICIAL = 16;
+  /**
+   * marca de hueco libre en la tabla hash
+   */
+  private static final int LIBRE = -1;
+  /**
+   * codigo de las filas eliminadas (los codigos generados empiezan en 1)
+   */
+  private static final int ELIMINADA = 0;
+  /**
+   * longitud de las descripciones null
+   */
+  private static final int SIN_TEXTO = -1;
+  /**
+   * acceso a las unidades, que se modifican sin el cerrojo exclusivo del almacen: volatile para
+   * leer y escribir una fila, opaco para las sumas y las copias, que no necesitan orden entre
+   * filas pero tampoco pueden quedarse con un valor leido antes del bucle
+   */
+  private static final VarHandle UNIDADES = MethodHandles.arrayElementVarHandle(int[].class);
+  /**
+   * codigos de la tabla hash
+   */
+  private int[] claves;
+  /**
+   * fila de cada codigo de la tabla hash, o LIBRE si el hueco esta vacio
+   */
+  private int[] filas;
+  /**
+   * columna de codigos
+   */
+  private int[] codigos;
+  /**
+   * columna de precios de compra
+   */
+  private double[] preciosCompra;
+  /**
+   * columna de precios de venta
+   */
+  private double[] preciosVenta;
+  /**
+   * descripciones de todas las filas en UTF-8, seguidas
+   */
+  private byte[] textos;
+  /**
+   * primer byte libre del array de textos
+   */
+  private int finTextos;
+  /**
+   * columna de posiciones de la descripcion en el array de textos
+   */
+  private int[] iniciosTexto;
+  /**
+   * columna de longitudes en bytes de la descripcion, o SIN_TEXTO si es null
+   */
+  private int[] longitudesTexto;
+  /**
+   * columna de numeros de unidades
+   */
+  private int[] unidades;
+  /**
+   * columna de stocks de seguridad
+   */
+  private int[] stocksSeguridad;
+  /**
+   * columna de stocks maximos
+   */
+  private int[] stocksMaximos;
+  /**
+   * primera fila libre de las columnas
+   */
+  private int fin;
+  /**
+   * numero de articulos
+   */
+  private int tamano;
+
+  /**
+   * Constructor de unas columnas vacias
+   */
+  ColumnasArticulos() {
+    clear();
+  }
+
+  /**
+   * busca la fila de un articulo
+   * @param codigo codigo del articulo
+   * @return la fila, o -1 si no existe
+   */
+  int buscar(int codigo) {
+    int mascara = claves.length - 1;
+    int i = IndiceArticulos.hash(codigo) & mascara;
+    for (; filas[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        return filas[i];
+    }
+    return -1;
+  }
+
+  /**
+   * añade un articulo en la ultima fila. Los valores ya deben estar validados
+   * @param codigo codigo del articulo
+   * @param precioCompra precio de compra
+   * @param precioVenta precio de venta
+   * @param descripcion descripcion
+   * @param numeroUnidades unidades disponibles
+   * @param stockSeguridad stock de seguridad
+   * @param stockMaximo stock maximo
+   * @return false si ya habia un articulo con el mismo codigo
+   */
+  boolean add(int codigo, double precioCompra, double precioVenta, String descripcion,
+      int numeroUnidades, int stockSeguridad, int stockMaximo) {
+    int mascara = claves.length - 1;
+    int i = IndiceArticulos.hash(codigo) & mascara;
+    for (; filas[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        return false;
+    }
+    if (fin == codigos.length) {
+      hacerSitio();
+      return add(codigo, precioCompra, precioVenta, descripcion, numeroUnidades, stockSeguridad,
+          stockMaximo);
+    }
+    byte[] texto = descripcion == null ? null : descripcion.getBytes(StandardCharsets.UTF_8);
+    claves[i] = codigo;
+    filas[i] = fin;
+    codigos[fin] = codigo;
+    preciosCompra[fin] = precioCompra;
+    preciosVenta[fin] = precioVenta;
+    guardarTexto(fin, texto);
+    unidades[fin] = numeroUnidades;
+    stocksSeguridad[fin] = stockSeguridad;
+    stocksMaximos[fin] = stockMaximo;
+    fin++;
+    tamano++;
+    if (tamano * 2 > claves.length)
+      rehash(claves.length * 2);
+    return true;
+  }
+
+  /**
+   * elimina un articulo
+   * @param codigo codigo del articulo
+   * @return false si no existia
+   */
+  boolean remove(int codigo) {
+    int mascara = claves.length - 1;
+    int i = IndiceArticulos.hash(codigo) & mascara;
+    for (; filas[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        break;
+    }
+    if (filas[i] == LIBRE)
+      return false;
+    int fila = filas[i];
+    codigos[fila] = ELIMINADA;
+    tamano--;
+    borrarHueco(i);
+    if (fin > CAPACIDAD_INICIAL && tamano < fin / 4)
+      compactar();
+    return true;
+  }
+
+  /**
+   * prepara las columnas para recibir articulos sin tener que ampliarse por el camino
+   * @param nuevos numero de articulos que se van a añadir
+   */
+  void reservar(int nuevos) {
+    int necesarios = fin + nuevos;
+    if (necesarios > codigos.length)
+      redimensionar(necesarios);
+    int capacidad = claves.length;
+    while (capacidad < (tamano + nuevos) * 2L)
+      capacidad *= 2;
+    if (capacidad != claves.length)
+      rehash(capacidad);
+  }
+
+  /**
+   * vacia las columnas
+   */
+  void clear() {
+    claves = new int[CAPACIDAD_INICIAL * 2];
+    filas = new int[CAPACIDAD_INICIAL * 2];
+    Arrays.fill(filas, LIBRE);
+    codigos = new int[CAPACIDAD_INICIAL];
+    preciosCompra = new double[CAPACIDAD_INICIAL];
+    preciosVenta = new double[CAPACIDAD_INICIAL];
+    textos = new byte[CAPACIDAD_INICIAL * 16];
+    finTextos = 0;
+    iniciosTexto = new int[CAPACIDAD_INICIAL];
+    longitudesTexto = new int[CAPACIDAD_INICIAL];
+    unidades = new int[CAPACIDAD_INICIAL];
+    stocksSeguridad = new int[CAPACIDAD_INICIAL];
+    stocksMaximos = new int[CAPACIDAD_INICIAL];
+    fin = 0;
+    tamano = 0;
+  }
+
+  /**
+   * @return numero de articulos
+   */
+  int size() {
+    return tamano;
+  }
+
+  /**
+   * @return primera fila libre; las filas anteriores estan ocupadas o eliminadas
+   */
+  int fin() {
+    return fin;
+  }
+
+  /**
+   * @param fila fila
+   * @return true si la fila tiene un articulo (no se ha eliminado)
+   */
+  boolean ocupada(int fila) {
+    return codigos[fila] != ELIMINADA;
+  }
+
+  /**
+   * @param fila fila
+   * @return codigo del articulo
+   */
+  int codigo(int fila) {
+    return codigos[fila];
+  }
+
+  /**
+   * @param fila fila
+   * @return precio de compra del articulo
+   */
+  double precioCompra(int fila) {
+    return preciosCompra[fila];
+  }
+
+  /**
+   * @param fila fila
+   * @return precio de venta del articulo
+   */
+  double precioVenta(int fila) {
+    return preciosVenta[fila];
+  }
+
+  /**
+   * @param fila fila
+   * @return descripcion del articulo (una cadena nueva en cada llamada)
+   */
+  String descripcion(int fila) {
+    int longitud = longitudesTexto[fila];
+    if (longitud == SIN_TEXTO)
+      return null;
+    return new String(textos, iniciosTexto[fila], longitud, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param fila fila
+   * @return ultimo numero de unidades del articulo
+   */
+  int unidades(int fila) {
+    return (int) UNIDADES.getVolatile(unidades, fila);
+  }
+
+  /**
+   * @param fila fila
+   * @return stock de seguridad del articulo
+   */
+  int stockSeguridad(int fila) {
+    return stocksSeguridad[fila];
+  }
+
+  /**
+   * @param fila fila
+   * @return stock maximo del articulo
+   */
+  int stockMaximo(int fila) {
+    return stocksMaximos[fila];
+  }
+
+  /**
+   * suma unidades a un articulo. Quien lo llame debe tener el cerrojo de la franja del articulo
+   * @param fila fila del articulo
+   * @param cantidad unidades que entran (positiva) o salen (negativa)
+   * @return false si las unidades quedarian fuera de rango, en cuyo caso no se modifican
+   */
+  boolean mover(int fila, int cantidad) {
+    long nuevas = (long) unidades(fila) + cantidad;
+    if (nuevas < 0 || nuevas > Integer.MAX_VALUE)
+      return false;
+    UNIDADES.setVolatile(unidades, fila, (int) nuevas);
+    return true;
+  }
+
+  /**
+   * suma el valor (unidades por precio) de todos los articulos recorriendo solo dos columnas
+   * @param venta true para valorar a precio de venta, false a precio de compra
+   * @return el valor del almacen
+   */
+  double valor(boolean venta) {
+    double[] precios = venta ? preciosVenta : preciosCompra;
+    int[] codigos = this.codigos;
+    int[] unidades = this.unidades;
+    double total = 0;
+    for (int i = 0; i < fin; i++) {
+      if (codigos[i] != ELIMINADA)
+        total += (int) UNIDADES.getOpaque(unidades, i) * precios[i];
+    }
+    return total;
+  }
+
+  /**
+   * suma las unidades de todos los articulos recorriendo solo su columna
+   * @return las unidades del almacen
+   */
+  long unidadesTotales() {
+    int[] codigos = this.codigos;
+    int[] unidades = this.unidades;
+    long total = 0;
+    for (int i = 0; i < fin; i++) {
+      if (codigos[i] != ELIMINADA)
+        total += (int) UNIDADES.getOpaque(unidades, i);
+    }
+    return total;
+  }
+
+  /**
+   * copia las filas ocupadas en unas columnas nuevas, compactadas y sin tabla hash, para leerlas
+   * sin el cerrojo del almacen. Las unidades son las de cada fila al copiarla
+   * @return la copia; solo admite los metodos de lectura por fila, no buscar ni modificar
+   */
+  ColumnasArticulos copiar() {
+    ColumnasArticulos copia = new ColumnasArticulos();
+    copia.redimensionar(Math.max(tamano, 1));
+    copia.textos = new byte[finTextos];
+    int j = 0;
+    for (int i = 0; i < fin; i++) {
+      if (codigos[i] == ELIMINADA)
+        continue;
+      copia.codigos[j] = codigos[i];
+      copia.preciosCompra[j] = preciosCompra[i];
+      copia.preciosVenta[j] = preciosVenta[i];
+      copia.unidades[j] = (int) UNIDADES.getOpaque(unidades, i);
+      copia.stocksSeguridad[j] = stocksSeguridad[i];
+      copia.stocksMaximos[j] = stocksMaximos[i];
+      int longitud = longitudesTexto[i];
+      if (longitud != SIN_TEXTO) {
+        System.arraycopy(textos, iniciosTexto[i], copia.textos, copia.finTextos, longitud);
+        copia.iniciosTexto[j] = copia.finTextos;
+        copia.finTextos += longitud;
+      }
+      copia.longitudesTexto[j] = longitud;
+      j++;
+    }
+    copia.fin = j;
+    copia.tamano = j;
+    return copia;
+  }
+
+  /**
+   * copia una descripcion al final del array de textos
+   * @param fila fila de la descripcion
+   * @param texto descripcion en UTF-8, o null
+   */
+  private void guardarTexto(int fila, byte[] texto) {
+    if (texto == null) {
+      longitudesTexto[fila] = SIN_TEXTO;
+      return;
+    }
+    if (textos.length - finTextos < texto.length) {
+      long capacidad =
+          Math.max(textos.length + (textos.length >> 1), (long) finTextos + texto.length);
+      if (capacidad > Integer.MAX_VALUE - 8)
+        throw new OutOfMemoryError("Las descripciones no caben en un array");
+      textos = Arrays.copyOf(textos, (int) capacidad);
+    }
+    System.arraycopy(texto, 0, textos, finTextos, texto.length);
+    iniciosTexto[fila] = finTextos;
+    longitudesTexto[fila] = texto.length;
+    finTextos += texto.length;
+  }
+
+  /**
+   * deja sitio al final de las columnas, compactandolas si tienen muchos huecos o ampliandolas un
+   * 50% si no (menos que al doble, para que sobre menos memoria en cada columna)
+   */
+  private void hacerSitio() {
+    if (tamano < fin / 2)
+      compactar();
+    else
+      redimensionar(codigos.length + (codigos.length >> 1));
+  }
+
+  /**
+   * cambia la capacidad de todas las columnas
+   * @param capacidad nueva capacidad, no menor que fin
+   */
+  private void redimensionar(int capacidad) {
+    codigos = Arrays.copyOf(codigos, capacidad);
+    preciosCompra = Arrays.copyOf(preciosCompra, capacidad);
+    preciosVenta = Arrays.copyOf(preciosVenta, capacidad);
+    iniciosTexto = Arrays.copyOf(iniciosTexto, capacidad);
+    longitudesTexto = Arrays.copyOf(longitudesTexto, capacidad);
+    unidades = Arrays.copyOf(unidades, capacidad);
+    stocksSeguridad = Arrays.copyOf(stocksSeguridad, capacidad);
+    stocksMaximos = Arrays.copyOf(stocksMaximos, capacidad);
+  }
+
+  /**
+   * elimina las filas eliminadas y sus descripciones manteniendo el orden y rehace la tabla hash
+   */
+  private void compactar() {
+    int j = 0;
+    int bytes = 0;
+    for (int i = 0; i < fin; i++) {
+      if (codigos[i] == ELIMINADA)
+        continue;
+      codigos[j] = codigos[i];
+      preciosCompra[j] = preciosCompra[i];
+      preciosVenta[j] = preciosVenta[i];
+      unidades[j] = unidades[i];
+      stocksSeguridad[j] = stocksSeguridad[i];
+      stocksMaximos[j] = stocksMaximos[i];
+      int longitud = longitudesTexto[i];
+      if (longitud != SIN_TEXTO) {
+        System.arraycopy(textos, iniciosTexto[i], textos, bytes, longitud);
+        iniciosTexto[j] = bytes;
+        bytes += longitud;
+      }
+      longitudesTexto[j] = longitud;
+      j++;
+    }
+    fin = j;
+    finTextos = bytes;
+    textos = Arrays.copyOf(textos, Math.max(CAPACIDAD_INICIAL * 16, bytes * 2));
+    redimensionar(Math.max(CAPACIDAD_INICIAL, tamano * 2));
+    rehash(claves.length);
+  }
+
+  /**
+   * reconstruye la tabla hash a partir de la columna de codigos
+   * @param capacidad nueva capacidad de la tabla (potencia de dos)
+   */
+  private void rehash(int capacidad) {
+    int[] nuevasClaves = new int[capacidad];
+    int[] nuevasFilas = new int[capacidad];
+    Arrays.fill(nuevasFilas, LIBRE);
+    int mascara = capacidad - 1;
+    for (int fila = 0; fila < fin; fila++) {
+      int codigo = codigos[fila];
+      if (codigo == ELIMINADA)
+        continue;
+      int i = IndiceArticulos.hash(codigo) & mascara;
+      while (nuevasFilas[i] != LIBRE)
+        i = (i + 1) & mascara;
+      nuevasClaves[i] = codigo;
+      nuevasFilas[i] = fila;
+    }
+    claves = nuevasClaves;
+    filas = nuevasFilas;
+  }
+
+  /**
+   * libera un hueco de la tabla hash desplazando hacia atras las claves que vienen detras (ver
+   * {@link IndiceArticulos})
+   * @param hueco posicion de la tabla que se libera
+   */
+  private void borrarHueco(int hueco) {
+    int mascara = claves.length - 1;
+    int i = hueco;
+    while (true) {
+      i = (i + 1) & mascara;
+      if (filas[i] == LIBRE)
+        break;
+      int ideal = IndiceArticulos.hash(claves[i]) & mascara;
+      if (((i - ideal) & mascara) >= ((i - hueco) & mascara)) {
+        claves[hueco] = claves[i];
+        filas[hueco] = filas[i];
+        hueco = i;
+      }
+    }
+    filas[hueco] = LIBRE;
+  }
+}
@@ -0,0 +1,455 @@
+package gestisimal;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresion gzip de los archivos CSV y XML del almacen. Un archivo se guarda comprimido si su
+ * nombre termina en .gz y se lee comprimido si empieza por los bytes magicos de gzip, sea cual sea
+ * su nombre. La compresion y la descompresion se hacen en un hilo aparte, por bloques que pasan de
+ * un hilo a otro por una cola acotada, de forma que el que escribe o lee el CSV o el XML no espera
+ * al compresor mas que cuando la cola esta llena (o vacia, al leer).
+ * @author Sergio Vera Jurado
+ *
+ */
+class Compresion {
+  /**
+   * extension de los archivos que se guardan comprimidos
+   */
+  static final String EXTENSION = ".gz";
+  /**
+   * primer byte de todo archivo gzip
+   */
+  private static final int MAGIA_1 = 0x1f;
+  /**
+   * segundo byte de todo archivo gzip
+   */
+  private static final int MAGIA_2 = 0x8b;
+  /**
+   * tamaño de cada bloque que pasa de un hilo a otro
+   */
+  private static final int BLOQUE = 1 << 18;
+  /**
+   * bloques que puede haber en la cola a la vez
+   */
+  private static final int BLOQUES = 8;
+  /**
+   * nivel de compresion: el mas rapido, porque el texto del almacen es muy repetitivo y con el se
+   * consigue casi la misma reduccion que con el nivel por defecto en mucho menos tiempo
+   */
+  private static final int NIVEL = Deflater.BEST_SPEED;
+  /**
+   * bloque que indica el final de los datos
+   */
+  private static final Bloque FIN = new Bloque(0);
+
+  /**
+   * Clase de utilidad, no se instancia
+   */
+  private Compresion() {
+  }
+
+  /**
+   * @param archivo archivo que se va a guardar
+   * @return true si se debe guardar comprimido
+   */
+  static boolean comprimido(Path archivo) {
+    return archivo.getFileName().toString().endsWith(EXTENSION);
+  }
+
+  /**
+   * @param archivo archivo que se va a leer
+   * @return true si esta comprimido con gzip
+   * @throws IOException si no se puede leer
+   */
+  static boolean esGzip(Path archivo) throws IOException {
+    try (InputStream entrada = Files.newInputStream(archivo)) {
+      return entrada.read() == MAGIA_1 && entrada.read() == MAGIA_2;
+    }
+  }
+
+  /**
+   * abre un archivo para escribir, con buffer
+   * @param archivo archivo que se escribe
+   * @param comprimir true para comprimirlo en otro hilo mientras se escribe
+   * @return el flujo, que hay que cerrar para terminar de escribir
+   * @throws IOException si no se puede crear el archivo
+   */
+  static OutputStream salida(Path archivo, boolean comprimir) throws IOException {
+    OutputStream destino = Files.newOutputStream(archivo);
+    return comprimir ? new Salida(destino) : new BufferedOutputStream(destino);
+  }
+
+  /**
+   * abre un archivo para leer, descomprimiendolo en otro hilo si empieza por los bytes magicos de
+   * gzip. Si no, se lee tal cual
+   * @param archivo archivo que se lee
+   * @return el flujo, con sus propios buffers
+   * @throws IOException si no se puede abrir el archivo
+   */
+  static InputStream entrada(Path archivo) throws IOException {
+    PushbackInputStream origen = new PushbackInputStream(Files.newInputStream(archivo), 2);
+    try {
+      byte[] cabecera = origen.readNBytes(2);
+      origen.unread(cabecera);
+      boolean gzip = cabecera.length == 2 && (cabecera[0] & 0xff) == MAGIA_1
+          && (cabecera[1] & 0xff) == MAGIA_2;
+      return gzip ? new Entrada(origen) : origen;
+    } catch (IOException e) {
+      origen.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Trozo de datos que pasa de un hilo a otro. Los bloques se reutilizan
+   */
+  private static final class Bloque {
+    /**
+     * datos del bloque
+     */
+    final byte[] datos;
+    /**
+     * bytes usados de los datos
+     */
+    int longitud;
+
+    /**
+     * @param tamano tamaño de los datos
+     */
+    Bloque(int tamano) {
+      datos = new byte[tamano];
+    }
+  }
+
+  /**
+   * Flujo que llena bloques y los pasa a un hilo que los comprime en el archivo. Si el compresor
+   * falla, sigue sacando bloques de la cola para que quien escribe no se quede esperando, y el
+   * error salta en la siguiente escritura o al cerrar
+   */
+  private static final class Salida extends OutputStream {
+    /**
+     * bloques llenos, pendientes de comprimir
+     */
+    private final ArrayBlockingQueue<Bloque> llenos = new ArrayBlockingQueue<>(BLOQUES);
+    /**
+     * bloques ya comprimidos, para reutilizarlos
+     */
+    private final ArrayBlockingQueue<Bloque> libres = new ArrayBlockingQueue<>(BLOQUES + 2);
+    /**
+     * archivo comprimido
+     */
+    private final OutputStream destino;
+    /**
+     * hilo que comprime
+     */
+    private final Thread compresor;
+    /**
+     * error del compresor, o null
+     */
+    private volatile Throwable error;
+    /**
+     * bloque que se esta llenando
+     */
+    private Bloque actual = new Bloque(BLOQUE);
+    /**
+     * true cuando se ha cerrado
+     */
+    private boolean cerrada;
+
+    /**
+     * Constructor del flujo, que arranca el compresor
+     * @param destino archivo comprimido, que se cierra al terminar
+     */
+    Salida(OutputStream destino) {
+      this.destino = destino;
+      compresor = new Thread(this::comprimir, "compresion-almacen");
+      compresor.setDaemon(true);
+      compresor.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (actual.longitud == BLOQUE)
+        enviar();
+      actual.datos[actual.longitud++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int desde, int longitud) throws IOException {
+      Objects.checkFromIndexSize(desde, longitud, b.length);
+      while (longitud > 0) {
+        if (actual.longitud == BLOQUE)
+          enviar();
+        int n = Math.min(longitud, BLOQUE - actual.longitud);
+        System.arraycopy(b, desde, actual.datos, actual.longitud, n);
+        actual.longitud += n;
+        desde += n;
+        longitud -= n;
+      }
+    }
+
+    /**
+     * termina de comprimir los bloques pendientes y cierra el archivo
+     * @throws IOException si ha fallado el compresor
+     */
+    @Override
+    public void close() throws IOException {
+      if (cerrada)
+        return;
+      cerrada = true;
+      try {
+        if (actual.longitud > 0 && error == null)
+          llenos.put(actual);
+        llenos.put(FIN);
+        compresor.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Compresion interrumpida");
+      }
+      comprobar();
+    }
+
+    /**
+     * pasa el bloque actual al compresor y coge otro vacio
+     * @throws IOException si se ha cerrado, ha fallado el compresor o se interrumpe la espera
+     */
+    private void enviar() throws IOException {
+      if (cerrada)
+        throw new IOException("Flujo cerrado");
+      comprobar();
+      try {
+        llenos.put(actual);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Compresion interrumpida");
+      }
+      Bloque libre = libres.poll();
+      actual = libre != null ? libre : new Bloque(BLOQUE);
+      actual.longitud = 0;
+    }
+
+    /**
+     * @throws IOException si ha fallado el compresor
+     */
+    private void comprobar() throws IOException {
+      if (error != null)
+        throw new IOException("No se ha podido comprimir el archivo", error);
+    }
+
+    /**
+     * comprime los bloques hasta el final (en el hilo del compresor)
+     */
+    private void comprimir() {
+      boolean fin = false;
+      try (OutputStream archivo = destino;
+          OutputStream gzip = new GZIPOutputStream(archivo, BLOQUE) {
+            {
+              def.setLevel(NIVEL);
+            }
+          }) {
+        for (Bloque bloque = llenos.take(); bloque != FIN; bloque = llenos.take()) {
+          gzip.write(bloque.datos, 0, bloque.longitud);
+          libres.offer(bloque);
+        }
+        fin = true;
+      } catch (Throwable e) {
+        error = e;
+        if (!fin)
+          descartar();
+      }
+    }
+
+    /**
+     * saca los bloques de la cola sin comprimirlos hasta el final, despues de un error antes de
+     * llegar a el (si falla al cerrar el archivo el final ya se ha sacado)
+     */
+    private void descartar() {
+      try {
+        while (llenos.take() != FIN)
+          continue;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Flujo que lee los bloques que un hilo va descomprimiendo del archivo. Si el descompresor
+   * falla, el error salta al llegar al final de lo que haya descomprimido
+   */
+  private static final class Entrada extends InputStream {
+    /**
+     * bloques descomprimidos, pendientes de leer
+     */
+    private final ArrayBlockingQueue<Bloque> llenos = new ArrayBlockingQueue<>(BLOQUES);
+    /**
+     * bloques ya leidos, para reutilizarlos
+     */
+    private final ArrayBlockingQueue<Bloque> libres = new ArrayBlockingQueue<>(BLOQUES + 2);
+    /**
+     * archivo comprimido
+     */
+    private final InputStream origen;
+    /**
+     * hilo que descomprime
+     */
+    private final Thread descompresor;
+    /**
+     * error del descompresor, o null
+     */
+    private volatile Throwable error;
+    /**
+     * bloque que se esta leyendo, o null
+     */
+    private Bloque actual;
+    /**
+     * bytes leidos del bloque actual
+     */
+    private int leidos;
+    /**
+     * true al llegar al final de los datos
+     */
+    private boolean terminada;
+    /**
+     * true cuando se ha cerrado
+     */
+    private boolean cerrada;
+
+    /**
+     * Constructor del flujo, que arranca el descompresor
+     * @param origen archivo comprimido, que se cierra al terminar
+     */
+    Entrada(InputStream origen) {
+      this.origen = origen;
+      descompresor = new Thread(this::descomprimir, "descompresion-almacen");
+      descompresor.setDaemon(true);
+      descompresor.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!siguiente())
+        return -1;
+      return actual.datos[leidos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int desde, int longitud) throws IOException {
+      Objects.checkFromIndexSize(desde, longitud, b.length);
+      if (longitud == 0)
+        return 0;
+      if (!siguiente())
+        return -1;
+      int n = Math.min(longitud, actual.longitud - leidos);
+      System.arraycopy(actual.datos, leidos, b, desde, n);
+      leidos += n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return actual == null ? 0 : actual.longitud - leidos;
+    }
+
+    /**
+     * deja de descomprimir y cierra el archivo
+     */
+    @Override
+    public void close() {
+      if (cerrada)
+        return;
+      cerrada = true;
+      terminada = true;
+      actual = null;
+      descompresor.interrupt();
+      try {
+        descompresor.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * se asegura de que quedan bytes por leer en el bloque actual, esperando al siguiente si hace
+     * falta
+     * @return false al final de los datos
+     * @throws IOException si se ha cerrado, ha fallado el descompresor o se interrumpe la espera
+     */
+    private boolean siguiente() throws IOException {
+      if (actual != null && leidos < actual.longitud)
+        return true;
+      if (cerrada)
+        throw new IOException("Flujo cerrado");
+      if (terminada) {
+        comprobar();
+        return false;
+      }
+      if (actual != null)
+        libres.offer(actual);
+      try {
+        actual = llenos.take();
+      } catch (InterruptedException e) {
+        actual = null;
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Descompresion interrumpida");
+      }
+      leidos = 0;
+      if (actual == FIN) {
+        actual = null;
+        terminada = true;
+        comprobar();
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * @throws IOException si ha fallado el descompresor
+     */
+    private void comprobar() throws IOException {
+      if (error != null)
+        throw new IOException("No se ha podido descomprimir el archivo", error);
+    }
+
+    /**
+     * descomprime bloques hasta el final del archivo o hasta que se cierra el flujo (en el hilo
+     * del descompresor)
+     */
+    private void descomprimir() {
+      try (InputStream archivo = origen;
+          InputStream gzip = new GZIPInputStream(archivo, BLOQUE)) {
+        int leido;
+        do {
+          Bloque bloque = libres.poll();
+          if (bloque == null)
+            bloque = new Bloque(BLOQUE);
+          leido = gzip.readNBytes(bloque.datos, 0, BLOQUE);
+          bloque.longitud = leido;
+          if (leido > 0)
+            llenos.put(bloque);
+        } while (leido == BLOQUE);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Throwable e) {
+        error = e;
+      }
+      try {
+        llenos.put(FIN);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,452 @@
+package gestisimal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Diario de las operaciones de un almacen (altas, bajas y movimientos de unidades), escrito antes
+ * de confirmar cada operacion. Las operaciones se añaden a un buffer en memoria y un hilo escritor
+ * las lleva al archivo: mientras hace un fsync se acumulan las siguientes, que se escriben juntas
+ * con un solo fsync (group commit). Tras una caida, el almacen se recupera cargando la ultima
+ * instantanea y repitiendo el diario (ver {@link Almacen#recuperar(String, String)}).
+ * <p>
+ * El archivo empieza con la generacion de la instantanea sobre la que se aplica; si no coincide
+ * con la de la instantanea, el diario ya esta incluido en ella (la caida fue entre guardar la
+ * instantanea y vaciar el diario) y se descarta. Despues, cada registro es: longitud (int), CRC32
+ * (int) y datos; la lectura se detiene en el primer registro incompleto o dañado, que es lo que
+ * deja una caida a mitad de escritura. Si falla la escritura, las operaciones que esperaban al
+ * diario lanzan una UncheckedIOException. Las siguientes ya no se apuntan y tambien la lanzan al
+ * esperar al diario, pero como observador no lanza nada, para que el resto de observadores del
+ * almacen (valoracion, indices...) vean igualmente la operacion.
+ * @author Sergio Vera Jurado
+ *
+ */
+class Diario implements ObservadorAlmacen, Closeable {
+  /**
+   * tipo de registro de un alta
+   */
+  private static final byte ALTA = 1;
+  /**
+   * tipo de registro de una baja
+   */
+  private static final byte BAJA = 2;
+  /**
+   * tipo de registro de un movimiento de unidades
+   */
+  private static final byte MOVIMIENTO = 3;
+  /**
+   * bytes de longitud y CRC delante de cada registro
+   */
+  private static final int MARCO = 2 * Integer.BYTES;
+  /**
+   * primeros bytes de todo diario ("GSMD")
+   */
+  private static final int MAGIA = 0x444D5347;
+  /**
+   * bytes de la cabecera: MAGIA y generacion (int)
+   */
+  private static final int CABECERA = 2 * Integer.BYTES;
+
+  /**
+   * operaciones que se repiten al leer el diario
+   */
+  interface Operaciones {
+    /**
+     * repite un alta
+     * @param articulo articulo, con su codigo original
+     */
+    void alta(Articulo articulo);
+
+    /**
+     * repite una baja
+     * @param codigo codigo del articulo
+     */
+    void baja(int codigo);
+
+    /**
+     * repite un movimiento de unidades
+     * @param codigo codigo del articulo
+     * @param cantidad unidades que entran (positiva) o salen (negativa)
+     */
+    void movimiento(int codigo, int cantidad);
+  }
+
+  /**
+   * canal del archivo del diario
+   */
+  private final FileChannel canal;
+  /**
+   * registros pendientes de escribir
+   */
+  private ByteBuffer pendientes = nuevoBuffer(1 << 16);
+  /**
+   * registros que esta escribiendo el hilo escritor
+   */
+  private ByteBuffer escribiendo = nuevoBuffer(1 << 16);
+  /**
+   * numero del ultimo registro añadido
+   */
+  private long secuencia;
+  /**
+   * numero del ultimo registro que ya esta en disco
+   */
+  private long duradera;
+  /**
+   * error de escritura, si lo ha habido
+   */
+  private IOException fallo;
+  /**
+   * si se ha cerrado el diario
+   */
+  private boolean cerrado;
+  /**
+   * posicion en el buffer de pendientes del marco del ultimo registro empezado
+   */
+  private int ultimoMarco;
+  /**
+   * calcula el CRC de los registros, siempre con el monitor del diario cogido
+   */
+  private final CRC32 crc = new CRC32();
+  /**
+   * hilo que escribe los registros pendientes
+   */
+  private final Thread escritor;
+
+  /**
+   * Constructor del diario: abre el archivo (creandolo si no existe) para añadir registros al
+   * final. Si el archivo es de otra generacion, se vacia
+   * @param archivo archivo del diario
+   * @param generacion generacion de la instantanea sobre la que se aplica el diario
+   * @throws IOException si no se puede abrir
+   */
+  Diario(Path archivo, int generacion) throws IOException {
+    canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (leerGeneracion(canal) != generacion)
+      empezarArchivo(generacion);
+    canal.position(canal.size());
+    escritor = new Thread(this::escribir, "diario-" + archivo.getFileName());
+    escritor.setDaemon(true);
+    escritor.start();
+  }
+
+  /**
+   * añade el registro de un alta
+   */
+  @Override
+  public void alta(Articulo articulo) {
+    String descripcion = articulo.getDescripcion();
+    byte[] texto = descripcion == null ? null : descripcion.getBytes(StandardCharsets.UTF_8);
+    synchronized (this) {
+      if (fallo != null)
+        return;
+      ByteBuffer registro =
+          empezar(1 + 5 * Integer.BYTES + 2 * Double.BYTES + (texto == null ? 0 : texto.length));
+      registro.put(ALTA).putInt(articulo.getCodigo()).putDouble(articulo.getPrecioCompra())
+          .putDouble(articulo.getPrecioVenta()).putInt(articulo.getNumeroUnidades())
+          .putInt(articulo.getStockSeguridad()).putInt(articulo.getStockMaximo());
+      registro.putInt(texto == null ? -1 : texto.length);
+      if (texto != null)
+        registro.put(texto);
+      terminar();
+    }
+  }
+
+  /**
+   * añade el registro de una baja
+   */
+  @Override
+  public synchronized void baja(Articulo articulo) {
+    if (fallo != null)
+      return;
+    empezar(1 + Integer.BYTES).put(BAJA).putInt(articulo.getCodigo());
+    terminar();
+  }
+
+  /**
+   * añade el registro de un movimiento de unidades
+   */
+  @Override
+  public synchronized void movimiento(Articulo articulo, int unidadesAnteriores) {
+    if (fallo != null)
+      return;
+    int cantidad = articulo.getNumeroUnidades() - unidadesAnteriores;
+    empezar(1 + 2 * Integer.BYTES).put(MOVIMIENTO).putInt(articulo.getCodigo()).putInt(cantidad);
+    terminar();
+  }
+
+  /**
+   * espera a que esten en disco todos los registros añadidos hasta ahora
+   * @throws UncheckedIOException si ha fallado la escritura del diario
+   */
+  void esperar() {
+    try {
+      synchronized (this) {
+        long objetivo = secuencia;
+        while (duradera < objetivo && fallo == null && !cerrado)
+          wait();
+        if (fallo != null)
+          throw new UncheckedIOException("Error al escribir el diario", fallo);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedIOException(new IOException("Espera del diario interrumpida", e));
+    }
+  }
+
+  /**
+   * vacia el diario despues de un punto de control. Quien lo llame debe impedir que se añadan
+   * registros mientras tanto
+   * @param generacion generacion de la nueva instantanea
+   * @throws IOException si falla el truncado
+   */
+  synchronized void vaciar(int generacion) throws IOException {
+    esperar();
+    empezarArchivo(generacion);
+  }
+
+  /**
+   * espera a que se escriban los registros pendientes, para el hilo escritor y cierra el archivo.
+   * Si alguna escritura ha fallado, el hilo se para y el archivo se cierra igualmente antes de
+   * lanzar el error
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      esperar();
+    } finally {
+      synchronized (this) {
+        cerrado = true;
+        notifyAll();
+      }
+      try {
+        escritor.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      canal.close();
+    }
+  }
+
+  /**
+   * lee un diario y repite sus operaciones. Si el final del archivo esta incompleto o dañado (una
+   * caida a mitad de escritura), se descarta y se recorta el archivo
+   * @param archivo archivo del diario
+   * @param generacion generacion de la instantanea ya cargada; si el diario es de otra, no se
+   *        repite
+   * @param operaciones destino de las operaciones
+   * @return numero de operaciones repetidas
+   * @throws IOException si falla la lectura
+   * @throws NumeroNegativoException si un alta tiene numeros negativos
+   */
+  static long reproducir(Path archivo, int generacion, Operaciones operaciones)
+      throws IOException, NumeroNegativoException {
+    if (!Files.exists(archivo))
+      return 0;
+    long repetidas = 0;
+    try (FileChannel lector = FileChannel.open(archivo, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      if (leerGeneracion(lector) != generacion)
+        return 0;
+      ByteBuffer marco = nuevoBuffer(MARCO);
+      ByteBuffer datos = nuevoBuffer(1 << 12);
+      CRC32 comprobacion = new CRC32();
+      long posicion = CABECERA;
+      long tamano = lector.size();
+      while (posicion + MARCO <= tamano) {
+        marco.clear();
+        leerCompleto(lector, marco, posicion);
+        int longitud = marco.getInt(0);
+        if (longitud <= 0 || posicion + MARCO + longitud > tamano)
+          break;
+        if (datos.capacity() < longitud)
+          datos = nuevoBuffer(longitud);
+        datos.clear().limit(longitud);
+        leerCompleto(lector, datos, posicion + MARCO);
+        comprobacion.reset();
+        comprobacion.update(datos.array(), 0, longitud);
+        if ((int) comprobacion.getValue() != marco.getInt(Integer.BYTES))
+          break;
+        datos.flip();
+        repetir(datos, operaciones);
+        repetidas++;
+        posicion += MARCO + longitud;
+      }
+      if (posicion < tamano)
+        lector.truncate(posicion);
+    }
+    return repetidas;
+  }
+
+  /**
+   * repite la operacion de un registro
+   * @param datos datos del registro
+   * @param operaciones destino de la operacion
+   * @throws NumeroNegativoException si un alta tiene numeros negativos
+   */
+  private static void repetir(ByteBuffer datos, Operaciones operaciones)
+      throws NumeroNegativoException {
+    byte tipo = datos.get();
+    int codigo = datos.getInt();
+    if (tipo == ALTA) {
+      double precioCompra = datos.getDouble();
+      double precioVenta = datos.getDouble();
+      int numeroUnidades = datos.getInt();
+      int stockSeguridad = datos.getInt();
+      int stockMaximo = datos.getInt();
+      int longitud = datos.getInt();
+      String descripcion = null;
+      if (longitud >= 0) {
+        descripcion =
+            new String(datos.array(), datos.position(), longitud, StandardCharsets.UTF_8);
+      }
+      operaciones.alta(new Articulo(codigo, precioCompra, precioVenta, descripcion,
+          numeroUnidades, stockSeguridad, stockMaximo));
+    } else if (tipo == BAJA) {
+      operaciones.baja(codigo);
+    } else if (tipo == MOVIMIENTO) {
+      operaciones.movimiento(codigo, datos.getInt());
+    }
+  }
+
+  /**
+   * bucle del hilo escritor: intercambia los buffers, escribe los registros pendientes y los
+   * confirma con un solo fsync
+   */
+  private void escribir() {
+    while (true) {
+      long hasta;
+      ByteBuffer lote;
+      synchronized (this) {
+        while (pendientes.position() == 0 && !cerrado) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (pendientes.position() == 0)
+          return;
+        lote = pendientes;
+        pendientes = escribiendo;
+        escribiendo = lote;
+        hasta = secuencia;
+      }
+      IOException error = null;
+      try {
+        lote.flip();
+        while (lote.hasRemaining())
+          canal.write(lote);
+        canal.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+      lote.clear();
+      synchronized (this) {
+        if (error != null)
+          fallo = error;
+        else
+          duradera = hasta;
+        notifyAll();
+        if (fallo != null)
+          return;
+      }
+    }
+  }
+
+  /**
+   * reserva sitio para un registro en el buffer de pendientes, dejando hueco para el marco. No se
+   * llama si ha fallado la escritura: el error lo lanza {@link #esperar()}
+   * @param longitud bytes de datos del registro
+   * @return el buffer, situado al principio de los datos
+   */
+  private ByteBuffer empezar(int longitud) {
+    if (pendientes.remaining() < MARCO + longitud) {
+      ByteBuffer mayor = nuevoBuffer(Math.max(pendientes.capacity() * 2,
+          pendientes.position() + MARCO + longitud));
+      pendientes.flip();
+      mayor.put(pendientes);
+      pendientes = mayor;
+    }
+    ultimoMarco = pendientes.position();
+    pendientes.putInt(longitud).putInt(0);
+    return pendientes;
+  }
+
+  /**
+   * completa el marco del registro que se acaba de escribir y avisa al hilo escritor
+   */
+  private void terminar() {
+    int longitud = pendientes.getInt(ultimoMarco);
+    crc.reset();
+    crc.update(pendientes.array(), ultimoMarco + MARCO, longitud);
+    pendientes.putInt(ultimoMarco + Integer.BYTES, (int) crc.getValue());
+    secuencia++;
+    notifyAll();
+  }
+
+  /**
+   * lee la generacion de la cabecera de un diario
+   * @param lector canal del archivo
+   * @return la generacion, o -1 si el archivo no tiene una cabecera valida
+   * @throws IOException si falla la lectura
+   */
+  private static int leerGeneracion(FileChannel lector) throws IOException {
+    if (lector.size() < CABECERA)
+      return -1;
+    ByteBuffer cabecera = nuevoBuffer(CABECERA);
+    leerCompleto(lector, cabecera, 0);
+    return cabecera.getInt(0) == MAGIA ? cabecera.getInt(Integer.BYTES) : -1;
+  }
+
+  /**
+   * deja el archivo del diario vacio, solo con la cabecera
+   * @param generacion generacion que se escribe en la cabecera
+   * @throws IOException si falla la escritura
+   */
+  private void empezarArchivo(int generacion) throws IOException {
+    canal.truncate(0);
+    ByteBuffer cabecera = nuevoBuffer(CABECERA).putInt(MAGIA).putInt(generacion);
+    cabecera.flip();
+    while (cabecera.hasRemaining())
+      canal.write(cabecera, cabecera.position());
+    canal.force(true);
+    canal.position(CABECERA);
+  }
+
+  /**
+   * crea un buffer en little endian
+   * @param capacidad bytes del buffer
+   * @return el buffer
+   */
+  private static ByteBuffer nuevoBuffer(int capacidad) {
+    return ByteBuffer.allocate(capacidad).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * lee del canal hasta llenar el buffer
+   * @param lector canal del archivo
+   * @param buffer buffer que se llena
+   * @param posicion posicion del archivo desde la que se lee
+   * @throws IOException si falla la lectura o el archivo se acaba antes
+   */
+  private static void leerCompleto(FileChannel lector, ByteBuffer buffer, long posicion)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int leidos = lector.read(buffer, posicion);
+      if (leidos < 0)
+        throw new IOException("Diario incompleto");
+      posicion += leidos;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package gestisimal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Estadisticas de una operacion de un almacen en un momento dado (ver
+ * {@link Almacen#estadisticas()}). No cambian aunque el almacen siga trabajando.
+ * @author Sergio Vera Jurado
+ *
+ */
+class EstadisticaOperacion implements OperacionAlmacenMXBean {
+  /**
+   * operacion
+   */
+  private final Metricas.Operacion operacion;
+  /**
+   * numero de llamadas
+   */
+  private final long numero;
+  /**
+   * llamadas que han fallado
+   */
+  private final long errores;
+  /**
+   * fallos por cada causa
+   */
+  private final Map<String, Long> causas;
+  /**
+   * llamadas medidas
+   */
+  private final long muestras;
+  /**
+   * latencia media
+   */
+  private final double media;
+  /**
+   * percentiles 50, 90, 99 y 99,9 de la latencia
+   */
+  private final long p50, p90, p99, p999;
+  /**
+   * mayor latencia
+   */
+  private final long maximo;
+  /**
+   * articulos leidos o escritos
+   */
+  private final long filas;
+  /**
+   * bytes leidos o escritos
+   */
+  private final long bytes;
+
+  /**
+   * Constructor de las estadisticas
+   * @param operacion operacion
+   * @param numero numero de llamadas
+   * @param errores llamadas que han fallado
+   * @param causas fallos por cada causa
+   * @param latencias latencias medidas
+   * @param filas articulos leidos o escritos
+   * @param bytes bytes leidos o escritos
+   */
+  EstadisticaOperacion(Metricas.Operacion operacion, long numero, long errores,
+      Map<String, Long> causas, Histograma latencias, long filas, long bytes) {
+    this.operacion = operacion;
+    this.numero = numero;
+    this.errores = errores;
+    this.causas = Collections.unmodifiableMap(new TreeMap<>(causas));
+    this.muestras = latencias.numero();
+    this.media = latencias.media();
+    this.p50 = latencias.percentil(50);
+    this.p90 = latencias.percentil(90);
+    this.p99 = latencias.percentil(99);
+    this.p999 = latencias.percentil(99.9);
+    this.maximo = latencias.maximo();
+    this.filas = filas;
+    this.bytes = bytes;
+  }
+
+  @Override
+  public String getOperacion() {
+    return operacion.name();
+  }
+
+  @Override
+  public long getNumero() {
+    return numero;
+  }
+
+  @Override
+  public long getErrores() {
+    return errores;
+  }
+
+  @Override
+  public Map<String, Long> getCausas() {
+    return causas;
+  }
+
+  @Override
+  public long getMuestras() {
+    return muestras;
+  }
+
+  @Override
+  public double getMedia() {
+    return media;
+  }
+
+  @Override
+  public long getP50() {
+    return p50;
+  }
+
+  @Override
+  public long getP90() {
+    return p90;
+  }
+
+  @Override
+  public long getP99() {
+    return p99;
+  }
+
+  @Override
+  public long getP999() {
+    return p999;
+  }
+
+  @Override
+  public long getMaximo() {
+    return maximo;
+  }
+
+  @Override
+  public long getFilas() {
+    return filas;
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * toString de las estadisticas, con las latencias en microsegundos
+   */
+  @Override
+  public String toString() {
+    return String.format("%s: %d llamadas, %d errores %s, media %.1f us, p50 %.1f us, "
+        + "p99 %.1f us, p99.9 %.1f us, max %.1f us, %d filas, %d bytes", operacion, numero,
+        errores, causas, media / 1e3, p50 / 1e3, p99 / 1e3, p999 / 1e3, maximo / 1e3,
+        filas, bytes);
+  }
+}
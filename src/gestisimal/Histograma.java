@@ -0,0 +1,123 @@
+package gestisimal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos al estilo de HdrHistogram: los intervalos crecen en
+ * potencias de dos y cada potencia se divide en 32 partes iguales, asi que cualquier valor se
+ * guarda con un error menor del 3% en un array de tamaño fijo. Registrar un valor es sumar uno a
+ * una posicion, sin cerrojos ni objetos nuevos, y se puede hacer desde varios hilos a la vez.
+ * @author Sergio Vera Jurado
+ *
+ */
+class Histograma {
+  /**
+   * bits de cada potencia de dos que se usan para elegir el intervalo
+   */
+  private static final int BITS = 5;
+  /**
+   * intervalos de cada potencia de dos
+   */
+  private static final int PARTES = 1 << BITS;
+  /**
+   * cuenta de valores de cada intervalo
+   */
+  private final AtomicLongArray cuentas = new AtomicLongArray((64 - BITS + 1) * PARTES);
+  /**
+   * numero de valores
+   */
+  private final LongAdder numero = new LongAdder();
+  /**
+   * suma de los valores
+   */
+  private final LongAdder suma = new LongAdder();
+  /**
+   * mayor valor
+   */
+  private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+  /**
+   * registra un valor
+   * @param valor valor en nanosegundos (los negativos se toman como 0)
+   */
+  void registrar(long valor) {
+    valor = Math.max(valor, 0);
+    cuentas.incrementAndGet(intervalo(valor));
+    numero.increment();
+    suma.add(valor);
+    maximo.accumulate(valor);
+  }
+
+  /**
+   * @return numero de valores registrados
+   */
+  long numero() {
+    return numero.sum();
+  }
+
+  /**
+   * @return media de los valores, o 0 si no hay ninguno
+   */
+  double media() {
+    long n = numero.sum();
+    return n == 0 ? 0 : (double) suma.sum() / n;
+  }
+
+  /**
+   * @return mayor valor registrado
+   */
+  long maximo() {
+    return maximo.get();
+  }
+
+  /**
+   * calcula un percentil
+   * @param percentil percentil entre 0 y 100
+   * @return el menor valor (aproximado) que no supera el percentil de los valores, o 0 si no hay
+   *         ninguno
+   */
+  long percentil(double percentil) {
+    long total = 0;
+    for (int i = 0; i < cuentas.length(); i++)
+      total += cuentas.get(i);
+    if (total == 0)
+      return 0;
+    long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100));
+    long acumulado = 0;
+    for (int i = 0; i < cuentas.length(); i++) {
+      acumulado += cuentas.get(i);
+      if (acumulado >= objetivo)
+        return Math.min(limiteSuperior(i), maximo());
+    }
+    return maximo();
+  }
+
+  /**
+   * devuelve el intervalo de un valor
+   * @param valor valor no negativo
+   * @return posicion del intervalo en el array de cuentas
+   */
+  private static int intervalo(long valor) {
+    if (valor < PARTES)
+      return (int) valor;
+    int potencia = 63 - Long.numberOfLeadingZeros(valor);
+    int desplazamiento = potencia - BITS;
+    int parte = (int) (valor >>> desplazamiento) - PARTES;
+    return (desplazamiento + 1) * PARTES + parte;
+  }
+
+  /**
+   * devuelve el mayor valor de un intervalo
+   * @param intervalo posicion del intervalo
+   * @return el mayor valor que cae en el
+   */
+  private static long limiteSuperior(int intervalo) {
+    if (intervalo < PARTES)
+      return intervalo;
+    int desplazamiento = intervalo / PARTES - 1;
+    long parte = intervalo % PARTES + PARTES;
+    return ((parte + 1) << desplazamiento) - 1;
+  }
+}
@@ -0,0 +1,398 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Indice de los articulos del almacen por su codigo. Es una tabla hash de direccionamiento abierto
+ * (sondeo lineal) con claves int, asi que buscar, dar de alta o eliminar un articulo no depende
+ * del numero de articulos del almacen ni crea objetos auxiliares. Los articulos se guardan ademas
+ * en un array en orden de insercion, que es el orden en el que se recorren (listado, CSV y XML).
+ * @author Sergio Vera Jurado
+ *
+ */
+class IndiceArticulos implements Iterable<Articulo> {
+  /**
+   * capacidad inicial de la tabla hash (siempre potencia de dos)
+   */
+  private static final int CAPACIDAD_INICIAL = 16;
+  /**
+   * marca de hueco libre en la tabla de posiciones
+   */
+  private static final int LIBRE = -1;
+  /**
+   * codigos de los articulos de la tabla hash
+   */
+  private int[] claves;
+  /**
+   * posicion en el array de articulos de cada codigo, o LIBRE si el hueco esta vacio
+   */
+  private int[] posiciones;
+  /**
+   * articulos en orden de insercion; los eliminados dejan un null hasta que se compacta
+   */
+  private Articulo[] articulos;
+  /**
+   * numero de alta de cada posicion del array de articulos, creciente; los huecos de los
+   * eliminados conservan el suyo
+   */
+  private long[] altas;
+  /**
+   * ultimo numero de alta dado. No vuelve a cero al vaciar el indice, asi que un numero de alta
+   * nunca se repite
+   */
+  private long ultimaAlta;
+  /**
+   * primera posicion libre del array de articulos
+   */
+  private int fin;
+  /**
+   * numero de articulos del indice
+   */
+  private int tamano;
+
+  /**
+   * Constructor de un indice vacio
+   */
+  IndiceArticulos() {
+    claves = new int[CAPACIDAD_INICIAL * 2];
+    posiciones = nuevaTabla(CAPACIDAD_INICIAL * 2);
+    articulos = new Articulo[CAPACIDAD_INICIAL];
+    altas = new long[CAPACIDAD_INICIAL];
+  }
+
+  /**
+   * devuelve el articulo con el codigo indicado. Puede llamarse durante una lectura optimista
+   * mientras otro hilo modifica el indice: el sondeo esta acotado y, como mucho, lanzara una
+   * excepcion o devolvera un resultado que el llamador debe descartar al validar su lectura.
+   * @param codigo codigo del articulo
+   * @return el articulo, o null si no existe
+   */
+  Articulo get(int codigo) {
+    int[] claves = this.claves;
+    int[] posiciones = this.posiciones;
+    Articulo[] articulos = this.articulos;
+    int mascara = claves.length - 1;
+    int i = hash(codigo) & mascara;
+    for (int n = 0; n <= mascara && posiciones[i] != LIBRE; n++, i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        return articulos[posiciones[i]];
+    }
+    return null;
+  }
+
+  /**
+   * indica si hay un articulo con el codigo indicado
+   * @param codigo codigo del articulo
+   * @return true si existe
+   */
+  boolean contains(int codigo) {
+    return get(codigo) != null;
+  }
+
+  /**
+   * añade un articulo al final del indice
+   * @param articulo articulo que se añade
+   * @return false si ya habia un articulo con el mismo codigo
+   */
+  boolean add(Articulo articulo) {
+    int codigo = articulo.getCodigo();
+    int mascara = claves.length - 1;
+    int i = hash(codigo) & mascara;
+    for (; posiciones[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        return false;
+    }
+    if (fin == articulos.length) {
+      hacerSitio();
+      return add(articulo);
+    }
+    claves[i] = codigo;
+    posiciones[i] = fin;
+    altas[fin] = ++ultimaAlta;
+    articulos[fin++] = articulo;
+    tamano++;
+    if (tamano * 2 > claves.length)
+      rehash(claves.length * 2);
+    return true;
+  }
+
+  /**
+   * elimina el articulo con el codigo indicado
+   * @param codigo codigo del articulo
+   * @return el articulo eliminado, o null si no existia
+   */
+  Articulo remove(int codigo) {
+    int mascara = claves.length - 1;
+    int i = hash(codigo) & mascara;
+    for (; posiciones[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        break;
+    }
+    if (posiciones[i] == LIBRE)
+      return null;
+    Articulo articulo = articulos[posiciones[i]];
+    articulos[posiciones[i]] = null;
+    tamano--;
+    borrarHueco(i);
+    if (fin > CAPACIDAD_INICIAL && tamano < fin / 4)
+      compactar();
+    return articulo;
+  }
+
+  /**
+   * prepara el indice para recibir articulos sin tener que ampliarse por el camino
+   * @param nuevos numero de articulos que se van a añadir
+   */
+  void reservar(int nuevos) {
+    int necesarios = fin + nuevos;
+    if (necesarios > articulos.length) {
+      articulos = Arrays.copyOf(articulos, necesarios);
+      altas = Arrays.copyOf(altas, necesarios);
+    }
+    int capacidad = claves.length;
+    while (capacidad < (tamano + nuevos) * 2L)
+      capacidad *= 2;
+    if (capacidad != claves.length)
+      rehash(capacidad);
+  }
+
+  /**
+   * vacia el indice
+   */
+  void clear() {
+    claves = new int[CAPACIDAD_INICIAL * 2];
+    posiciones = nuevaTabla(CAPACIDAD_INICIAL * 2);
+    articulos = new Articulo[CAPACIDAD_INICIAL];
+    altas = new long[CAPACIDAD_INICIAL];
+    fin = 0;
+    tamano = 0;
+  }
+
+  /**
+   * devuelve la posicion de un articulo en el orden de insercion
+   * @param codigo codigo del articulo
+   * @return la posicion, o -1 si no existe
+   */
+  int posicion(int codigo) {
+    int mascara = claves.length - 1;
+    int i = hash(codigo) & mascara;
+    for (; posiciones[i] != LIBRE; i = (i + 1) & mascara) {
+      if (claves[i] == codigo)
+        return posiciones[i];
+    }
+    return -1;
+  }
+
+  /**
+   * devuelve la primera posicion con un numero de alta igual o mayor que uno dado, esten o no
+   * todavia sus articulos: como los numeros de alta van creciendo, sirve para seguir un recorrido
+   * aunque se haya eliminado el articulo por el que iba o se haya compactado el indice
+   * @param alta numero de alta
+   * @return la posicion, o {@link #fin()} si todos los articulos son anteriores
+   */
+  int posicionAlta(long alta) {
+    int desde = 0;
+    int hasta = fin;
+    while (desde < hasta) {
+      int medio = (desde + hasta) >>> 1;
+      if (altas[medio] < alta)
+        desde = medio + 1;
+      else
+        hasta = medio;
+    }
+    return desde;
+  }
+
+  /**
+   * @param posicion posicion menor que {@link #fin()}
+   * @return el numero de alta del articulo de esa posicion, mayor que cero
+   */
+  long alta(int posicion) {
+    return altas[posicion];
+  }
+
+  /**
+   * @return primera posicion libre; las anteriores tienen un articulo o un hueco
+   */
+  int fin() {
+    return fin;
+  }
+
+  /**
+   * @param posicion posicion menor que {@link #fin()}
+   * @return el articulo de esa posicion, o null si se ha eliminado
+   */
+  Articulo enPosicion(int posicion) {
+    return articulos[posicion];
+  }
+
+  /**
+   * @return numero de articulos del indice
+   */
+  int size() {
+    return tamano;
+  }
+
+  /**
+   * @return los articulos del indice en orden de insercion
+   */
+  Articulo[] toArray() {
+    Articulo[] copia = new Articulo[tamano];
+    int j = 0;
+    for (int i = 0; i < fin; i++) {
+      if (articulos[i] != null)
+        copia[j++] = articulos[i];
+    }
+    return copia;
+  }
+
+  /**
+   * recorre los articulos en orden de insercion
+   */
+  @Override
+  public Iterator<Articulo> iterator() {
+    return new Iterator<Articulo>() {
+      private int siguiente = buscarOcupado(0);
+
+      @Override
+      public boolean hasNext() {
+        return siguiente < fin;
+      }
+
+      @Override
+      public Articulo next() {
+        if (siguiente >= fin)
+          throw new NoSuchElementException();
+        Articulo articulo = articulos[siguiente];
+        siguiente = buscarOcupado(siguiente + 1);
+        return articulo;
+      }
+    };
+  }
+
+  /**
+   * toString del indice, con el mismo formato que el de una lista
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (Articulo articulo : this) {
+      if (sb.length() > 1)
+        sb.append(", ");
+      sb.append(articulo);
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * busca la primera posicion ocupada del array de articulos a partir de una dada
+   * @param desde posicion por la que se empieza a buscar
+   * @return posicion ocupada, o fin si no hay mas articulos
+   */
+  private int buscarOcupado(int desde) {
+    while (desde < fin && articulos[desde] == null)
+      desde++;
+    return desde;
+  }
+
+  /**
+   * deja sitio al final del array de articulos, compactandolo si tiene muchos huecos o
+   * ampliandolo si no
+   */
+  private void hacerSitio() {
+    if (tamano < fin / 2) {
+      compactar();
+    } else {
+      Articulo[] nuevos = new Articulo[articulos.length * 2];
+      System.arraycopy(articulos, 0, nuevos, 0, fin);
+      articulos = nuevos;
+      altas = Arrays.copyOf(altas, nuevos.length);
+    }
+  }
+
+  /**
+   * elimina los huecos del array de articulos manteniendo el orden y rehace la tabla hash
+   */
+  private void compactar() {
+    Articulo[] nuevos = new Articulo[Math.max(CAPACIDAD_INICIAL, tamano * 2)];
+    long[] nuevasAltas = new long[nuevos.length];
+    int j = 0;
+    for (int i = 0; i < fin; i++) {
+      if (articulos[i] != null) {
+        nuevasAltas[j] = altas[i];
+        nuevos[j++] = articulos[i];
+      }
+    }
+    articulos = nuevos;
+    altas = nuevasAltas;
+    fin = j;
+    rehash(claves.length);
+  }
+
+  /**
+   * reconstruye la tabla hash a partir del array de articulos
+   * @param capacidad nueva capacidad de la tabla (potencia de dos)
+   */
+  private void rehash(int capacidad) {
+    int[] nuevasClaves = new int[capacidad];
+    int[] nuevasPosiciones = nuevaTabla(capacidad);
+    int mascara = capacidad - 1;
+    for (int p = 0; p < fin; p++) {
+      if (articulos[p] == null)
+        continue;
+      int codigo = articulos[p].getCodigo();
+      int i = hash(codigo) & mascara;
+      while (nuevasPosiciones[i] != LIBRE)
+        i = (i + 1) & mascara;
+      nuevasClaves[i] = codigo;
+      nuevasPosiciones[i] = p;
+    }
+    claves = nuevasClaves;
+    posiciones = nuevasPosiciones;
+  }
+
+  /**
+   * libera un hueco de la tabla hash desplazando hacia atras las claves que vienen detras, para
+   * que las busquedas no se corten sin necesidad de lapidas
+   * @param hueco posicion de la tabla que se libera
+   */
+  private void borrarHueco(int hueco) {
+    int mascara = claves.length - 1;
+    int i = hueco;
+    while (true) {
+      i = (i + 1) & mascara;
+      if (posiciones[i] == LIBRE)
+        break;
+      int ideal = hash(claves[i]) & mascara;
+      if (((i - ideal) & mascara) >= ((i - hueco) & mascara)) {
+        claves[hueco] = claves[i];
+        posiciones[hueco] = posiciones[i];
+        hueco = i;
+      }
+    }
+    posiciones[hueco] = LIBRE;
+  }
+
+  /**
+   * crea una tabla de posiciones vacia
+   * @param capacidad tamaño de la tabla
+   * @return tabla con todos los huecos libres
+   */
+  private static int[] nuevaTabla(int capacidad) {
+    int[] tabla = new int[capacidad];
+    Arrays.fill(tabla, LIBRE);
+    return tabla;
+  }
+
+  /**
+   * mezcla los bits del codigo para que codigos consecutivos no formen racimos en la tabla
+   * @param codigo codigo del articulo
+   * @return hash del codigo
+   */
+  static int hash(int codigo) {
+    int h = codigo * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,375 @@
+package gestisimal;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Indice de las palabras de las descripciones de los articulos, para buscar por nombre sin
+ * recorrer el almacen. Las descripciones se parten en palabras (letras y digitos seguidos) que se
+ * guardan en minusculas y sin acentos, asi que "Salmón" se encuentra buscando "salmon". Cada
+ * palabra tiene la lista ordenada de los codigos que la contienen, y las palabras estan ordenadas
+ * para buscar por prefijo ("pech" encuentra "pechuga"). El almacen le avisa de cada alta y baja
+ * (ver {@link ObservadorAlmacen}).
+ * <p>
+ * Al buscar varias palabras se empieza por los prefijos que abarcan menos palabras del indice.
+ * Los prefijos muy amplios (por ejemplo "l", o "lote5" si hay miles de lotes) no se juntan: basta
+ * comprobar la descripcion de los pocos articulos que ya cumplen el resto.
+ * @author Sergio Vera Jurado
+ *
+ */
+class IndiceDescripciones implements ObservadorAlmacen {
+  /**
+   * caracter mayor que cualquier otro, para acotar las palabras que empiezan por un prefijo
+   */
+  private static final char ULTIMO = Character.MAX_VALUE;
+  /**
+   * numero de palabras del indice a partir del cual un prefijo se considera amplio
+   */
+  private static final int PREFIJO_AMPLIO = 64;
+
+  /**
+   * Lista ordenada de codigos, sin repetidos
+   */
+  private static class Codigos {
+    /**
+     * codigos ordenados
+     */
+    private int[] codigos = new int[2];
+    /**
+     * numero de codigos
+     */
+    private int tamano;
+
+    /**
+     * añade un codigo; los codigos nuevos suelen ser los mayores, y se añaden al final
+     * @param codigo codigo
+     */
+    void add(int codigo) {
+      int i = tamano > 0 && codigos[tamano - 1] < codigo ? -tamano - 1
+          : Arrays.binarySearch(codigos, 0, tamano, codigo);
+      if (i >= 0)
+        return;
+      i = -i - 1;
+      if (tamano == codigos.length)
+        codigos = Arrays.copyOf(codigos, tamano * 2);
+      System.arraycopy(codigos, i, codigos, i + 1, tamano - i);
+      codigos[i] = codigo;
+      tamano++;
+    }
+
+    /**
+     * añade los codigos de otra lista; si todos son mayores que los que ya hay, de una vez
+     * @param otros lista que ya no se modifica
+     */
+    void add(Codigos otros) {
+      if (tamano == 0) {
+        codigos = otros.codigos;
+        tamano = otros.tamano;
+      } else if (otros.tamano > 0 && otros.codigos[0] > codigos[tamano - 1]) {
+        if (tamano + otros.tamano > codigos.length)
+          codigos = Arrays.copyOf(codigos, Math.max(codigos.length * 2, tamano + otros.tamano));
+        System.arraycopy(otros.codigos, 0, codigos, tamano, otros.tamano);
+        tamano += otros.tamano;
+      } else {
+        for (int i = 0; i < otros.tamano; i++)
+          add(otros.codigos[i]);
+      }
+    }
+
+    /**
+     * quita un codigo
+     * @param codigo codigo
+     */
+    void remove(int codigo) {
+      int i = Arrays.binarySearch(codigos, 0, tamano, codigo);
+      if (i < 0)
+        return;
+      System.arraycopy(codigos, i + 1, codigos, i, tamano - i - 1);
+      tamano--;
+    }
+  }
+
+  /**
+   * codigos de los articulos que contienen cada palabra
+   */
+  private final TreeMap<String, Codigos> palabras = new TreeMap<>();
+  /**
+   * cerrojo del indice: exclusivo para altas y bajas, compartido para las busquedas
+   */
+  private final StampedLock cerrojo = new StampedLock();
+  /**
+   * descripcion de un articulo por su codigo (null si no existe), para comprobar los prefijos
+   * amplios
+   */
+  private final IntFunction<String> descripciones;
+
+  /**
+   * Constructor de un indice vacio
+   * @param descripciones devuelve la descripcion de un articulo por su codigo, o null si no existe.
+   *        Se llama sin el cerrojo del indice
+   */
+  IndiceDescripciones(IntFunction<String> descripciones) {
+    this.descripciones = descripciones;
+  }
+
+  /**
+   * añade las palabras del articulo nuevo
+   */
+  @Override
+  public void alta(Articulo articulo) {
+    List<String> nuevas = palabras(articulo.getDescripcion());
+    if (nuevas.isEmpty())
+      return;
+    long sello = cerrojo.writeLock();
+    try {
+      for (String palabra : nuevas)
+        palabras.computeIfAbsent(palabra, p -> new Codigos()).add(articulo.getCodigo());
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * añade las palabras de los articulos de una carga: cada trozo se parte en palabras en paralelo,
+   * en un indice propio, y despues se junta cada palabra de una vez con el cerrojo exclusivo
+   */
+  @Override
+  public void altas(Articulo[][] trozos) {
+    List<Map<String, Codigos>> parciales = Arrays.stream(trozos).parallel()
+        .map(IndiceDescripciones::indexar).collect(Collectors.toList());
+    long sello = cerrojo.writeLock();
+    try {
+      for (Map<String, Codigos> parcial : parciales) {
+        for (Map.Entry<String, Codigos> palabra : parcial.entrySet())
+          palabras.computeIfAbsent(palabra.getKey(), p -> new Codigos()).add(palabra.getValue());
+      }
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * quita las palabras del articulo eliminado
+   */
+  @Override
+  public void baja(Articulo articulo) {
+    List<String> viejas = palabras(articulo.getDescripcion());
+    if (viejas.isEmpty())
+      return;
+    long sello = cerrojo.writeLock();
+    try {
+      for (String palabra : viejas) {
+        Codigos codigos = palabras.get(palabra);
+        if (codigos == null)
+          continue;
+        codigos.remove(articulo.getCodigo());
+        if (codigos.tamano == 0)
+          palabras.remove(palabra);
+      }
+    } finally {
+      cerrojo.unlockWrite(sello);
+    }
+  }
+
+  /**
+   * busca los articulos cuya descripcion tiene, para cada palabra del texto, alguna palabra que
+   * empieza por ella (sin distinguir mayusculas ni acentos)
+   * @param texto palabras o principios de palabras que se buscan
+   * @return codigos de los articulos encontrados, ordenados
+   */
+  int[] buscar(String texto) {
+    List<String> prefijos = palabras(texto);
+    if (prefijos.isEmpty())
+      return new int[0];
+    List<String> amplios = new ArrayList<>();
+    int[] resultado = null;
+    long sello = cerrojo.readLock();
+    try {
+      int[] anchuras = new int[prefijos.size()];
+      for (int i = 0; i < anchuras.length; i++)
+        anchuras[i] = anchura(prefijos.get(i));
+      Integer[] orden = new Integer[anchuras.length];
+      for (int i = 0; i < orden.length; i++)
+        orden[i] = i;
+      Arrays.sort(orden, Comparator.comparingInt(i -> anchuras[i]));
+      for (int i : orden) {
+        String prefijo = prefijos.get(i);
+        if (resultado != null && anchuras[i] >= PREFIJO_AMPLIO) {
+          amplios.add(prefijo);
+          continue;
+        }
+        int[] codigos = buscarPrefijo(prefijo);
+        resultado = resultado == null ? codigos : interseccion(resultado, codigos);
+        if (resultado.length == 0)
+          return resultado;
+      }
+    } finally {
+      cerrojo.unlockRead(sello);
+    }
+    return amplios.isEmpty() ? resultado : filtrar(resultado, amplios);
+  }
+
+  /**
+   * parte un texto en palabras en minusculas y sin acentos, sin repetidas
+   * @param texto texto, puede ser null
+   * @return las palabras
+   */
+  static List<String> palabras(String texto) {
+    List<String> resultado = new ArrayList<>();
+    if (texto == null)
+      return resultado;
+    int i = 0;
+    while (i < texto.length()) {
+      while (i < texto.length() && !Character.isLetterOrDigit(texto.charAt(i)))
+        i++;
+      int inicio = i;
+      while (i < texto.length() && Character.isLetterOrDigit(texto.charAt(i)))
+        i++;
+      if (i > inicio) {
+        String palabra = normalizar(texto.substring(inicio, i));
+        if (!resultado.contains(palabra))
+          resultado.add(palabra);
+      }
+    }
+    return resultado;
+  }
+
+  /**
+   * indexa las palabras de unos articulos fuera del indice
+   * @param articulos articulos
+   * @return codigos de los articulos que contienen cada palabra
+   */
+  private static Map<String, Codigos> indexar(Articulo[] articulos) {
+    Map<String, Codigos> parcial = new HashMap<>();
+    for (Articulo articulo : articulos) {
+      for (String palabra : palabras(articulo.getDescripcion()))
+        parcial.computeIfAbsent(palabra, p -> new Codigos()).add(articulo.getCodigo());
+    }
+    return parcial;
+  }
+
+  /**
+   * pasa una palabra a minusculas y le quita los acentos
+   * @param palabra palabra
+   * @return la palabra normalizada
+   */
+  private static String normalizar(String palabra) {
+    boolean ascii = true;
+    for (int i = 0; i < palabra.length() && ascii; i++)
+      ascii = palabra.charAt(i) < 0x80;
+    if (!ascii) {
+      String separada = Normalizer.normalize(palabra, Normalizer.Form.NFD);
+      StringBuilder sb = new StringBuilder(separada.length());
+      for (int i = 0; i < separada.length(); i++) {
+        char c = separada.charAt(i);
+        if (Character.getType(c) != Character.NON_SPACING_MARK)
+          sb.append(c);
+      }
+      palabra = sb.toString();
+    }
+    return palabra.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * cuenta las palabras del indice que empiezan por un prefijo, hasta PREFIJO_AMPLIO
+   * @param prefijo prefijo normalizado
+   * @return numero de palabras, como mucho PREFIJO_AMPLIO
+   */
+  private int anchura(String prefijo) {
+    int n = 0;
+    for (String palabra : palabras.tailMap(prefijo).keySet()) {
+      if (n == PREFIJO_AMPLIO || !palabra.startsWith(prefijo))
+        break;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * se queda con los articulos cuya descripcion tiene alguna palabra que empieza por cada prefijo
+   * @param codigos codigos de los articulos
+   * @param prefijos prefijos normalizados
+   * @return los codigos que cumplen todos los prefijos, en el mismo orden
+   */
+  private int[] filtrar(int[] codigos, List<String> prefijos) {
+    int n = 0;
+    for (int codigo : codigos) {
+      List<String> palabras = palabras(descripciones.apply(codigo));
+      boolean cumple = true;
+      for (int i = 0; i < prefijos.size() && cumple; i++) {
+        cumple = false;
+        for (int j = 0; j < palabras.size() && !cumple; j++)
+          cumple = palabras.get(j).startsWith(prefijos.get(i));
+      }
+      if (cumple)
+        codigos[n++] = codigo;
+    }
+    return Arrays.copyOf(codigos, n);
+  }
+
+  /**
+   * junta los codigos de todas las palabras que empiezan por un prefijo
+   * @param prefijo prefijo normalizado
+   * @return codigos ordenados, sin repetidos
+   */
+  private int[] buscarPrefijo(String prefijo) {
+    SortedMap<String, Codigos> encontradas = palabras.subMap(prefijo, prefijo + ULTIMO);
+    int total = 0;
+    int numeroPalabras = 0;
+    for (Codigos codigos : encontradas.values()) {
+      total += codigos.tamano;
+      numeroPalabras++;
+    }
+    if (numeroPalabras == 1) {
+      Codigos codigos = encontradas.get(encontradas.firstKey());
+      return Arrays.copyOf(codigos.codigos, codigos.tamano);
+    }
+    int[] resultado = new int[total];
+    int n = 0;
+    for (Codigos codigos : encontradas.values()) {
+      System.arraycopy(codigos.codigos, 0, resultado, n, codigos.tamano);
+      n += codigos.tamano;
+    }
+    Arrays.sort(resultado);
+    int distintos = 0;
+    for (int i = 0; i < n; i++) {
+      if (distintos == 0 || resultado[distintos - 1] != resultado[i])
+        resultado[distintos++] = resultado[i];
+    }
+    return Arrays.copyOf(resultado, distintos);
+  }
+
+  /**
+   * interseccion de dos listas ordenadas de codigos
+   * @param a primera lista
+   * @param b segunda lista
+   * @return los codigos que estan en las dos, ordenados
+   */
+  private static int[] interseccion(int[] a, int[] b) {
+    int[] resultado = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        resultado[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(resultado, n);
+  }
+}
@@ -0,0 +1,209 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Indice de los articulos ordenados por un campo numerico (precio de compra, precio de venta o
+ * numero de unidades), para buscar por rangos y sacar los N mayores o menores sin recorrer el
+ * almacen. Cada articulo es una entrada (valor, codigo) de una lista por saltos concurrente, asi
+ * que los movimientos de articulos distintos la actualizan a la vez sin cerrojos. El almacen le
+ * avisa de cada alta, baja y movimiento (ver {@link ObservadorAlmacen}).
+ * @author Sergio Vera Jurado
+ *
+ */
+class IndiceOrdenado implements ObservadorAlmacen {
+  /**
+   * campos por los que se puede ordenar
+   */
+  enum Campo {
+    /**
+     * precio de compra
+     */
+    PRECIO_COMPRA(Articulo::getPrecioCompra),
+    /**
+     * precio de venta
+     */
+    PRECIO_VENTA(Articulo::getPrecioVenta),
+    /**
+     * numero de unidades
+     */
+    NUMERO_UNIDADES(Articulo::getNumeroUnidades);
+
+    /**
+     * lee el campo de un articulo
+     */
+    private final ToDoubleFunction<Articulo> lector;
+
+    /**
+     * Constructor del campo
+     * @param lector lee el campo de un articulo
+     */
+    Campo(ToDoubleFunction<Articulo> lector) {
+      this.lector = lector;
+    }
+
+    /**
+     * @param articulo articulo
+     * @return valor del campo en el articulo
+     */
+    double valor(Articulo articulo) {
+      return lector.applyAsDouble(articulo);
+    }
+  }
+
+  /**
+   * Entrada del indice: valor del campo y codigo del articulo, ordenadas por valor y luego por
+   * codigo
+   */
+  private static class Entrada implements Comparable<Entrada> {
+    /**
+     * valor del campo
+     */
+    private final double valor;
+    /**
+     * codigo del articulo
+     */
+    private final int codigo;
+
+    /**
+     * Constructor de la entrada
+     * @param valor valor del campo
+     * @param codigo codigo del articulo
+     */
+    Entrada(double valor, int codigo) {
+      this.valor = valor;
+      this.codigo = codigo;
+    }
+
+    /**
+     * compara por valor y luego por codigo
+     */
+    @Override
+    public int compareTo(Entrada otra) {
+      int comparacion = Double.compare(valor, otra.valor);
+      return comparacion != 0 ? comparacion : Integer.compare(codigo, otra.codigo);
+    }
+
+    /**
+     * equals coherente con compareTo
+     */
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Entrada && compareTo((Entrada) obj) == 0;
+    }
+
+    /**
+     * hashCode de la entrada
+     */
+    @Override
+    public int hashCode() {
+      return Double.hashCode(valor) * 31 + codigo;
+    }
+  }
+
+  /**
+   * campo por el que se ordena
+   */
+  private final Campo campo;
+  /**
+   * entradas ordenadas
+   */
+  private final ConcurrentSkipListSet<Entrada> entradas = new ConcurrentSkipListSet<>();
+
+  /**
+   * Constructor de un indice vacio
+   * @param campo campo por el que se ordena
+   */
+  IndiceOrdenado(Campo campo) {
+    this.campo = campo;
+  }
+
+  /**
+   * añade el articulo nuevo
+   */
+  @Override
+  public void alta(Articulo articulo) {
+    entradas.add(new Entrada(campo.valor(articulo), articulo.getCodigo()));
+  }
+
+  /**
+   * añade los articulos de una carga en paralelo; la lista por saltos admite altas a la vez
+   */
+  @Override
+  public void altas(Articulo[][] trozos) {
+    Arrays.stream(trozos).parallel().flatMap(Arrays::stream).forEach(this::alta);
+  }
+
+  /**
+   * quita el articulo eliminado
+   */
+  @Override
+  public void baja(Articulo articulo) {
+    entradas.remove(new Entrada(campo.valor(articulo), articulo.getCodigo()));
+  }
+
+  /**
+   * recoloca el articulo si el campo es el numero de unidades. Solo si su entrada anterior estaba
+   * en el indice, para que un movimiento de un articulo ya dado de baja no lo vuelva a meter
+   */
+  @Override
+  public void movimiento(Articulo articulo, int unidadesAnteriores) {
+    if (campo != Campo.NUMERO_UNIDADES)
+      return;
+    if (entradas.remove(new Entrada(unidadesAnteriores, articulo.getCodigo())))
+      entradas.add(new Entrada(articulo.getNumeroUnidades(), articulo.getCodigo()));
+  }
+
+  /**
+   * busca los articulos con el campo entre dos valores, ambos incluidos
+   * @param desde valor minimo
+   * @param hasta valor maximo
+   * @return codigos de los articulos, ordenados por el campo
+   */
+  int[] buscarEntre(double desde, double hasta) {
+    if (!(desde <= hasta))
+      return new int[0];
+    NavigableSet<Entrada> rango = entradas.subSet(new Entrada(desde, Integer.MIN_VALUE), true,
+        new Entrada(hasta, Integer.MAX_VALUE), true);
+    return codigos(rango.iterator(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param n numero de articulos
+   * @return codigos de los n articulos con el campo mayor, de mayor a menor
+   */
+  int[] mayores(int n) {
+    return codigos(entradas.descendingIterator(), n);
+  }
+
+  /**
+   * @param n numero de articulos
+   * @return codigos de los n articulos con el campo menor, de menor a mayor
+   */
+  int[] menores(int n) {
+    return codigos(entradas.iterator(), n);
+  }
+
+  /**
+   * copia los codigos de unas entradas
+   * @param iterador entradas en el orden del resultado
+   * @param maximo numero maximo de codigos
+   * @return los codigos
+   */
+  private static int[] codigos(Iterator<Entrada> iterador, int maximo) {
+    if (maximo <= 0)
+      return new int[0];
+    int[] codigos = new int[Math.min(maximo, 16)];
+    int n = 0;
+    while (n < maximo && iterador.hasNext()) {
+      if (n == codigos.length)
+        codigos = Arrays.copyOf(codigos, (int) Math.min(maximo, n * 2L));
+      codigos[n++] = iterador.next().codigo;
+    }
+    return n == codigos.length ? codigos : Arrays.copyOf(codigos, n);
+  }
+}
@@ -0,0 +1,193 @@
+package gestisimal;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Indice de los articulos que estan por debajo de su stock de seguridad o por encima de su stock
+ * maximo. El almacen le avisa de cada alta, baja y movimiento (ver {@link ObservadorAlmacen}), asi
+ * que consultarlo solo cuesta lo que ocupe el resultado, sin recorrer el almacen. Solo se toca un
+ * conjunto cuando un articulo cruza un umbral, y entonces se avisa a los {@link OyenteStock}.
+ * @author Sergio Vera Jurado
+ *
+ */
+class IndiceStock implements ObservadorAlmacen {
+  /**
+   * situacion de las unidades de un articulo respecto a sus stocks
+   */
+  enum EstadoStock {
+    /**
+     * menos unidades que el stock de seguridad
+     */
+    BAJO_MINIMOS,
+    /**
+     * entre el stock de seguridad y el maximo
+     */
+    NORMAL,
+    /**
+     * mas unidades que el stock maximo
+     */
+    SOBRE_MAXIMO
+  }
+
+  /**
+   * Recibe los cambios de estado de stock de los articulos. Se llama con el cerrojo del articulo
+   * cogido, asi que debe ser rapido y no puede volver a llamar al almacen
+   */
+  interface OyenteStock {
+    /**
+     * un movimiento ha hecho que un articulo cruce su stock de seguridad o su stock maximo
+     * @param articulo articulo, ya con las unidades nuevas
+     * @param anterior estado antes del movimiento
+     * @param nuevo estado despues del movimiento
+     */
+    void cambioEstado(Articulo articulo, EstadoStock anterior, EstadoStock nuevo);
+  }
+
+  /**
+   * articulos bajo minimos, en el orden en el que han entrado
+   */
+  private final Set<Articulo> bajoMinimos = new LinkedHashSet<>();
+  /**
+   * articulos sobre el maximo, en el orden en el que han entrado
+   */
+  private final Set<Articulo> sobreMaximo = new LinkedHashSet<>();
+  /**
+   * oyentes de los cambios de estado (se sustituye el array entero al cambiarlos)
+   */
+  private volatile OyenteStock[] oyentes = new OyenteStock[0];
+
+  /**
+   * devuelve el estado de stock de un articulo con unas unidades dadas
+   * @param articulo articulo
+   * @param unidades unidades
+   * @return el estado
+   */
+  static EstadoStock estado(Articulo articulo, int unidades) {
+    if (unidades < articulo.getStockSeguridad())
+      return EstadoStock.BAJO_MINIMOS;
+    if (unidades > articulo.getStockMaximo())
+      return EstadoStock.SOBRE_MAXIMO;
+    return EstadoStock.NORMAL;
+  }
+
+  /**
+   * añade el articulo nuevo a su conjunto si no esta en estado normal
+   */
+  @Override
+  public void alta(Articulo articulo) {
+    EstadoStock estado = estado(articulo, articulo.getNumeroUnidades());
+    if (estado == EstadoStock.NORMAL)
+      return;
+    synchronized (this) {
+      entrar(articulo, estado);
+    }
+  }
+
+  /**
+   * añade los articulos de una carga que no estan en estado normal. Se buscan en paralelo y se
+   * añaden en orden de alta
+   */
+  @Override
+  public void altas(Articulo[][] trozos) {
+    List<Articulo> fuera = Arrays.stream(trozos).parallel().flatMap(Arrays::stream)
+        .filter(articulo -> estado(articulo, articulo.getNumeroUnidades()) != EstadoStock.NORMAL)
+        .collect(Collectors.toList());
+    synchronized (this) {
+      for (Articulo articulo : fuera)
+        entrar(articulo, estado(articulo, articulo.getNumeroUnidades()));
+    }
+  }
+
+  /**
+   * quita el articulo eliminado de su conjunto
+   */
+  @Override
+  public synchronized void baja(Articulo articulo) {
+    bajoMinimos.remove(articulo);
+    sobreMaximo.remove(articulo);
+  }
+
+  /**
+   * cambia el articulo de conjunto si ha cruzado un umbral. Un movimiento de un articulo ya dado
+   * de baja no se tiene en cuenta, para no volver a meterlo en un conjunto ni avisar a los oyentes
+   */
+  @Override
+  public void movimiento(Articulo articulo, int unidadesAnteriores) {
+    EstadoStock anterior = estado(articulo, unidadesAnteriores);
+    EstadoStock nuevo = estado(articulo, articulo.getNumeroUnidades());
+    if (anterior == nuevo || articulo.dadoDeBaja())
+      return;
+    synchronized (this) {
+      salir(articulo, anterior);
+      entrar(articulo, nuevo);
+    }
+    for (OyenteStock oyente : oyentes)
+      oyente.cambioEstado(articulo, anterior, nuevo);
+  }
+
+  /**
+   * @return los articulos bajo minimos
+   */
+  synchronized Articulo[] bajoMinimos() {
+    return bajoMinimos.toArray(new Articulo[0]);
+  }
+
+  /**
+   * @return los articulos sobre el maximo
+   */
+  synchronized Articulo[] sobreMaximo() {
+    return sobreMaximo.toArray(new Articulo[0]);
+  }
+
+  /**
+   * añade un oyente de los cambios de estado
+   * @param oyente oyente que se añade
+   */
+  synchronized void anadirOyente(OyenteStock oyente) {
+    OyenteStock[] nuevos = Arrays.copyOf(oyentes, oyentes.length + 1);
+    nuevos[oyentes.length] = oyente;
+    oyentes = nuevos;
+  }
+
+  /**
+   * quita un oyente de los cambios de estado
+   * @param oyente oyente que se quita
+   */
+  synchronized void quitarOyente(OyenteStock oyente) {
+    OyenteStock[] nuevos = new OyenteStock[oyentes.length];
+    int n = 0;
+    for (OyenteStock o : oyentes) {
+      if (o != oyente)
+        nuevos[n++] = o;
+    }
+    oyentes = Arrays.copyOf(nuevos, n);
+  }
+
+  /**
+   * añade un articulo al conjunto de su estado, con el monitor del indice cogido
+   * @param articulo articulo
+   * @param estado estado del articulo
+   */
+  private void entrar(Articulo articulo, EstadoStock estado) {
+    if (estado == EstadoStock.BAJO_MINIMOS)
+      bajoMinimos.add(articulo);
+    else if (estado == EstadoStock.SOBRE_MAXIMO)
+      sobreMaximo.add(articulo);
+  }
+
+  /**
+   * quita un articulo del conjunto de su estado, con el monitor del indice cogido
+   * @param articulo articulo
+   * @param estado estado del articulo
+   */
+  private void salir(Articulo articulo, EstadoStock estado) {
+    if (estado == EstadoStock.BAJO_MINIMOS)
+      bajoMinimos.remove(articulo);
+    else if (estado == EstadoStock.SOBRE_MAXIMO)
+      sobreMaximo.remove(articulo);
+  }
+}
@@ -0,0 +1,386 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import gestisimal.excepciones.AlmacenBinarioException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Instantanea binaria del almacen. Los articulos se guardan por columnas de ancho fijo (codigos,
+ * unidades, stocks, longitud de la descripcion y precios) seguidas de una tabla con el texto de
+ * las descripciones en UTF-8, todo en little endian. A diferencia del CSV y del XML, los articulos
+ * conservan su codigo. La carga proyecta el archivo en memoria y crea los articulos en paralelo.
+ * La generacion identifica los puntos de control del {@link Diario} (0 fuera de ellos).
+ * <pre>
+ * cabecera: MAGIA (int), VERSION (int), numero de articulos (int), generacion (int),
+ *           bytes de texto (long)
+ * columnas: codigo[n], numeroUnidades[n], stockSeguridad[n], stockMaximo[n], longitud[n] (int)
+ *           precioCompra[n], precioVenta[n] (double)
+ * textos:   descripciones seguidas, sin separador (longitud -1 si la descripcion es null)
+ * </pre>
+ * @author Sergio Vera Jurado
+ *
+ */
+class InstantaneaBinaria {
+  /**
+   * primeros bytes de toda instantanea ("GSMB")
+   */
+  private static final int MAGIA = 0x424D5347;
+  /**
+   * version del formato
+   */
+  private static final int VERSION = 1;
+  /**
+   * tamaño de la cabecera en bytes
+   */
+  private static final int CABECERA = 24;
+  /**
+   * numero de articulos que crea cada tarea de la carga
+   */
+  private static final int ARTICULOS_POR_TAREA = 1 << 18;
+  /**
+   * tamaño del buffer de escritura
+   */
+  private static final int BUFFER = 1 << 20;
+
+  /**
+   * Clase de utilidad, no se instancia
+   */
+  private InstantaneaBinaria() {
+  }
+
+  /**
+   * guarda los articulos en una instantanea con las unidades que tienen ahora, asi que no se
+   * pueden estar moviendo (ver {@link #guardar(Articulo[], int[], Path, int)})
+   * @param articulos articulos que se guardan, en orden
+   * @param archivo archivo de la instantanea
+   * @param generacion generacion del punto de control, o 0
+   * @throws IOException si falla la escritura
+   */
+  static void guardar(Articulo[] articulos, Path archivo, int generacion) throws IOException {
+    int[] unidades = new int[articulos.length];
+    for (int i = 0; i < articulos.length; i++)
+      unidades[i] = articulos[i].getNumeroUnidades();
+    guardar(articulos, unidades, archivo, generacion);
+  }
+
+  /**
+   * guarda los articulos en una instantanea. Se escribe primero un archivo temporal que despues
+   * sustituye al original, de forma que nunca queda una instantanea a medias
+   * @param articulos articulos que se guardan, en orden
+   * @param unidades unidades de cada articulo en la instantanea
+   * @param archivo archivo de la instantanea
+   * @param generacion generacion del punto de control, o 0
+   * @throws IOException si falla la escritura
+   */
+  static void guardar(Articulo[] articulos, int[] unidades, Path archivo, int generacion)
+      throws IOException {
+    int n = articulos.length;
+    int[] longitudes = new int[n];
+    long bytesTexto = 0;
+    for (int i = 0; i < n; i++) {
+      String descripcion = articulos[i].getDescripcion();
+      longitudes[i] = descripcion == null ? -1 : longitudUTF8(descripcion);
+      bytesTexto += Math.max(longitudes[i], 0);
+    }
+
+    Path temporal = Almacen.temporal(archivo);
+    try {
+      try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIA).putInt(VERSION).putInt(n).putInt(generacion).putLong(bytesTexto);
+        for (Articulo articulo : articulos)
+          buffer = putInt(canal, buffer, articulo.getCodigo());
+        for (int numeroUnidades : unidades)
+          buffer = putInt(canal, buffer, numeroUnidades);
+        for (Articulo articulo : articulos)
+          buffer = putInt(canal, buffer, articulo.getStockSeguridad());
+        for (Articulo articulo : articulos)
+          buffer = putInt(canal, buffer, articulo.getStockMaximo());
+        for (int longitud : longitudes)
+          buffer = putInt(canal, buffer, longitud);
+        for (Articulo articulo : articulos)
+          buffer = putDouble(canal, buffer, articulo.getPrecioCompra());
+        for (Articulo articulo : articulos)
+          buffer = putDouble(canal, buffer, articulo.getPrecioVenta());
+        for (Articulo articulo : articulos) {
+          String descripcion = articulo.getDescripcion();
+          if (descripcion != null)
+            buffer = putBytes(canal, buffer, descripcion.getBytes(StandardCharsets.UTF_8));
+        }
+        vaciar(canal, buffer);
+        canal.force(false);
+      }
+      Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (Throwable e) {
+      Almacen.borrarTemporal(temporal, e);
+      throw e;
+    }
+  }
+
+  /**
+   * lee la generacion de una instantanea sin cargarla
+   * @param archivo archivo de la instantanea
+   * @return la generacion
+   * @throws IOException si falla la lectura
+   * @throws AlmacenBinarioException si el archivo no es una instantanea valida
+   */
+  static int generacion(Path archivo) throws IOException, AlmacenBinarioException {
+    try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+      return leerCabecera(canal).getInt(12);
+    }
+  }
+
+  /**
+   * carga los articulos de una instantanea
+   * @param archivo archivo de la instantanea
+   * @return los articulos, en el orden en que se guardaron y con su codigo
+   * @throws IOException si falla la lectura
+   * @throws AlmacenBinarioException si el archivo no es una instantanea valida
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  static Articulo[] cargar(Path archivo)
+      throws IOException, AlmacenBinarioException, NumeroNegativoException {
+    try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+      long tamano = canal.size();
+      ByteBuffer cabecera = leerCabecera(canal);
+      int n = cabecera.getInt(8);
+      long bytesTexto = cabecera.getLong(16);
+      long bytesColumnas = n * (5L * Integer.BYTES + 2L * Double.BYTES);
+      if (n < 0 || bytesTexto < 0 || bytesTexto > Integer.MAX_VALUE
+          || tamano != CABECERA + bytesColumnas + bytesTexto)
+        throw new AlmacenBinarioException("La instantanea esta incompleta o dañada");
+
+      ByteBuffer enteros = mapear(canal, CABECERA, 5L * Integer.BYTES * n);
+      ByteBuffer decimales = mapear(canal, CABECERA + 5L * Integer.BYTES * n,
+          2L * Double.BYTES * n);
+      ByteBuffer textos = mapear(canal, CABECERA + bytesColumnas, bytesTexto);
+      return crearArticulos(n, enteros, decimales, textos);
+    }
+  }
+
+  /**
+   * lee y comprueba la cabecera de una instantanea
+   * @param canal canal del archivo
+   * @return la cabecera, en little endian
+   * @throws IOException si falla la lectura
+   * @throws AlmacenBinarioException si el archivo no es una instantanea valida
+   */
+  private static ByteBuffer leerCabecera(FileChannel canal)
+      throws IOException, AlmacenBinarioException {
+    if (canal.size() < CABECERA)
+      throw new AlmacenBinarioException("El archivo no es una instantanea del almacen");
+    ByteBuffer cabecera = canal.map(FileChannel.MapMode.READ_ONLY, 0, CABECERA)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    if (cabecera.getInt(0) != MAGIA)
+      throw new AlmacenBinarioException("El archivo no es una instantanea del almacen");
+    if (cabecera.getInt(4) != VERSION)
+      throw new AlmacenBinarioException(
+          "Version de la instantanea no soportada: " + cabecera.getInt(4));
+    return cabecera;
+  }
+
+  /**
+   * crea en paralelo los articulos de una instantanea proyectada en memoria
+   * @param n numero de articulos
+   * @param enteros columnas de enteros
+   * @param decimales columnas de precios
+   * @param textos tabla de descripciones
+   * @return los articulos
+   * @throws IOException si la carga se interrumpe
+   * @throws AlmacenBinarioException si la tabla de descripciones no cuadra con las longitudes
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  private static Articulo[] crearArticulos(int n, ByteBuffer enteros, ByteBuffer decimales,
+      ByteBuffer textos) throws IOException, AlmacenBinarioException, NumeroNegativoException {
+    Articulo[] articulos = new Articulo[n];
+    List<Callable<Integer>> tareas = new ArrayList<>();
+    long desplazamiento = 0;
+    for (int inicio = 0; inicio < n; inicio += ARTICULOS_POR_TAREA) {
+      int desde = inicio;
+      int hasta = (int) Math.min(n, (long) inicio + ARTICULOS_POR_TAREA);
+      int texto = (int) desplazamiento;
+      tareas.add(
+          () -> crearTramo(articulos, desde, hasta, n, enteros, decimales, textos, texto));
+      for (int i = desde; i < hasta; i++)
+        desplazamiento += Math.max(enteros.getInt((4 * n + i) * Integer.BYTES), 0);
+    }
+    if (desplazamiento != textos.limit())
+      throw new AlmacenBinarioException("La instantanea esta incompleta o dañada");
+    int mayorCodigo = 0;
+    try {
+      for (Future<Integer> futuro : ForkJoinPool.commonPool().invokeAll(tareas))
+        mayorCodigo = Math.max(mayorCodigo, futuro.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Carga de la instantanea interrumpida", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof NumeroNegativoException)
+        throw (NumeroNegativoException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+    Articulo.avanzarCodigos(mayorCodigo);
+    return articulos;
+  }
+
+  /**
+   * crea una parte de los articulos de una instantanea
+   * @param articulos array en el que se dejan los articulos
+   * @param desde primer articulo
+   * @param hasta articulo siguiente al ultimo
+   * @param n numero total de articulos
+   * @param enteros columnas de enteros
+   * @param decimales columnas de precios
+   * @param textos tabla de descripciones
+   * @param texto posicion en la tabla de la primera descripcion
+   * @return el mayor codigo de los articulos creados
+   * @throws NumeroNegativoException si algun articulo tiene numeros negativos
+   */
+  private static int crearTramo(Articulo[] articulos, int desde, int hasta, int n,
+      ByteBuffer enteros, ByteBuffer decimales, ByteBuffer textos, int texto)
+      throws NumeroNegativoException {
+    ByteBuffer descripciones = textos.duplicate();
+    descripciones.position(texto);
+    byte[] bytes = new byte[256];
+    int mayorCodigo = 0;
+    for (int i = desde; i < hasta; i++) {
+      int codigo = enteros.getInt(i * Integer.BYTES);
+      int longitud = enteros.getInt((4 * n + i) * Integer.BYTES);
+      String descripcion = null;
+      if (longitud >= 0) {
+        if (longitud > bytes.length)
+          bytes = new byte[Math.max(longitud, bytes.length * 2)];
+        descripciones.get(bytes, 0, longitud);
+        descripcion = new String(bytes, 0, longitud, StandardCharsets.UTF_8);
+      }
+      articulos[i] = new Articulo(codigo, decimales.getDouble(i * Double.BYTES),
+          decimales.getDouble((n + i) * Double.BYTES), descripcion,
+          enteros.getInt((n + i) * Integer.BYTES), enteros.getInt((2 * n + i) * Integer.BYTES),
+          enteros.getInt((3 * n + i) * Integer.BYTES));
+      mayorCodigo = Math.max(mayorCodigo, codigo);
+    }
+    return mayorCodigo;
+  }
+
+  /**
+   * proyecta en memoria una seccion del archivo
+   * @param canal canal del archivo
+   * @param inicio primer byte de la seccion
+   * @param longitud bytes de la seccion
+   * @return la seccion, en little endian
+   * @throws IOException si falla la proyeccion
+   * @throws AlmacenBinarioException si la seccion es demasiado grande para proyectarla
+   */
+  private static ByteBuffer mapear(FileChannel canal, long inicio, long longitud)
+      throws IOException, AlmacenBinarioException {
+    if (longitud > Integer.MAX_VALUE)
+      throw new AlmacenBinarioException("La instantanea es demasiado grande");
+    return canal.map(FileChannel.MapMode.READ_ONLY, inicio, longitud)
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * calcula cuantos bytes ocupa una cadena en UTF-8 sin codificarla
+   * @param texto cadena
+   * @return numero de bytes
+   */
+  private static int longitudUTF8(String texto) {
+    int bytes = 0;
+    for (int i = 0; i < texto.length(); i++) {
+      char c = texto.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+          && Character.isLowSurrogate(texto.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * escribe un entero, vaciando antes el buffer si esta lleno
+   * @param canal canal del archivo
+   * @param buffer buffer de escritura
+   * @param valor entero
+   * @return el buffer
+   * @throws IOException si falla la escritura
+   */
+  private static ByteBuffer putInt(FileChannel canal, ByteBuffer buffer, int valor)
+      throws IOException {
+    if (buffer.remaining() < Integer.BYTES)
+      vaciar(canal, buffer);
+    return buffer.putInt(valor);
+  }
+
+  /**
+   * escribe un double, vaciando antes el buffer si esta lleno
+   * @param canal canal del archivo
+   * @param buffer buffer de escritura
+   * @param valor double
+   * @return el buffer
+   * @throws IOException si falla la escritura
+   */
+  private static ByteBuffer putDouble(FileChannel canal, ByteBuffer buffer, double valor)
+      throws IOException {
+    if (buffer.remaining() < Double.BYTES)
+      vaciar(canal, buffer);
+    return buffer.putDouble(valor);
+  }
+
+  /**
+   * escribe unos bytes, vaciando el buffer las veces que haga falta
+   * @param canal canal del archivo
+   * @param buffer buffer de escritura
+   * @param bytes bytes que se escriben
+   * @return el buffer
+   * @throws IOException si falla la escritura
+   */
+  private static ByteBuffer putBytes(FileChannel canal, ByteBuffer buffer, byte[] bytes)
+      throws IOException {
+    int escritos = 0;
+    while (escritos < bytes.length) {
+      if (!buffer.hasRemaining())
+        vaciar(canal, buffer);
+      int trozo = Math.min(buffer.remaining(), bytes.length - escritos);
+      buffer.put(bytes, escritos, trozo);
+      escritos += trozo;
+    }
+    return buffer;
+  }
+
+  /**
+   * escribe en el canal el contenido del buffer y lo deja vacio
+   * @param canal canal del archivo
+   * @param buffer buffer de escritura
+   * @throws IOException si falla la escritura
+   */
+  private static void vaciar(FileChannel canal, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      canal.write(buffer);
+    buffer.clear();
+  }
+}
@@ -0,0 +1,327 @@
+package gestisimal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import gestisimal.excepciones.AlmacenCSVException;
+
+/**
+ * Lector de CSV (RFC 4180) que recorre el archivo una sola vez. Los campos pueden ir entre
+ * comillas, y entonces pueden contener comas, saltos de linea y comillas dobles ("").
+ * Cada registro se copia en un buffer de caracteres que se reutiliza, y los numeros se leen
+ * directamente de ese buffer, asi que solo se crean cadenas para los campos de texto.
+ * @author Sergio Vera Jurado
+ *
+ */
+class LectorCSV implements Closeable {
+  /**
+   * valor devuelto al llegar al final del archivo
+   */
+  private static final int FIN = -1;
+  /**
+   * potencias de diez que se representan de forma exacta como double
+   */
+  private static final double[] POTENCIAS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+      1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  /**
+   * mayor mantisa que se representa de forma exacta como double
+   */
+  private static final long MANTISA_EXACTA = 1L << 53;
+  /**
+   * origen de los caracteres
+   */
+  private final Reader entrada;
+  /**
+   * caracteres leidos de la entrada
+   */
+  private final char[] buffer = new char[1 << 16];
+  /**
+   * posicion del siguiente caracter del buffer
+   */
+  private int posicion;
+  /**
+   * numero de caracteres validos del buffer
+   */
+  private int limite;
+  /**
+   * caracteres de los campos del registro actual, ya sin comillas
+   */
+  private char[] registro = new char[256];
+  /**
+   * numero de caracteres del registro actual
+   */
+  private int longitud;
+  /**
+   * inicio de cada campo en el registro
+   */
+  private int[] inicios = new int[8];
+  /**
+   * fin de cada campo en el registro
+   */
+  private int[] fines = new int[8];
+  /**
+   * numero de campos del registro actual
+   */
+  private int numeroCampos;
+  /**
+   * numero del registro actual, empezando por 1
+   */
+  private long numeroRegistro;
+
+  /**
+   * Constructor del lector
+   * @param entrada origen de los caracteres del CSV
+   */
+  LectorCSV(Reader entrada) {
+    this.entrada = entrada;
+  }
+
+  /**
+   * lee el siguiente registro, saltando las lineas en blanco
+   * @return false si se ha llegado al final del archivo
+   * @throws IOException si falla la lectura
+   * @throws AlmacenCSVException si el registro no es un CSV valido
+   */
+  boolean siguienteRegistro() throws IOException, AlmacenCSVException {
+    while (leerRegistro()) {
+      if (numeroCampos > 1 || longitud > 0)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return numero de campos del registro actual
+   */
+  int numeroCampos() {
+    return numeroCampos;
+  }
+
+  /**
+   * @return numero del registro actual, empezando por 1 (la cabecera)
+   */
+  long numeroRegistro() {
+    return numeroRegistro;
+  }
+
+  /**
+   * devuelve un campo del registro actual como cadena
+   * @param campo numero del campo, empezando por 0
+   * @return el texto del campo
+   */
+  String texto(int campo) {
+    return new String(registro, inicios[campo], fines[campo] - inicios[campo]);
+  }
+
+  /**
+   * compara un campo del registro actual con un texto sin distinguir mayusculas
+   * @param campo numero del campo, empezando por 0
+   * @param texto texto con el que se compara
+   * @return true si son iguales
+   */
+  boolean igual(int campo, String texto) {
+    int inicio = inicios[campo];
+    if (fines[campo] - inicio != texto.length())
+      return false;
+    for (int i = 0; i < texto.length(); i++) {
+      char a = registro[inicio + i];
+      char b = texto.charAt(i);
+      if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * lee un campo del registro actual como numero entero
+   * @param campo numero del campo, empezando por 0
+   * @return el numero
+   * @throws NumberFormatException si el campo no es un entero
+   */
+  int entero(int campo) {
+    int i = inicios[campo];
+    int fin = fines[campo];
+    boolean negativo = i < fin && registro[i] == '-';
+    if (i < fin && (registro[i] == '-' || registro[i] == '+'))
+      i++;
+    if (i == fin)
+      throw noNumerico(campo);
+    long valor = 0;
+    for (; i < fin; i++) {
+      int digito = registro[i] - '0';
+      if (digito < 0 || digito > 9)
+        throw noNumerico(campo);
+      valor = valor * 10 + digito;
+      if (valor > (long) Integer.MAX_VALUE + 1)
+        throw noNumerico(campo);
+    }
+    valor = negativo ? -valor : valor;
+    if (valor > Integer.MAX_VALUE)
+      throw noNumerico(campo);
+    return (int) valor;
+  }
+
+  /**
+   * lee un campo del registro actual como numero decimal. Los numeros sencillos (digitos, punto y
+   * digitos) se calculan directamente; el resto se delega en Double.parseDouble
+   * @param campo numero del campo, empezando por 0
+   * @return el numero
+   * @throws NumberFormatException si el campo no es un numero
+   */
+  double decimal(int campo) {
+    int i = inicios[campo];
+    int fin = fines[campo];
+    boolean negativo = i < fin && registro[i] == '-';
+    if (i < fin && (registro[i] == '-' || registro[i] == '+'))
+      i++;
+    long mantisa = 0;
+    int decimales = 0;
+    int digitos = 0;
+    boolean punto = false;
+    for (; i < fin; i++) {
+      char c = registro[i];
+      if (c == '.' && !punto) {
+        punto = true;
+      } else if (c >= '0' && c <= '9' && mantisa < MANTISA_EXACTA) {
+        mantisa = mantisa * 10 + (c - '0');
+        digitos++;
+        if (punto)
+          decimales++;
+      } else {
+        return Double.parseDouble(texto(campo));
+      }
+    }
+    if (digitos == 0 || mantisa >= MANTISA_EXACTA || decimales >= POTENCIAS.length)
+      return Double.parseDouble(texto(campo));
+    double valor = mantisa / POTENCIAS[decimales];
+    return negativo ? -valor : valor;
+  }
+
+  /**
+   * cierra la entrada
+   */
+  @Override
+  public void close() throws IOException {
+    entrada.close();
+  }
+
+  /**
+   * lee los campos del siguiente registro
+   * @return false si se ha llegado al final del archivo
+   * @throws IOException si falla la lectura
+   * @throws AlmacenCSVException si el registro no es un CSV valido
+   */
+  private boolean leerRegistro() throws IOException, AlmacenCSVException {
+    numeroCampos = 0;
+    longitud = 0;
+    int c = leer();
+    if (c == FIN)
+      return false;
+    numeroRegistro++;
+    while (true) {
+      int inicio = longitud;
+      if (c == '"') {
+        while (true) {
+          c = leer();
+          if (c == FIN)
+            throw new AlmacenCSVException(
+                "Registro " + numeroRegistro + ": faltan las comillas de cierre.");
+          if (c == '"') {
+            c = leer();
+            if (c != '"')
+              break;
+          }
+          anadir((char) c);
+        }
+      } else {
+        while (c != ',' && c != '\n' && c != '\r' && c != FIN) {
+          anadir((char) c);
+          c = leer();
+        }
+      }
+      cerrarCampo(inicio);
+      if (c == ',') {
+        c = leer();
+      } else if (c == '\r') {
+        if (mirar() == '\n')
+          leer();
+        return true;
+      } else if (c == '\n' || c == FIN) {
+        return true;
+      } else {
+        throw new AlmacenCSVException(
+            "Registro " + numeroRegistro + ": texto inesperado tras unas comillas.");
+      }
+    }
+  }
+
+  /**
+   * añade un caracter al campo actual
+   * @param c caracter
+   */
+  private void anadir(char c) {
+    if (longitud == registro.length)
+      registro = Arrays.copyOf(registro, longitud * 2);
+    registro[longitud++] = c;
+  }
+
+  /**
+   * guarda los limites del campo que se acaba de leer
+   * @param inicio posicion del primer caracter del campo
+   */
+  private void cerrarCampo(int inicio) {
+    if (numeroCampos == inicios.length) {
+      inicios = Arrays.copyOf(inicios, numeroCampos * 2);
+      fines = Arrays.copyOf(fines, numeroCampos * 2);
+    }
+    inicios[numeroCampos] = inicio;
+    fines[numeroCampos++] = longitud;
+  }
+
+  /**
+   * consume el siguiente caracter de la entrada
+   * @return el caracter, o FIN
+   * @throws IOException si falla la lectura
+   */
+  private int leer() throws IOException {
+    if (posicion == limite && !rellenar())
+      return FIN;
+    return buffer[posicion++];
+  }
+
+  /**
+   * devuelve el siguiente caracter de la entrada sin consumirlo
+   * @return el caracter, o FIN
+   * @throws IOException si falla la lectura
+   */
+  private int mirar() throws IOException {
+    if (posicion == limite && !rellenar())
+      return FIN;
+    return buffer[posicion];
+  }
+
+  /**
+   * vuelve a llenar el buffer desde la entrada
+   * @return false si no quedan caracteres
+   * @throws IOException si falla la lectura
+   */
+  private boolean rellenar() throws IOException {
+    int leidos = entrada.read(buffer, 0, buffer.length);
+    while (leidos == 0)
+      leidos = entrada.read(buffer, 0, buffer.length);
+    posicion = 0;
+    limite = Math.max(leidos, 0);
+    return leidos > 0;
+  }
+
+  /**
+   * crea la excepcion de un campo que deberia ser numerico
+   * @param campo numero del campo
+   * @return la excepcion
+   */
+  private NumberFormatException noNumerico(int campo) {
+    return new NumberFormatException(
+        "Registro " + numeroRegistro + ": \"" + texto(campo) + "\" no es un numero entero");
+  }
+}
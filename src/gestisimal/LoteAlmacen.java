@@ -0,0 +1,321 @@
+package gestisimal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.AlmacenXMLException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Ejecuta sobre un almacen un archivo de ordenes, una por linea, con las mismas operaciones que el
+ * menu de {@link TestAlmacen} pero sin preguntar nada, para repetir los movimientos de un dia o
+ * medir el rendimiento de principio a fin. Cada orden es su nombre o su numero en el menu seguido
+ * de sus datos, separados por punto y coma y en el mismo orden en el que los pide el menu:
+ * <pre>
+ * alta;precioCompra;precioVenta;descripcion;unidades;stockSeguridad;stockMaximo    (1)
+ * incrementar;cantidad;codigo                                                      (2)
+ * decrementar;cantidad;codigo                                                      (3)
+ * mostrar;codigo                                                                   (4)
+ * listar                                                                           (5)
+ * eliminar;codigo                                                                  (6)
+ * exportar-csv;archivo   importar-csv;archivo                                      (7, 8)
+ * exportar-xml;archivo   importar-xml;archivo                                      (9, 10)
+ * salir                                                                            (11)
+ * </pre>
+ * La descripcion del alta puede contener punto y coma. Las lineas vacias y las que empiezan por #
+ * se saltan. Por cada orden se escribe una linea con su resultado (OK, el codigo del alta, el
+ * articulo, el resultado de la entrada o salida...) o con el error, y se sigue con la siguiente.
+ * Las entradas y salidas usan los metodos del almacen que no lanzan excepciones.
+ * @author Sergio Vera Jurado
+ *
+ */
+class LoteAlmacen {
+  /**
+   * separador de los datos de una orden
+   */
+  private static final char SEPARADOR = ';';
+  /**
+   * numero de opcion del menu de cada orden
+   */
+  private static final Map<String, Integer> ORDENES = new HashMap<>();
+  static {
+    String[] nombres = {"alta", "incrementar", "decrementar", "mostrar", "listar", "eliminar",
+        "exportar-csv", "importar-csv", "exportar-xml", "importar-xml", "salir"};
+    for (int i = 0; i < nombres.length; i++)
+      ORDENES.put(nombres[i], i + 1);
+  }
+  /**
+   * almacen sobre el que se ejecutan las ordenes
+   */
+  private final Almacen almacen;
+  /**
+   * ordenes ejecutadas
+   */
+  private long ordenes;
+  /**
+   * ordenes que han fallado o cuya entrada o salida no se ha hecho
+   */
+  private long errores;
+
+  /**
+   * Constructor del lote
+   * @param almacen almacen sobre el que se ejecutan las ordenes
+   */
+  LoteAlmacen(Almacen almacen) {
+    this.almacen = almacen;
+  }
+
+  /**
+   * ejecuta las ordenes hasta el final de la entrada o hasta la orden salir. La salida no se
+   * vacia, para que se pueda seguir escribiendo en ella
+   * @param entrada ordenes
+   * @param salida resultados, una linea por orden
+   * @return true si ha terminado con la orden salir
+   * @throws IOException si falla la lectura de las ordenes o la escritura de los resultados
+   */
+  boolean ejecutar(BufferedReader entrada, BufferedWriter salida) throws IOException {
+    long numeroLinea = 0;
+    String linea;
+    while ((linea = entrada.readLine()) != null) {
+      numeroLinea++;
+      if (linea.isEmpty() || linea.charAt(0) == '#')
+        continue;
+      ordenes++;
+      try {
+        if (!ejecutar(linea, salida))
+          return true;
+      } catch (NumeroNegativoException | ArticuloRepetidoException | CodigoNoValidoException
+          | AlmacenCSVException | AlmacenXMLException | IllegalArgumentException e) {
+        error(numeroLinea, e.getMessage(), salida);
+      } catch (ErrorArchivo e) {
+        error(numeroLinea, "No se ha podido usar el archivo: " + e.getCause(), salida);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return numero de ordenes ejecutadas
+   */
+  long getOrdenes() {
+    return ordenes;
+  }
+
+  /**
+   * @return numero de ordenes que han fallado o cuya entrada o salida no se ha hecho
+   */
+  long getErrores() {
+    return errores;
+  }
+
+  /**
+   * Fallo de un archivo de importar o exportar, que no debe confundirse con uno de la salida
+   */
+  private static class ErrorArchivo extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param causa fallo del archivo
+     */
+    ErrorArchivo(IOException causa) {
+      super(causa);
+    }
+  }
+
+  /**
+   * ejecuta una orden y escribe su resultado
+   * @param linea orden
+   * @param salida resultados
+   * @return false si la orden es salir
+   * @throws IOException si falla la escritura del resultado
+   * @throws ErrorArchivo si falla un archivo de importar o exportar
+   * @throws NumeroNegativoException si un alta tiene unidades o precio de compra negativos
+   * @throws ArticuloRepetidoException si el articulo del alta ya existe
+   * @throws CodigoNoValidoException si el codigo no es valido
+   * @throws AlmacenCSVException si el CSV que se importa no es valido
+   * @throws AlmacenXMLException si el xml que se importa o exporta no es valido
+   */
+  private boolean ejecutar(String linea, BufferedWriter salida)
+      throws IOException, ErrorArchivo, NumeroNegativoException, ArticuloRepetidoException,
+      CodigoNoValidoException, AlmacenCSVException, AlmacenXMLException {
+    int fin = linea.indexOf(SEPARADOR);
+    String orden = (fin < 0 ? linea : linea.substring(0, fin)).trim();
+    String datos = fin < 0 ? "" : linea.substring(fin + 1);
+    int opcion = opcion(orden);
+    switch (opcion) {
+      case 1:
+        salida.write("OK " + alta(datos));
+        break;
+      case 2:
+        movimiento(datos, false, salida);
+        break;
+      case 3:
+        movimiento(datos, true, salida);
+        break;
+      case 4:
+        Articulo articulo = almacen.buscarSiExiste(entero(datos));
+        if (articulo == null)
+          errores++;
+        salida.write(articulo == null ? ResultadoMovimiento.INEXISTENTE.name()
+            : articulo.toString());
+        break;
+      case 5:
+        almacen.listar(salida);
+        salida.write("OK");
+        break;
+      case 6:
+        boolean eliminado = almacen.eliminar(entero(datos));
+        if (!eliminado)
+          errores++;
+        salida.write(eliminado ? "OK" : ResultadoMovimiento.INEXISTENTE.name());
+        break;
+      case 11:
+        salida.write("OK");
+        salida.newLine();
+        return false;
+      default:
+        archivo(opcion, archivo(datos));
+        salida.write("OK");
+    }
+    salida.newLine();
+    return true;
+  }
+
+  /**
+   * @param orden nombre de la orden o su numero en el menu
+   * @return numero de la orden en el menu
+   * @throws IllegalArgumentException si no es ninguna orden
+   */
+  private static int opcion(String orden) {
+    Integer opcion = ORDENES.get(orden);
+    if (opcion == null && !orden.isEmpty() && Character.isDigit(orden.charAt(0)))
+      opcion = Integer.parseInt(orden);
+    if (opcion == null || opcion < 1 || opcion > ORDENES.size())
+      throw new IllegalArgumentException("Orden desconocida: " + orden);
+    return opcion;
+  }
+
+  /**
+   * da de alta el articulo de una orden. La descripcion es todo lo que hay entre los precios y
+   * las unidades, asi que puede contener el separador
+   * @param datos datos de la orden
+   * @return codigo del articulo nuevo
+   * @throws NumeroNegativoException si las unidades o el precio de compra son negativos
+   * @throws ArticuloRepetidoException si el articulo ya existe
+   */
+  private int alta(String datos) throws NumeroNegativoException, ArticuloRepetidoException {
+    int compra = datos.indexOf(SEPARADOR);
+    int venta = compra < 0 ? -1 : datos.indexOf(SEPARADOR, compra + 1);
+    int maximo = datos.lastIndexOf(SEPARADOR);
+    int seguridad = maximo <= venta ? -1 : datos.lastIndexOf(SEPARADOR, maximo - 1);
+    int unidades = seguridad <= venta ? -1 : datos.lastIndexOf(SEPARADOR, seguridad - 1);
+    if (unidades <= venta)
+      throw new IllegalArgumentException("El alta necesita 6 datos: " + datos);
+    return almacen.alta(Double.parseDouble(datos.substring(0, compra).trim()),
+        Double.parseDouble(datos.substring(compra + 1, venta).trim()),
+        datos.substring(venta + 1, unidades),
+        Integer.parseInt(datos.substring(unidades + 1, seguridad).trim()),
+        Integer.parseInt(datos.substring(seguridad + 1, maximo).trim()),
+        Integer.parseInt(datos.substring(maximo + 1).trim()));
+  }
+
+  /**
+   * hace la entrada o salida de una orden y escribe su resultado
+   * @param datos cantidad y codigo
+   * @param salidaMercancia true para una salida, false para una entrada
+   * @param salida resultados
+   * @throws IOException si falla la escritura del resultado
+   */
+  private void movimiento(String datos, boolean salidaMercancia, BufferedWriter salida)
+      throws IOException {
+    int separador = datos.indexOf(SEPARADOR);
+    if (separador < 0)
+      throw new IllegalArgumentException("Falta el codigo: " + datos);
+    int cantidad = entero(datos, 0, separador);
+    int codigo = entero(datos, separador + 1, datos.length());
+    ResultadoMovimiento resultado = salidaMercancia ? almacen.salida(cantidad, codigo)
+        : almacen.entrada(cantidad, codigo);
+    if (resultado != ResultadoMovimiento.OK)
+      errores++;
+    salida.write(resultado.name());
+  }
+
+  /**
+   * importa o exporta un archivo
+   * @param opcion numero de la orden en el menu, de 7 a 10
+   * @param archivo nombre del archivo
+   * @throws ErrorArchivo si falla el archivo
+   * @throws NumeroNegativoException si un articulo importado tiene numeros negativos
+   * @throws AlmacenCSVException si el CSV no es valido
+   * @throws AlmacenXMLException si el xml no es valido
+   */
+  private void archivo(int opcion, String archivo) throws ErrorArchivo, NumeroNegativoException,
+      AlmacenCSVException, AlmacenXMLException {
+    try {
+      if (opcion == 7)
+        almacen.guardarCSV(archivo);
+      else if (opcion == 8)
+        almacen.cargarCSV(archivo);
+      else if (opcion == 9)
+        almacen.guardarXML(archivo);
+      else
+        almacen.cargarXml(archivo);
+    } catch (IOException e) {
+      throw new ErrorArchivo(e);
+    }
+  }
+
+  /**
+   * @param datos datos de la orden
+   * @return nombre del archivo
+   * @throws IllegalArgumentException si falta
+   */
+  private static String archivo(String datos) {
+    if (datos.isBlank())
+      throw new IllegalArgumentException("Falta el nombre del archivo");
+    return datos.trim();
+  }
+
+  /**
+   * @param datos un numero entero
+   * @return el numero
+   */
+  private static int entero(String datos) {
+    return entero(datos, 0, datos.length());
+  }
+
+  /**
+   * lee un entero de una parte de la linea sin crear una cadena nueva
+   * @param datos datos de la orden
+   * @param desde primer caracter del numero
+   * @param hasta caracter siguiente al ultimo
+   * @return el numero
+   * @throws NumberFormatException si no es un entero
+   */
+  private static int entero(String datos, int desde, int hasta) {
+    while (desde < hasta && datos.charAt(desde) == ' ')
+      desde++;
+    while (hasta > desde && datos.charAt(hasta - 1) == ' ')
+      hasta--;
+    return Integer.parseInt(datos, desde, hasta, 10);
+  }
+
+  /**
+   * cuenta y escribe el error de una orden
+   * @param numeroLinea linea de la orden
+   * @param mensaje mensaje del error
+   * @param salida resultados
+   * @throws IOException si falla la escritura
+   */
+  private void error(long numeroLinea, String mensaje, BufferedWriter salida)
+      throws IOException {
+    errores++;
+    salida.write("ERROR linea " + numeroLinea + ": " + mensaje);
+    salida.newLine();
+  }
+}
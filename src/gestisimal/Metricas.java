@@ -0,0 +1,440 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas de las operaciones de un almacen: numero de llamadas, errores por causa,
+ * histograma de latencias (ver {@link Histograma}) y, en las cargas y guardados, articulos y bytes
+ * procesados. Se consultan con {@link #estadisticas()} o por JMX.
+ * <p>
+ * Para que medir no frene las operaciones rapidas (altas, busquedas y movimientos), cada hilo
+ * cuenta sus llamadas en su propio hueco, sin instrucciones atomicas, y el reloj (que en algunas
+ * maquinas virtuales cuesta mas que la operacion) solo se lee en la primera llamada de cada hilo
+ * y luego en una de cada {@value #MUESTREO}. Las cargas y guardados se miden siempre. Los errores
+ * son raros y se cuentan con LongAdder.
+ * @author Sergio Vera Jurado
+ *
+ */
+class Metricas {
+  /**
+   * operaciones medidas
+   */
+  enum Operacion {
+    /**
+     * alta de un articulo
+     */
+    ALTA,
+    /**
+     * busqueda de un articulo por su codigo
+     */
+    BUSCAR,
+    /**
+     * entrada de mercancia
+     */
+    INCREMENTAR,
+    /**
+     * salida de mercancia
+     */
+    DECREMENTAR,
+    /**
+     * eliminacion de un articulo
+     */
+    ELIMINAR,
+    /**
+     * carga de un csv
+     */
+    CARGAR_CSV,
+    /**
+     * guardado en un csv
+     */
+    GUARDAR_CSV,
+    /**
+     * carga de un xml
+     */
+    CARGAR_XML,
+    /**
+     * guardado en un xml
+     */
+    GUARDAR_XML,
+    /**
+     * carga de los cambios de otro almacen
+     */
+    CARGAR_CAMBIOS,
+    /**
+     * guardado de los cambios desde un punto de control
+     */
+    GUARDAR_CAMBIOS
+  }
+
+  /**
+   * se mide la latencia de una de cada MUESTREO llamadas de cada hilo (potencia de dos)
+   */
+  private static final int MUESTREO = 64;
+  /**
+   * acceso opaco a los contadores de los hilos, que escribe solo su hilo y leen los demas
+   */
+  private static final VarHandle CONTADOR = MethodHandles.arrayElementVarHandle(long[].class);
+  /**
+   * huecos de contadores para los hilos (potencia de dos)
+   */
+  private static final int HUECOS = 64;
+  /**
+   * longs de mas en cada hueco, para que dos huecos no compartan linea de cache
+   */
+  private static final int RELLENO = 8;
+  /**
+   * inicio de una llamada cuya latencia no se mide
+   */
+  private static final long SIN_MEDIR = Long.MIN_VALUE;
+
+  /**
+   * Contadores de una operacion
+   */
+  private static class Contadores {
+    /**
+     * llamadas que han fallado
+     */
+    private final LongAdder errores = new LongAdder();
+    /**
+     * fallos por cada causa
+     */
+    private final ConcurrentHashMap<String, LongAdder> causas =
+        new ConcurrentHashMap<>();
+    /**
+     * latencias medidas
+     */
+    private final Histograma latencias = new Histograma();
+    /**
+     * articulos leidos o escritos
+     */
+    private final LongAdder filas = new LongAdder();
+    /**
+     * bytes leidos o escritos
+     */
+    private final LongAdder bytes = new LongAdder();
+  }
+
+  /**
+   * Vista de una operacion para JMX: cada atributo se lee de las metricas en el momento
+   */
+  private class VistaJMX implements OperacionAlmacenMXBean {
+    /**
+     * operacion
+     */
+    private final Operacion operacion;
+
+    /**
+     * Constructor de la vista
+     * @param operacion operacion
+     */
+    VistaJMX(Operacion operacion) {
+      this.operacion = operacion;
+    }
+
+    @Override
+    public String getOperacion() {
+      return operacion.name();
+    }
+
+    @Override
+    public long getNumero() {
+      return numero(operacion);
+    }
+
+    @Override
+    public long getErrores() {
+      return contadores[operacion.ordinal()].errores.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCausas() {
+      return estadistica(operacion).getCausas();
+    }
+
+    @Override
+    public long getMuestras() {
+      return contadores[operacion.ordinal()].latencias.numero();
+    }
+
+    @Override
+    public double getMedia() {
+      return contadores[operacion.ordinal()].latencias.media();
+    }
+
+    @Override
+    public long getP50() {
+      return contadores[operacion.ordinal()].latencias.percentil(50);
+    }
+
+    @Override
+    public long getP90() {
+      return contadores[operacion.ordinal()].latencias.percentil(90);
+    }
+
+    @Override
+    public long getP99() {
+      return contadores[operacion.ordinal()].latencias.percentil(99);
+    }
+
+    @Override
+    public long getP999() {
+      return contadores[operacion.ordinal()].latencias.percentil(99.9);
+    }
+
+    @Override
+    public long getMaximo() {
+      return contadores[operacion.ordinal()].latencias.maximo();
+    }
+
+    @Override
+    public long getFilas() {
+      return contadores[operacion.ordinal()].filas.sum();
+    }
+
+    @Override
+    public long getBytes() {
+      return contadores[operacion.ordinal()].bytes.sum();
+    }
+  }
+
+  /**
+   * contadores de cada operacion, por su ordinal
+   */
+  private final Contadores[] contadores = new Contadores[Operacion.values().length];
+  /**
+   * identificador del hilo dueño de cada hueco de contadores, o 0 si esta libre
+   */
+  private final long[] duenos = new long[HUECOS];
+  /**
+   * llamadas de cada operacion contadas en cada hueco, por su ordinal. Solo las escribe el hilo
+   * dueño del hueco
+   */
+  private final long[][] llamadasHueco = new long[HUECOS][];
+  /**
+   * llamadas de cada operacion de los hilos que no tienen hueco propio
+   */
+  private final LongAdder[] llamadasCompartidas = new LongAdder[Operacion.values().length];
+  /**
+   * nombres con los que se han registrado las vistas JMX
+   */
+  private final List<ObjectName> registradas = new ArrayList<>();
+
+  /**
+   * Constructor de unas metricas a cero
+   */
+  Metricas() {
+    for (int i = 0; i < contadores.length; i++) {
+      contadores[i] = new Contadores();
+      llamadasCompartidas[i] = new LongAdder();
+    }
+    for (int i = 0; i < HUECOS; i++)
+      llamadasHueco[i] = new long[contadores.length + RELLENO];
+  }
+
+  /**
+   * cuenta una llamada de una operacion rapida y lee el reloj solo si toca medirla
+   * @param operacion operacion
+   * @return el instante de inicio, o SIN_MEDIR si no se mide
+   */
+  long empezar(Operacion operacion) {
+    long n = contar(operacion);
+    return (n & (MUESTREO - 1)) == 1 ? System.nanoTime() : SIN_MEDIR;
+  }
+
+  /**
+   * cuenta una llamada que se mide siempre
+   * @param operacion operacion
+   * @return el instante de inicio
+   */
+  long empezarSiempre(Operacion operacion) {
+    contar(operacion);
+    return System.nanoTime();
+  }
+
+  /**
+   * cuenta una llamada en el hueco del hilo actual, que se elige por su identificador y se queda
+   * para el primer hilo que lo usa. Si ya es de otro hilo, la llamada se cuenta en un LongAdder
+   * @param operacion operacion
+   * @return numero de llamadas de la operacion en el hueco del hilo, o un numero al azar si el
+   *         hilo no tiene hueco propio
+   */
+  private long contar(Operacion operacion) {
+    int i = operacion.ordinal();
+    long hilo = Thread.currentThread().getId();
+    int hueco = (int) hilo & (HUECOS - 1);
+    long dueno = duenos[hueco];
+    if (dueno == hilo || (dueno == 0 && CONTADOR.compareAndSet(duenos, hueco, 0L, hilo))) {
+      long[] cuentas = llamadasHueco[hueco];
+      long n = cuentas[i] + 1;
+      CONTADOR.setOpaque(cuentas, i, n);
+      return n;
+    }
+    llamadasCompartidas[i].increment();
+    return ThreadLocalRandom.current().nextLong();
+  }
+
+  /**
+   * termina una llamada, haya ido bien o no
+   * @param operacion operacion
+   * @param inicio lo que devolvio {@link #empezar(Operacion)} o
+   *        {@link #empezarSiempre(Operacion)}
+   */
+  void terminar(Operacion operacion, long inicio) {
+    if (inicio != SIN_MEDIR)
+      contadores[operacion.ordinal()].latencias.registrar(System.nanoTime() - inicio);
+  }
+
+  /**
+   * termina una carga o un guardado, haya ido bien o no
+   * @param operacion operacion
+   * @param inicio lo que devolvio {@link #empezarSiempre(Operacion)}
+   * @param filas articulos leidos o escritos
+   * @param archivo archivo leido o escrito, para contar sus bytes
+   */
+  void terminar(Operacion operacion, long inicio, long filas, Path archivo) {
+    terminar(operacion, inicio);
+    Contadores c = contadores[operacion.ordinal()];
+    c.filas.add(filas);
+    try {
+      c.bytes.add(Files.size(archivo));
+    } catch (IOException e) {
+      // el archivo no existe o no se puede leer: no se cuentan bytes
+    }
+  }
+
+  /**
+   * termina una llamada que lanza una excepcion: apunta el error y la latencia si toca medirla
+   * @param <E> tipo de la excepcion
+   * @param operacion operacion
+   * @param inicio lo que devolvio {@link #empezar(Operacion)}
+   * @param excepcion excepcion que se va a lanzar
+   * @return la misma excepcion, para lanzarla con throw
+   */
+  <E extends Throwable> E fallo(Operacion operacion, long inicio, E excepcion) {
+    fallo(operacion, inicio, excepcion.getClass().getSimpleName());
+    return excepcion;
+  }
+
+  /**
+   * termina una llamada que ha fallado sin lanzar excepciones: apunta el error y la latencia si
+   * toca medirla
+   * @param operacion operacion
+   * @param inicio lo que devolvio {@link #empezar(Operacion)}
+   * @param causa causa del fallo, por ejemplo el resultado devuelto
+   */
+  void fallo(Operacion operacion, long inicio, String causa) {
+    terminar(operacion, inicio);
+    contarFallo(operacion, causa);
+  }
+
+  /**
+   * apunta que una llamada ha terminado con una excepcion, sin terminarla
+   * @param operacion operacion
+   * @param excepcion excepcion lanzada
+   */
+  void fallo(Operacion operacion, Throwable excepcion) {
+    contarFallo(operacion, excepcion.getClass().getSimpleName());
+  }
+
+  /**
+   * cuenta un fallo de una operacion
+   * @param operacion operacion
+   * @param causa causa del fallo
+   */
+  private void contarFallo(Operacion operacion, String causa) {
+    Contadores c = contadores[operacion.ordinal()];
+    c.errores.increment();
+    LongAdder veces = c.causas.get(causa);
+    if (veces == null)
+      veces = c.causas.computeIfAbsent(causa, k -> new LongAdder());
+    veces.increment();
+  }
+
+  /**
+   * @param operacion operacion
+   * @return llamadas de la operacion de todos los hilos
+   */
+  private long numero(Operacion operacion) {
+    long total = llamadasCompartidas[operacion.ordinal()].sum();
+    for (long[] cuentas : llamadasHueco)
+      total += (long) CONTADOR.getOpaque(cuentas, operacion.ordinal());
+    return total;
+  }
+
+  /**
+   * @param operacion operacion
+   * @return estadisticas de la operacion en este momento
+   */
+  EstadisticaOperacion estadistica(Operacion operacion) {
+    Contadores c = contadores[operacion.ordinal()];
+    Map<String, Long> causas = new HashMap<>();
+    c.causas.forEach((causa, veces) -> causas.put(causa, veces.sum()));
+    return new EstadisticaOperacion(operacion, numero(operacion), c.errores.sum(), causas,
+        c.latencias, c.filas.sum(), c.bytes.sum());
+  }
+
+  /**
+   * @return estadisticas de todas las operaciones en este momento
+   */
+  Map<Operacion, EstadisticaOperacion> estadisticas() {
+    Map<Operacion, EstadisticaOperacion> resultado = new EnumMap<>(Operacion.class);
+    for (Operacion operacion : Operacion.values())
+      resultado.put(operacion, estadistica(operacion));
+    return resultado;
+  }
+
+  /**
+   * publica una vista JMX de cada operacion en el servidor de la plataforma, con el nombre
+   * gestisimal:type=Almacen,name=nombre,operacion=OPERACION
+   * @param nombre nombre del almacen
+   * @throws JMException si el nombre no es valido o ya esta registrado
+   */
+  synchronized void registrarJMX(String nombre) throws JMException {
+    desregistrarJMX();
+    MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+    try {
+      for (Operacion operacion : Operacion.values()) {
+        Hashtable<String, String> claves = new Hashtable<>();
+        claves.put("type", "Almacen");
+        claves.put("name", nombre);
+        claves.put("operacion", operacion.name());
+        ObjectName objeto = new ObjectName("gestisimal", claves);
+        servidor.registerMBean(new VistaJMX(operacion), objeto);
+        registradas.add(objeto);
+      }
+    } catch (JMException e) {
+      desregistrarJMX();
+      throw e;
+    }
+  }
+
+  /**
+   * quita las vistas JMX publicadas, si las hay
+   * @throws JMException si falla el servidor JMX
+   */
+  synchronized void desregistrarJMX() throws JMException {
+    MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName objeto : registradas) {
+      if (servidor.isRegistered(objeto))
+        servidor.unregisterMBean(objeto);
+    }
+    registradas.clear();
+  }
+}
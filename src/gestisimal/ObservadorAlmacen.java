@@ -0,0 +1,45 @@
+package gestisimal;
+
+/**
+ * Recibe los cambios de los articulos de un almacen, para mantener al dia lo que depende de ellos
+ * (el diario, indices, totales...). Los metodos se llaman con el cerrojo que protege el cambio ya
+ * cogido, asi que deben ser rapidos y no pueden volver a llamar al almacen.
+ * @author Sergio Vera Jurado
+ *
+ */
+interface ObservadorAlmacen {
+  /**
+   * se ha dado de alta un articulo
+   * @param articulo articulo nuevo
+   */
+  default void alta(Articulo articulo) {
+  }
+
+  /**
+   * se han dado de alta de una vez los articulos de una carga, repartidos en trozos. Por defecto
+   * se avisa de cada uno con {@link #alta(Articulo)}, en orden; los observadores que pueden
+   * preparar su parte de cada trozo en paralelo lo sobrescriben
+   * @param trozos articulos nuevos, en el orden en el que se han dado de alta
+   */
+  default void altas(Articulo[][] trozos) {
+    for (Articulo[] trozo : trozos) {
+      for (Articulo articulo : trozo)
+        alta(articulo);
+    }
+  }
+
+  /**
+   * se ha eliminado un articulo
+   * @param articulo articulo eliminado
+   */
+  default void baja(Articulo articulo) {
+  }
+
+  /**
+   * han cambiado las unidades de un articulo
+   * @param articulo articulo, ya con las unidades nuevas
+   * @param unidadesAnteriores unidades que tenia antes del cambio
+   */
+  default void movimiento(Articulo articulo, int unidadesAnteriores) {
+  }
+}
@@ -0,0 +1,78 @@
+package gestisimal;
+
+import java.util.Map;
+
+/**
+ * Estadisticas de una operacion de un almacen publicadas por JMX (ver
+ * {@link Almacen#registrarJMX(String)}). Las latencias estan en nanosegundos y salen de una
+ * muestra de las llamadas en las operaciones rapidas, y de todas en las cargas y guardados.
+ * @author Sergio Vera Jurado
+ *
+ */
+public interface OperacionAlmacenMXBean {
+  /**
+   * @return nombre de la operacion
+   */
+  String getOperacion();
+
+  /**
+   * @return numero de llamadas
+   */
+  long getNumero();
+
+  /**
+   * @return numero de llamadas que han fallado
+   */
+  long getErrores();
+
+  /**
+   * @return veces que ha fallado la operacion por cada causa: el resultado de los metodos que no
+   *         lanzan excepciones (por ejemplo INEXISTENTE) o el nombre de la clase de la excepcion
+   */
+  Map<String, Long> getCausas();
+
+  /**
+   * @return numero de llamadas cuya latencia se ha medido
+   */
+  long getMuestras();
+
+  /**
+   * @return latencia media
+   */
+  double getMedia();
+
+  /**
+   * @return mediana de la latencia
+   */
+  long getP50();
+
+  /**
+   * @return percentil 90 de la latencia
+   */
+  long getP90();
+
+  /**
+   * @return percentil 99 de la latencia
+   */
+  long getP99();
+
+  /**
+   * @return percentil 99,9 de la latencia
+   */
+  long getP999();
+
+  /**
+   * @return mayor latencia
+   */
+  long getMaximo();
+
+  /**
+   * @return articulos leidos o escritos (solo en las cargas y guardados)
+   */
+  long getFilas();
+
+  /**
+   * @return bytes leidos o escritos (solo en las cargas y guardados)
+   */
+  long getBytes();
+}
@@ -0,0 +1,50 @@
+package gestisimal;
+
+/**
+ * Pagina de un listado del almacen por paginas (ver {@link Almacen}): los articulos de la pagina
+ * y el numero de alta por el que empieza la siguiente.
+ * @author Sergio Vera Jurado
+ *
+ */
+class PaginaArticulos {
+  /**
+   * articulos de la pagina, en el orden del listado
+   */
+  private final Articulo[] articulos;
+  /**
+   * numero de alta del primer articulo de la pagina siguiente, o 0 si no hay mas
+   */
+  private final long siguiente;
+
+  /**
+   * Constructor de la pagina
+   * @param articulos articulos de la pagina
+   * @param siguiente numero de alta del primer articulo de la pagina siguiente, o 0 si no hay mas
+   */
+  PaginaArticulos(Articulo[] articulos, long siguiente) {
+    this.articulos = articulos;
+    this.siguiente = siguiente;
+  }
+
+  /**
+   * @return articulos de la pagina
+   */
+  Articulo[] getArticulos() {
+    return articulos;
+  }
+
+  /**
+   * @return numero de alta del primer articulo de la pagina siguiente (ver
+   *         {@link Almacen#listar(long, int, java.util.function.Predicate)}), o 0 si no hay mas
+   */
+  long getSiguiente() {
+    return siguiente;
+  }
+
+  /**
+   * @return true si hay mas paginas
+   */
+  boolean haySiguiente() {
+    return siguiente != 0;
+  }
+}
@@ -0,0 +1,351 @@
+package gestisimal;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Red de varios almacenes fisicos, cada uno con su propio {@link Almacen} (sus cerrojos, indices,
+ * diario y metricas), repartidos por sitio: las altas van al almacen que se indica y las entradas,
+ * salidas, busquedas y bajas van al almacen del articulo, que se saca del codigo con una
+ * {@link TablaRutas} que cada almacen mantiene al dia como observador. Como los codigos son unicos
+ * en toda la red, un codigo sirve para cualquier sitio sin decir cual.
+ * <p>
+ * Las consultas de toda la red (unidades de una descripcion, articulos bajo minimos, valoracion) se
+ * hacen a la vez en todos los almacenes en un pool fork-join, dividiendo los almacenes en mitades
+ * hasta llegar a uno, y se juntan los resultados.
+ * @author Sergio Vera Jurado
+ *
+ */
+class RedAlmacenes {
+  /**
+   * nombre de cada almacen
+   */
+  private final String[] nombres;
+  /**
+   * almacenes de la red
+   */
+  private final Almacen[] almacenes;
+  /**
+   * almacen de cada codigo
+   */
+  private final TablaRutas rutas = new TablaRutas();
+  /**
+   * pool en el que se ejecutan las consultas de toda la red
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Constructor de una red de almacenes vacios que consulta en el pool fork-join comun
+   * @param nombres nombre de cada almacen
+   */
+  RedAlmacenes(String... nombres) {
+    this(ForkJoinPool.commonPool(), nombres);
+  }
+
+  /**
+   * Constructor de una red de almacenes vacios
+   * @param pool pool en el que se ejecutan las consultas de toda la red
+   * @param nombres nombre de cada almacen, distintos
+   * @throws IllegalArgumentException si no hay almacenes, hay mas de 255 o se repite un nombre
+   */
+  RedAlmacenes(ForkJoinPool pool, String... nombres) {
+    if (nombres.length == 0 || nombres.length > TablaRutas.MAXIMO_ALMACENES)
+      throw new IllegalArgumentException(
+          "Una red necesita entre 1 y " + TablaRutas.MAXIMO_ALMACENES + " almacenes");
+    Set<String> distintos = new HashSet<>(Arrays.asList(nombres));
+    if (distintos.size() != nombres.length || distintos.contains(null))
+      throw new IllegalArgumentException("Los nombres de los almacenes deben ser distintos");
+    this.pool = pool;
+    this.nombres = nombres.clone();
+    this.almacenes = new Almacen[nombres.length];
+    for (int i = 0; i < almacenes.length; i++) {
+      almacenes[i] = new Almacen();
+      almacenes[i].anadirObservador(new Ruta(i));
+    }
+  }
+
+  /**
+   * @return numero de almacenes de la red
+   */
+  int numeroAlmacenes() {
+    return almacenes.length;
+  }
+
+  /**
+   * @param indice indice del almacen
+   * @return nombre del almacen
+   */
+  String nombre(int indice) {
+    return nombres[indice];
+  }
+
+  /**
+   * @param nombre nombre de un almacen
+   * @return su indice, o -1 si no hay ningun almacen con ese nombre
+   */
+  int indice(String nombre) {
+    for (int i = 0; i < nombres.length; i++)
+      if (nombres[i].equals(nombre))
+        return i;
+    return -1;
+  }
+
+  /**
+   * devuelve un almacen para trabajar solo con el (cargas, listados, metricas...). Lo que se haga
+   * en el se refleja en las rutas de la red
+   * @param indice indice del almacen
+   * @return el almacen
+   */
+  Almacen almacen(int indice) {
+    return almacenes[indice];
+  }
+
+  /**
+   * @param codigo codigo de un articulo
+   * @return indice del almacen en el que esta, o -1 si no esta en ninguno
+   */
+  int indiceDe(int codigo) {
+    return rutas.get(codigo);
+  }
+
+  /**
+   * Da de alta un articulo en un almacen de la red (ver
+   * {@link Almacen#alta(double, double, String, int, int, int)})
+   * @param indice indice del almacen
+   * @param precioCompra precio de compra del articulo
+   * @param precioVenta precio de venta del articulo
+   * @param descripcion descripcion del articulo
+   * @param numeroUnidades unidades disponibles
+   * @param stockSeguridad stock minimo permitido
+   * @param stockMaximo stock maximo permitido
+   * @return codigo del articulo nuevo
+   * @throws NumeroNegativoException si el numero de unidades o el precio de compra es negativo
+   * @throws ArticuloRepetidoException si el articulo ya existe
+   */
+  int alta(int indice, double precioCompra, double precioVenta, String descripcion,
+      int numeroUnidades, int stockSeguridad, int stockMaximo)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    return almacenes[indice].alta(precioCompra, precioVenta, descripcion, numeroUnidades,
+        stockSeguridad, stockMaximo);
+  }
+
+  /**
+   * elimina un articulo del almacen en el que este
+   * @param codigo codigo del articulo
+   * @return true si se ha eliminado, false si no estaba en ningun almacen
+   * @throws CodigoNoValidoException si el codigo no es valido
+   */
+  boolean eliminar(int codigo) throws CodigoNoValidoException {
+    int indice = rutas.get(codigo);
+    return indice >= 0 && almacenes[indice].eliminar(codigo);
+  }
+
+  /**
+   * busca un articulo en toda la red sin excepciones (ver {@link Almacen#buscarSiExiste(int)})
+   * @param codigo codigo del articulo
+   * @return el articulo, o null si no esta en ningun almacen
+   */
+  Articulo buscarSiExiste(int codigo) {
+    int indice = rutas.get(codigo);
+    return indice < 0 ? null : almacenes[indice].buscarSiExiste(codigo);
+  }
+
+  /**
+   * busca un articulo en toda la red
+   * @param codigo codigo del articulo
+   * @return el articulo
+   * @throws ArticuloInexistenteException si no esta en ningun almacen
+   */
+  Articulo buscarArticulo(int codigo) throws ArticuloInexistenteException {
+    Articulo articulo = buscarSiExiste(codigo);
+    if (articulo == null)
+      throw new ArticuloInexistenteException("El codigo no pertenece a ningun articulo de la red");
+    return articulo;
+  }
+
+  /**
+   * da entrada a mercancia en el almacen del articulo (ver {@link Almacen#entrada(int, int)})
+   * @param cantidad unidades que entran
+   * @param codigo codigo del articulo
+   * @return el resultado del almacen, o INEXISTENTE si no esta en ninguno
+   */
+  ResultadoMovimiento entrada(int cantidad, int codigo) {
+    int indice = rutas.get(codigo);
+    if (indice < 0)
+      return ResultadoMovimiento.INEXISTENTE;
+    return almacenes[indice].entrada(cantidad, codigo);
+  }
+
+  /**
+   * da salida a mercancia del almacen del articulo (ver {@link Almacen#salida(int, int)})
+   * @param cantidad unidades que salen
+   * @param codigo codigo del articulo
+   * @return el resultado del almacen, o INEXISTENTE si no esta en ninguno
+   */
+  ResultadoMovimiento salida(int cantidad, int codigo) {
+    int indice = rutas.get(codigo);
+    if (indice < 0)
+      return ResultadoMovimiento.INEXISTENTE;
+    return almacenes[indice].salida(cantidad, codigo);
+  }
+
+  /**
+   * Suma en paralelo las unidades de los articulos de todos los almacenes cuya descripcion
+   * encaja con un texto (ver {@link Almacen#buscarPorDescripcion(String)})
+   * @param texto palabras o principios de palabras que se buscan
+   * @return unidades de los articulos encontrados en toda la red
+   */
+  long unidadesPorDescripcion(String texto) {
+    return consultar(almacen -> almacen.unidadesPorDescripcion(texto), Long::sum);
+  }
+
+  /**
+   * busca en paralelo los articulos bajo minimos de todos los almacenes
+   * @return los articulos bajo minimos de cada almacen, por nombre y en el orden de la red
+   */
+  Map<String, Articulo[]> articulosBajoMinimos() {
+    return pool.invoke(new Consulta<Map<String, Articulo[]>>(0, almacenes.length, indice -> {
+      Map<String, Articulo[]> bajoMinimos = new LinkedHashMap<>();
+      bajoMinimos.put(nombres[indice], almacenes[indice].articulosBajoMinimos());
+      return bajoMinimos;
+    }, (primeros, siguientes) -> {
+      primeros.putAll(siguientes);
+      return primeros;
+    }));
+  }
+
+  /**
+   * @return unidades de todos los articulos de la red
+   */
+  long unidadesTotales() {
+    return consultar(Almacen::unidadesTotales, Long::sum);
+  }
+
+  /**
+   * @return valor exacto de la red a precio de compra
+   */
+  BigDecimal valorCompra() {
+    return consultar(Almacen::valorCompra, BigDecimal::add);
+  }
+
+  /**
+   * @return valor exacto de la red a precio de venta
+   */
+  BigDecimal valorVenta() {
+    return consultar(Almacen::valorVenta, BigDecimal::add);
+  }
+
+  /**
+   * Hace una consulta en todos los almacenes a la vez y junta los resultados de dos en dos, en el
+   * orden de la red. La consulta no debe modificar los almacenes
+   * @param <T> tipo del resultado
+   * @param consulta consulta que se hace en cada almacen
+   * @param juntar junta los resultados de dos grupos de almacenes seguidos
+   * @return el resultado de toda la red
+   */
+  <T> T consultar(Function<Almacen, T> consulta, BinaryOperator<T> juntar) {
+    return pool.invoke(
+        new Consulta<>(0, almacenes.length, indice -> consulta.apply(almacenes[indice]), juntar));
+  }
+
+  /**
+   * toString de la red: el nombre y el numero de articulos de cada almacen
+   */
+  @Override
+  public String toString() {
+    StringBuilder texto = new StringBuilder();
+    for (int i = 0; i < almacenes.length; i++)
+      texto.append(nombres[i]).append(": ").append(almacenes[i].articulos().count())
+          .append(" articulos\n");
+    return texto.toString();
+  }
+
+  /**
+   * Apunta en las rutas las altas y bajas de un almacen
+   */
+  private class Ruta implements ObservadorAlmacen {
+    /**
+     * indice del almacen observado
+     */
+    private final int indice;
+
+    /**
+     * @param indice indice del almacen observado
+     */
+    Ruta(int indice) {
+      this.indice = indice;
+    }
+
+    @Override
+    public void alta(Articulo articulo) {
+      rutas.put(articulo.getCodigo(), indice);
+    }
+
+    @Override
+    public void baja(Articulo articulo) {
+      rutas.remove(articulo.getCodigo(), indice);
+    }
+  }
+
+  /**
+   * Consulta de un grupo de almacenes seguidos: si hay mas de uno, se divide en dos mitades, una se
+   * lanza en otro hilo del pool y la otra se hace en este
+   * @param <T> tipo del resultado
+   */
+  private static class Consulta<T> extends RecursiveTask<T> {
+    private static final long serialVersionUID = 1L;
+    /**
+     * primer almacen del grupo
+     */
+    private final int desde;
+    /**
+     * almacen siguiente al ultimo del grupo
+     */
+    private final int hasta;
+    /**
+     * consulta de un almacen por su indice
+     */
+    private final IntFunction<T> consulta;
+    /**
+     * junta los resultados de dos grupos seguidos
+     */
+    private final BinaryOperator<T> juntar;
+
+    /**
+     * @param desde primer almacen del grupo
+     * @param hasta almacen siguiente al ultimo del grupo
+     * @param consulta consulta de un almacen por su indice
+     * @param juntar junta los resultados de dos grupos seguidos
+     */
+    Consulta(int desde, int hasta, IntFunction<T> consulta, BinaryOperator<T> juntar) {
+      this.desde = desde;
+      this.hasta = hasta;
+      this.consulta = consulta;
+      this.juntar = juntar;
+    }
+
+    @Override
+    protected T compute() {
+      if (hasta - desde == 1)
+        return consulta.apply(desde);
+      int mitad = (desde + hasta) >>> 1;
+      Consulta<T> primera = new Consulta<>(desde, mitad, consulta, juntar);
+      primera.fork();
+      T segunda = new Consulta<>(mitad, hasta, consulta, juntar).compute();
+      return juntar.apply(primera.join(), segunda);
+    }
+  }
+}
@@ -0,0 +1,442 @@
+package gestisimal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reservas de unidades de los articulos de un almacen, para que varios preparadores de pedidos
+ * compitan por el mismo articulo sin vender unidades que no hay. Una reserva descuenta las
+ * unidades de las disponibles del articulo (las unidades menos las reservadas) con un solo
+ * compareAndSet y sin cerrojos, asi que los articulos muy solicitados no ponen en cola a nadie;
+ * las salidas normales tampoco pueden coger unidades reservadas. Despues la reserva se confirma,
+ * y entonces salen las unidades, o se libera.
+ * <p>
+ * Las reservas que no se confirman ni se liberan a tiempo caducan, en el primer tick posterior a
+ * su caducidad. Se guardan en una rueda de temporizadores: un array circular de listas, una por
+ * tick, que solo toca el hilo que la hace girar. Las reservas nuevas se apilan con un
+ * compareAndSet en unas pilas de entrada repartidas por codigo, y en cada tick el hilo las pasa a
+ * la lista del tick en el que caducan (las que caducan en una vuelta posterior vuelven a su lista
+ * hasta que llega la suya) y libera las pendientes de la lista del tick. Las confirmadas o
+ * liberadas no se sacan de las listas, se descartan cuando el hilo pasa por ellas; como la
+ * mayoria se confirman enseguida, casi ninguna llega a entrar en la rueda.
+ * @author Sergio Vera Jurado
+ *
+ */
+class ReservasAlmacen implements AutoCloseable {
+  /**
+   * Reserva de unidades de un articulo
+   */
+  static final class Reserva {
+    /**
+     * estado de la reserva mientras no se confirma, libera o caduca
+     */
+    private static final int PENDIENTE = 0;
+    /**
+     * estado de la reserva confirmada
+     */
+    private static final int CONFIRMADA = 1;
+    /**
+     * estado de la reserva liberada, o que no se ha podido hacer
+     */
+    private static final int LIBERADA = 2;
+    /**
+     * estado de la reserva caducada
+     */
+    private static final int CADUCADA = 3;
+    /**
+     * acceso atomico al estado
+     */
+    private static final VarHandle ESTADO;
+    static {
+      try {
+        ESTADO = MethodHandles.lookup().findVarHandle(Reserva.class, "estado", int.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+    /**
+     * resultado de la reserva
+     */
+    private final ResultadoMovimiento resultado;
+    /**
+     * articulo reservado, o null si la reserva no se ha podido hacer
+     */
+    private final Articulo articulo;
+    /**
+     * unidades reservadas
+     */
+    private final int cantidad;
+    /**
+     * primer tick de la rueda que empieza despues de que caduque
+     */
+    private final long caducidad;
+    /**
+     * estado de la reserva
+     */
+    private volatile int estado;
+    /**
+     * siguiente reserva de la misma pila de entrada o lista de la rueda
+     */
+    private Reserva siguiente;
+
+    /**
+     * Constructor de una reserva hecha
+     * @param articulo articulo reservado
+     * @param cantidad unidades reservadas
+     * @param caducidad primer tick de la rueda que empieza despues de que caduque
+     */
+    private Reserva(Articulo articulo, int cantidad, long caducidad) {
+      this.resultado = ResultadoMovimiento.OK;
+      this.articulo = articulo;
+      this.cantidad = cantidad;
+      this.caducidad = caducidad;
+    }
+
+    /**
+     * Constructor de una reserva que no se ha podido hacer
+     * @param resultado motivo
+     */
+    private Reserva(ResultadoMovimiento resultado) {
+      this.resultado = resultado;
+      this.articulo = null;
+      this.cantidad = 0;
+      this.caducidad = 0;
+      this.estado = LIBERADA;
+    }
+
+    /**
+     * @return OK si se ha reservado; INEXISTENTE si el codigo no existe; CANTIDAD_NEGATIVA si la
+     *         cantidad no es positiva; NEGATIVO si no hay bastantes unidades disponibles
+     */
+    ResultadoMovimiento getResultado() {
+      return resultado;
+    }
+
+    /**
+     * @return codigo del articulo reservado, o 0 si no se ha podido reservar
+     */
+    int getCodigo() {
+      return articulo == null ? 0 : articulo.getCodigo();
+    }
+
+    /**
+     * @return unidades reservadas
+     */
+    int getCantidad() {
+      return cantidad;
+    }
+
+    /**
+     * @return true si aun no se ha confirmado, liberado ni ha caducado
+     */
+    boolean pendiente() {
+      return estado == PENDIENTE;
+    }
+
+    /**
+     * @return true si ha caducado antes de confirmarla o liberarla
+     */
+    boolean caducada() {
+      return estado == CADUCADA;
+    }
+
+    /**
+     * termina la reserva si sigue pendiente
+     * @param nuevo estado final
+     * @return true si estaba pendiente; solo un hilo puede terminarla
+     */
+    private boolean terminar(int nuevo) {
+      return estado == PENDIENTE && ESTADO.compareAndSet(this, PENDIENTE, nuevo);
+    }
+  }
+
+  /**
+   * reserva de un codigo que no existe
+   */
+  private static final Reserva INEXISTENTE = new Reserva(ResultadoMovimiento.INEXISTENTE);
+  /**
+   * reserva de una cantidad que no es positiva
+   */
+  private static final Reserva CANTIDAD_NEGATIVA =
+      new Reserva(ResultadoMovimiento.CANTIDAD_NEGATIVA);
+  /**
+   * reserva de mas unidades de las disponibles
+   */
+  private static final Reserva NEGATIVO = new Reserva(ResultadoMovimiento.NEGATIVO);
+  /**
+   * numero de listas de la rueda (potencia de dos)
+   */
+  private static final int LISTAS = 512;
+  /**
+   * numero de pilas de entrada (potencia de dos)
+   */
+  private static final int ENTRADAS = 64;
+  /**
+   * duracion de un tick por defecto, en milisegundos
+   */
+  private static final long TICK = 10;
+  /**
+   * almacen de los articulos reservados
+   */
+  private final Almacen almacen;
+  /**
+   * duracion de un tick en nanosegundos
+   */
+  private final long tick;
+  /**
+   * instante del tick 0
+   */
+  private final long origen = System.nanoTime();
+  /**
+   * cima de cada pila de reservas nuevas
+   */
+  private final AtomicReferenceArray<Reserva> entradas = new AtomicReferenceArray<>(ENTRADAS);
+  /**
+   * cabeza de la lista de cada tick de la rueda (solo la usa el hilo de la rueda)
+   */
+  private final Reserva[] rueda = new Reserva[LISTAS];
+  /**
+   * ultimo tick por el que ha pasado el hilo de la rueda
+   */
+  private long tickActual;
+  /**
+   * reservas pendientes
+   */
+  private final LongAdder pendientes = new LongAdder();
+  /**
+   * reservas caducadas
+   */
+  private final LongAdder caducadas = new LongAdder();
+  /**
+   * hilo que hace girar la rueda
+   */
+  private final Thread hilo;
+  /**
+   * true cuando ya no se admiten reservas
+   */
+  private volatile boolean cerrada;
+
+  /**
+   * Constructor de las reservas de un almacen, con ticks de 10 ms
+   * @param almacen almacen de los articulos reservados
+   */
+  ReservasAlmacen(Almacen almacen) {
+    this(almacen, TICK);
+  }
+
+  /**
+   * Constructor de las reservas de un almacen. Arranca el hilo de la rueda, que para al cerrarlas
+   * @param almacen almacen de los articulos reservados
+   * @param tickMilisegundos precision de las caducidades, en milisegundos
+   * @throws IllegalArgumentException si el tick no es positivo
+   */
+  ReservasAlmacen(Almacen almacen, long tickMilisegundos) {
+    if (tickMilisegundos <= 0)
+      throw new IllegalArgumentException("El tick debe ser positivo");
+    this.almacen = almacen;
+    this.tick = TimeUnit.MILLISECONDS.toNanos(tickMilisegundos);
+    hilo = new Thread(this::girar, "reservas-almacen");
+    hilo.setDaemon(true);
+    hilo.start();
+  }
+
+  /**
+   * Reserva unidades de un articulo durante un tiempo, si hay bastantes disponibles
+   * @param codigo codigo del articulo
+   * @param cantidad unidades que se reservan
+   * @param milisegundos tiempo que dura la reserva si no se confirma ni se libera. Las muy largas
+   *          (hasta Long.MAX_VALUE) no caducan en la practica
+   * @return la reserva; si no se ha podido hacer, su resultado dice por que
+   * @throws IllegalStateException si las reservas estan cerradas
+   * @throws IllegalArgumentException si el tiempo es negativo
+   */
+  Reserva reservar(int codigo, int cantidad, long milisegundos) {
+    if (cerrada)
+      throw new IllegalStateException("Las reservas del almacen estan cerradas");
+    if (milisegundos < 0)
+      throw new IllegalArgumentException("La reserva no puede durar un tiempo negativo");
+    if (cantidad <= 0)
+      return CANTIDAD_NEGATIVA;
+    Articulo articulo = almacen.leer(codigo);
+    if (articulo == null)
+      return INEXISTENTE;
+    if (!articulo.reservar(cantidad))
+      return NEGATIVO;
+    Reserva reserva = new Reserva(articulo, cantidad, caducidad(milisegundos));
+    pendientes.increment();
+    apilar(reserva);
+    if (cerrada)
+      liberar(reserva);
+    return reserva;
+  }
+
+  /**
+   * calcula el tick en el que caduca una reserva que empieza ahora, redondeando hacia arriba para
+   * que no caduque antes de tiempo. Sin desbordarse: toNanos se satura en Long.MAX_VALUE y la
+   * suma se queda en el
+   * @param milisegundos tiempo que dura la reserva, no negativo
+   * @return el tick
+   */
+  private long caducidad(long milisegundos) {
+    long ahora = System.nanoTime() - origen;
+    long espera = TimeUnit.MILLISECONDS.toNanos(milisegundos);
+    long vence = espera > Long.MAX_VALUE - ahora ? Long.MAX_VALUE : ahora + espera;
+    return vence / tick + (vence % tick == 0 ? 0 : 1);
+  }
+
+  /**
+   * confirma una reserva pendiente: da salida a sus unidades en el almacen
+   * @param reserva reserva
+   * @return true si se ha confirmado; false si ya no estaba pendiente (confirmada, liberada o
+   *         caducada) o el articulo se ha eliminado del almacen
+   */
+  boolean confirmar(Reserva reserva) {
+    if (!reserva.terminar(Reserva.CONFIRMADA))
+      return false;
+    pendientes.decrement();
+    return almacen.confirmarReserva(reserva.articulo, reserva.cantidad);
+  }
+
+  /**
+   * libera una reserva pendiente: sus unidades vuelven a estar disponibles
+   * @param reserva reserva
+   * @return true si se ha liberado; false si ya no estaba pendiente
+   */
+  boolean liberar(Reserva reserva) {
+    if (!reserva.terminar(Reserva.LIBERADA))
+      return false;
+    devolver(reserva);
+    return true;
+  }
+
+  /**
+   * @return reservas pendientes
+   */
+  long pendientes() {
+    return pendientes.sum();
+  }
+
+  /**
+   * @return reservas caducadas desde que se crearon las reservas
+   */
+  long caducadas() {
+    return caducadas.sum();
+  }
+
+  /**
+   * deja de admitir reservas, para el hilo de la rueda y libera las pendientes
+   */
+  @Override
+  public void close() {
+    if (cerrada)
+      return;
+    cerrada = true;
+    LockSupport.unpark(hilo);
+    try {
+      hilo.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (int i = 0; i < ENTRADAS; i++)
+      liberarTodas(entradas.getAndSet(i, null));
+    for (int i = 0; i < LISTAS; i++) {
+      liberarTodas(rueda[i]);
+      rueda[i] = null;
+    }
+  }
+
+  /**
+   * libera las reservas pendientes de una lista
+   * @param reserva primera reserva de la lista
+   */
+  private void liberarTodas(Reserva reserva) {
+    while (reserva != null) {
+      Reserva siguiente = reserva.siguiente;
+      liberar(reserva);
+      reserva = siguiente;
+    }
+  }
+
+  /**
+   * devuelve las unidades de una reserva terminada a las disponibles
+   * @param reserva reserva
+   */
+  private void devolver(Reserva reserva) {
+    reserva.articulo.liberar(reserva.cantidad);
+    pendientes.decrement();
+  }
+
+  /**
+   * mete una reserva nueva en la pila de entrada de su codigo
+   * @param reserva reserva
+   */
+  private void apilar(Reserva reserva) {
+    int pila = reserva.articulo.getCodigo() & (ENTRADAS - 1);
+    Reserva cima;
+    do {
+      cima = entradas.get(pila);
+      reserva.siguiente = cima;
+    } while (!entradas.compareAndSet(pila, cima, reserva));
+  }
+
+  /**
+   * bucle del hilo de la rueda: pasa por cada tick cuando llega su momento
+   */
+  private void girar() {
+    while (!cerrada) {
+      long transcurrido = System.nanoTime() - origen;
+      long ahora = transcurrido / tick;
+      while (tickActual < ahora && !cerrada) {
+        tickActual++;
+        for (int i = 0; i < ENTRADAS; i++)
+          programar(entradas.getAndSet(i, null));
+        caducar();
+      }
+      LockSupport.parkNanos(this, tick - transcurrido % tick);
+    }
+  }
+
+  /**
+   * mete en la rueda las reservas pendientes de una lista, cada una en la lista del tick en el que
+   * caduca o en la del tick actual si ya ha pasado. Las terminadas se descartan
+   * @param reserva primera reserva de la lista
+   */
+  private void programar(Reserva reserva) {
+    while (reserva != null) {
+      Reserva siguiente = reserva.siguiente;
+      if (reserva.pendiente()) {
+        int lista = (int) Math.max(reserva.caducidad, tickActual) & (LISTAS - 1);
+        reserva.siguiente = rueda[lista];
+        rueda[lista] = reserva;
+      }
+      reserva = siguiente;
+    }
+  }
+
+  /**
+   * hace caducar las reservas pendientes de la lista del tick actual. Las que caducan en otra
+   * vuelta vuelven a la lista y las terminadas se descartan
+   */
+  private void caducar() {
+    int lista = (int) tickActual & (LISTAS - 1);
+    Reserva reserva = rueda[lista];
+    rueda[lista] = null;
+    while (reserva != null) {
+      Reserva siguiente = reserva.siguiente;
+      if (reserva.caducidad > tickActual) {
+        if (reserva.pendiente()) {
+          reserva.siguiente = rueda[lista];
+          rueda[lista] = reserva;
+        }
+      } else if (reserva.terminar(Reserva.CADUCADA)) {
+        devolver(reserva);
+        caducadas.increment();
+      }
+      reserva = siguiente;
+    }
+  }
+}
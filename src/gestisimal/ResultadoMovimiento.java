@@ -0,0 +1,27 @@
+package gestisimal;
+
+/**
+ * Resultado de una entrada o salida de mercancia sin excepciones (ver
+ * {@link Almacen#entrada(int, int)}) o de cada movimiento de un lote
+ * @author Sergio Vera Jurado
+ *
+ */
+enum ResultadoMovimiento {
+  /**
+   * el movimiento es correcto
+   */
+  OK,
+  /**
+   * el codigo no pertenece a ningun articulo
+   */
+  INEXISTENTE,
+  /**
+   * el movimiento dejaria las unidades del articulo por debajo de cero
+   */
+  NEGATIVO,
+  /**
+   * la cantidad de una entrada o salida es negativa (en los lotes el signo indica si es una
+   * entrada o una salida, asi que no se da)
+   */
+  CANTIDAD_NEGATIVA
+}
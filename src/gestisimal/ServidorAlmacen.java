@@ -0,0 +1,562 @@
+package gestisimal;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gestisimal.excepciones.AlmacenCSVException;
+import gestisimal.excepciones.AlmacenXMLException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Servidor HTTP que da acceso a un almacen con JSON, para que lo usen a la vez los terminales de
+ * mano y otras aplicaciones. Cada peticion se atiende en un hilo de un pool fijo. Las entradas y
+ * salidas usan los metodos sin excepciones del almacen, y las exportaciones se hacen en segundo
+ * plano (ver {@link Almacen#exportarCSV(String, VistaAlmacen.Progreso)}) y responden al terminar
+ * sin ocupar un hilo del pool.
+ * <pre>
+ * POST   /articulos                      alta (cuerpo: precioCompra, precioVenta, descripcion,
+ *                                        numeroUnidades, stockSeguridad, stockMaximo)
+ * GET    /articulos?desde=0&amp;tamano=100    listado por paginas (desde: el siguiente de la
+ *                                        pagina anterior)
+ * GET    /articulos/{codigo}             buscar
+ * POST   /articulos/{codigo}/entrada?cantidad=n
+ * POST   /articulos/{codigo}/salida?cantidad=n
+ * DELETE /articulos/{codigo}             eliminar
+ * POST   /importar?formato=csv|xml&amp;archivo=nombre
+ * POST   /exportar?formato=csv|xml&amp;archivo=nombre
+ * </pre>
+ * Los archivos de importar y exportar se buscan en un directorio del servidor y no pueden salir de
+ * el. Los errores se responden con {"error": mensaje} y el codigo HTTP que corresponde.
+ * @author Sergio Vera Jurado
+ *
+ */
+class ServidorAlmacen {
+  /**
+   * convierte las respuestas y las peticiones a JSON y de JSON. Se puede usar desde varios hilos
+   */
+  private static final Gson GSON = new Gson();
+  /**
+   * tamaño de pagina del listado si no se indica
+   */
+  private static final int TAMANO_PAGINA = 100;
+  /**
+   * propiedad del servidor del JDK que activa TCP_NODELAY en sus conexiones
+   */
+  static final String NODELAY = "sun.net.httpserver.nodelay";
+  /**
+   * almacen al que se da acceso
+   */
+  private final Almacen almacen;
+  /**
+   * directorio de los archivos de importar y exportar
+   */
+  private final Path directorio;
+  /**
+   * servidor HTTP del JDK
+   */
+  private final HttpServer servidor;
+  /**
+   * hilos que atienden las peticiones
+   */
+  private final ExecutorService hilos;
+
+  /**
+   * Cuerpo de una peticion de alta
+   */
+  private static class PeticionAlta {
+    /**
+     * precios de compra y de venta
+     */
+    double precioCompra, precioVenta;
+    /**
+     * descripcion del articulo
+     */
+    String descripcion;
+    /**
+     * unidades disponibles, stock minimo y stock maximo
+     */
+    int numeroUnidades, stockSeguridad, stockMaximo;
+  }
+
+  /**
+   * Articulo tal como se responde: solo los datos que se dan de alta, con el codigo, y no los
+   * campos internos del articulo
+   */
+  private static class RespuestaArticulo {
+    /**
+     * codigo del articulo
+     */
+    int codigo;
+    /**
+     * descripcion del articulo
+     */
+    String descripcion;
+    /**
+     * precios de compra y de venta
+     */
+    double precioCompra, precioVenta;
+    /**
+     * unidades, stock minimo y stock maximo
+     */
+    int numeroUnidades, stockSeguridad, stockMaximo;
+
+    /**
+     * @param articulo articulo que se responde
+     */
+    RespuestaArticulo(Articulo articulo) {
+      codigo = articulo.getCodigo();
+      descripcion = articulo.getDescripcion();
+      precioCompra = articulo.getPrecioCompra();
+      precioVenta = articulo.getPrecioVenta();
+      numeroUnidades = articulo.getNumeroUnidades();
+      stockSeguridad = articulo.getStockSeguridad();
+      stockMaximo = articulo.getStockMaximo();
+    }
+  }
+
+  /**
+   * Pagina del listado tal como se responde
+   */
+  private static class RespuestaPagina {
+    /**
+     * articulos de la pagina
+     */
+    RespuestaArticulo[] articulos;
+    /**
+     * valor de desde para pedir la pagina siguiente, o 0 si no hay mas
+     */
+    long siguiente;
+
+    /**
+     * @param pagina pagina que se responde
+     */
+    RespuestaPagina(PaginaArticulos pagina) {
+      Articulo[] deLaPagina = pagina.getArticulos();
+      articulos = new RespuestaArticulo[deLaPagina.length];
+      for (int i = 0; i < deLaPagina.length; i++)
+        articulos[i] = new RespuestaArticulo(deLaPagina[i]);
+      siguiente = pagina.getSiguiente();
+    }
+  }
+
+  /**
+   * Error de una peticion, con el codigo HTTP con el que se responde
+   */
+  private static class ErrorPeticion extends Exception {
+    private static final long serialVersionUID = 1L;
+    /**
+     * codigo HTTP
+     */
+    private final int estado;
+
+    /**
+     * @param estado codigo HTTP
+     * @param mensaje mensaje del error
+     */
+    ErrorPeticion(int estado, String mensaje) {
+      super(mensaje);
+      this.estado = estado;
+    }
+  }
+
+  /**
+   * Constructor del servidor, que no atiende peticiones hasta {@link #iniciar()}. El servidor del
+   * JDK escribe las cabeceras y el cuerpo de cada respuesta por separado y sin TCP_NODELAY, asi que
+   * con conexiones persistentes cada respuesta espera al ACK retrasado del cliente (unos 40 ms).
+   * Para evitarlo hay que llamar antes a {@link #activarNodelay()}, como hacen los lanzadores
+   * @param almacen almacen al que se da acceso
+   * @param direccion direccion y puerto (0 para uno libre)
+   * @param numeroHilos hilos que atienden las peticiones
+   * @param directorio directorio de los archivos de importar y exportar
+   * @throws IOException si no se puede abrir el puerto
+   */
+  ServidorAlmacen(Almacen almacen, InetSocketAddress direccion, int numeroHilos, Path directorio)
+      throws IOException {
+    this.almacen = almacen;
+    this.directorio = directorio.toAbsolutePath().normalize();
+    AtomicInteger numero = new AtomicInteger();
+    this.hilos = Executors.newFixedThreadPool(numeroHilos, tarea -> {
+      Thread hilo = new Thread(tarea, "http-almacen-" + numero.incrementAndGet());
+      hilo.setDaemon(true);
+      return hilo;
+    });
+    this.servidor = HttpServer.create(direccion, 0);
+    servidor.setExecutor(hilos);
+    servidor.createContext("/articulos", this::atender);
+    servidor.createContext("/importar", this::atender);
+    servidor.createContext("/exportar", this::atender);
+  }
+
+  /**
+   * activa TCP_NODELAY en los servidores HTTP del JDK de todo el proceso, salvo que la propiedad
+   * ya se haya fijado (por ejemplo con -D). Solo tiene efecto antes de crear el primer servidor
+   */
+  static void activarNodelay() {
+    if (System.getProperty(NODELAY) == null)
+      System.setProperty(NODELAY, "true");
+  }
+
+  /**
+   * empieza a atender peticiones
+   */
+  void iniciar() {
+    servidor.start();
+  }
+
+  /**
+   * deja de atender peticiones
+   * @param segundos tiempo maximo que se espera a las peticiones en curso
+   * @throws InterruptedException si se interrumpe la espera
+   */
+  void parar(int segundos) throws InterruptedException {
+    servidor.stop(segundos);
+    hilos.shutdown();
+    hilos.awaitTermination(segundos, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return puerto en el que escucha el servidor
+   */
+  int puerto() {
+    return servidor.getAddress().getPort();
+  }
+
+  /**
+   * atiende una peticion y responde con su resultado o con el error
+   * @param peticion peticion HTTP
+   */
+  private void atender(HttpExchange peticion) {
+    try {
+      String ruta = peticion.getRequestURI().getPath();
+      Map<String, String> parametros = parametros(peticion.getRequestURI().getRawQuery());
+      if (ruta.equals("/exportar")) {
+        exportar(peticion, parametros);
+        return;
+      }
+      Object respuesta;
+      if (ruta.equals("/importar"))
+        respuesta = importar(peticion, parametros);
+      else if (ruta.equals("/articulos") || ruta.startsWith("/articulos/"))
+        respuesta = articulos(peticion, ruta, parametros);
+      else
+        throw new ErrorPeticion(404, "No existe la ruta " + ruta);
+      responder(peticion, respuesta == null ? 204 : 200, respuesta);
+    } catch (ErrorPeticion e) {
+      responderError(peticion, e.estado, e.getMessage());
+    } catch (NumeroNegativoException | CodigoNoValidoException | IllegalArgumentException
+        | JsonParseException e) {
+      responderError(peticion, 400, e.getMessage());
+    } catch (ArticuloRepetidoException e) {
+      responderError(peticion, 409, e.getMessage());
+    } catch (AlmacenCSVException | AlmacenXMLException e) {
+      responderError(peticion, 422, e.getMessage());
+    } catch (NoSuchFileException e) {
+      responderError(peticion, 404, "No existe el archivo " + e.getFile());
+    } catch (Exception e) {
+      responderError(peticion, 500, String.valueOf(e));
+    }
+  }
+
+  /**
+   * atiende las peticiones de /articulos
+   * @param peticion peticion HTTP
+   * @param ruta ruta de la peticion
+   * @param parametros parametros de la peticion
+   * @return objeto que se responde, o null si no hay nada que responder
+   * @throws Exception si la peticion no se puede atender
+   */
+  private Object articulos(HttpExchange peticion, String ruta, Map<String, String> parametros)
+      throws Exception {
+    String metodo = peticion.getRequestMethod();
+    String[] partes = ruta.substring(1).split("/");
+    if (partes.length == 1) {
+      if (metodo.equals("GET"))
+        return new RespuestaPagina(almacen.listar(enteroLargo(parametros, "desde", 0),
+            entero(parametros, "tamano", TAMANO_PAGINA), null));
+      if (metodo.equals("POST"))
+        return alta(peticion);
+      throw new ErrorPeticion(405, "Metodo no admitido: " + metodo);
+    }
+    int codigo = entero(partes[1], "codigo");
+    if (partes.length == 2) {
+      if (metodo.equals("GET")) {
+        Articulo articulo = almacen.buscarSiExiste(codigo);
+        if (articulo == null)
+          throw new ErrorPeticion(404, "No existe el articulo " + codigo);
+        return new RespuestaArticulo(articulo);
+      }
+      if (metodo.equals("DELETE"))
+        return eliminar(codigo);
+      throw new ErrorPeticion(405, "Metodo no admitido: " + metodo);
+    }
+    if (partes.length == 3 && (partes[2].equals("entrada") || partes[2].equals("salida"))) {
+      if (!metodo.equals("POST"))
+        throw new ErrorPeticion(405, "Metodo no admitido: " + metodo);
+      int cantidad = entero(parametros, "cantidad", -1);
+      return movimiento(partes[2].equals("entrada") ? almacen.entrada(cantidad, codigo)
+          : almacen.salida(cantidad, codigo));
+    }
+    throw new ErrorPeticion(404, "Ruta desconocida: " + ruta);
+  }
+
+  /**
+   * da de alta el articulo del cuerpo de la peticion
+   * @param peticion peticion HTTP
+   * @return el codigo del articulo nuevo
+   * @throws Exception si falta el cuerpo o el articulo no es valido
+   */
+  private Object alta(HttpExchange peticion) throws Exception {
+    PeticionAlta alta;
+    try (Reader cuerpo =
+        new InputStreamReader(peticion.getRequestBody(), StandardCharsets.UTF_8)) {
+      alta = GSON.fromJson(cuerpo, PeticionAlta.class);
+    }
+    if (alta == null || alta.descripcion == null)
+      throw new ErrorPeticion(400, "Falta la descripcion del articulo");
+    int codigo = almacen.alta(alta.precioCompra, alta.precioVenta, alta.descripcion,
+        alta.numeroUnidades, alta.stockSeguridad, alta.stockMaximo);
+    return Collections.singletonMap("codigo", codigo);
+  }
+
+  /**
+   * elimina un articulo
+   * @param codigo codigo del articulo
+   * @return null si se ha eliminado
+   * @throws ErrorPeticion si no existe
+   * @throws CodigoNoValidoException si el codigo no es valido
+   */
+  private Object eliminar(int codigo) throws ErrorPeticion, CodigoNoValidoException {
+    if (!almacen.eliminar(codigo))
+      throw new ErrorPeticion(404, "No existe el articulo " + codigo);
+    return null;
+  }
+
+  /**
+   * convierte el resultado de una entrada o salida en la respuesta
+   * @param resultado resultado del almacen
+   * @return el resultado si es OK
+   * @throws ErrorPeticion si el movimiento no se ha hecho
+   */
+  private static Object movimiento(ResultadoMovimiento resultado) throws ErrorPeticion {
+    switch (resultado) {
+      case OK:
+        return Collections.singletonMap("resultado", resultado.name());
+      case INEXISTENTE:
+        throw new ErrorPeticion(404, resultado.name());
+      case CANTIDAD_NEGATIVA:
+        throw new ErrorPeticion(400, resultado.name());
+      default:
+        throw new ErrorPeticion(409, resultado.name());
+    }
+  }
+
+  /**
+   * importa un archivo del directorio del servidor
+   * @param peticion peticion HTTP
+   * @param parametros formato y nombre del archivo
+   * @return null al terminar
+   * @throws Exception si la peticion no es valida o falla la carga
+   */
+  private Object importar(HttpExchange peticion, Map<String, String> parametros)
+      throws Exception {
+    if (!peticion.getRequestMethod().equals("POST"))
+      throw new ErrorPeticion(405, "Metodo no admitido: " + peticion.getRequestMethod());
+    String archivo = archivo(parametros).toString();
+    if (formato(parametros).equals("csv"))
+      almacen.cargarCSV(archivo);
+    else
+      almacen.cargarXml(archivo);
+    return null;
+  }
+
+  /**
+   * exporta el almacen a un archivo del directorio del servidor en segundo plano y responde con
+   * el numero de articulos cuando termina, o con 503 si ya hay demasiadas exportaciones esperando
+   * @param peticion peticion HTTP
+   * @param parametros formato y nombre del archivo
+   * @throws ErrorPeticion si la peticion no es valida
+   */
+  private void exportar(HttpExchange peticion, Map<String, String> parametros)
+      throws ErrorPeticion {
+    if (!peticion.getRequestMethod().equals("POST"))
+      throw new ErrorPeticion(405, "Metodo no admitido: " + peticion.getRequestMethod());
+    String archivo = archivo(parametros).toString();
+    CompletableFuture<Long> exportacion = formato(parametros).equals("csv")
+        ? almacen.exportarCSV(archivo, null) : almacen.exportarXML(archivo, null);
+    exportacion.whenComplete((filas, e) -> {
+      Throwable causa = e instanceof CompletionException ? e.getCause() : e;
+      if (e == null)
+        responder(peticion, 200, Collections.singletonMap("filas", filas));
+      else if (causa instanceof RejectedExecutionException)
+        responderError(peticion, 503, "Hay demasiadas exportaciones en curso");
+      else
+        responderError(peticion, 500, String.valueOf(causa));
+    });
+  }
+
+  /**
+   * @param parametros parametros de la peticion
+   * @return formato del archivo, "csv" o "xml"
+   * @throws ErrorPeticion si falta o no es ninguno de los dos
+   */
+  private static String formato(Map<String, String> parametros) throws ErrorPeticion {
+    String formato = parametros.get("formato");
+    if (!"csv".equals(formato) && !"xml".equals(formato))
+      throw new ErrorPeticion(400, "El formato debe ser csv o xml");
+    return formato;
+  }
+
+  /**
+   * busca un archivo del directorio del servidor. Ademas de mirar el nombre se siguen los enlaces
+   * simbolicos, del directorio y del archivo si ya existe, para que un enlace del directorio no
+   * lleve a un archivo de fuera
+   * @param parametros parametros de la peticion
+   * @return ruta real del archivo en el directorio del servidor
+   * @throws ErrorPeticion si falta el nombre o el archivo queda fuera del directorio
+   */
+  private Path archivo(Map<String, String> parametros) throws ErrorPeticion {
+    String nombre = parametros.get("archivo");
+    if (nombre == null || nombre.isEmpty())
+      throw new ErrorPeticion(400, "Falta el nombre del archivo");
+    Path archivo = directorio.resolve(nombre).normalize();
+    if (!directorio.equals(archivo.getParent()))
+      throw new ErrorPeticion(403, "El archivo debe estar en el directorio del servidor");
+    Path real;
+    Path raiz;
+    try {
+      raiz = directorio.toRealPath();
+      real = Files.exists(archivo, LinkOption.NOFOLLOW_LINKS) ? archivo.toRealPath()
+          : raiz.resolve(archivo.getFileName());
+    } catch (IOException e) {
+      throw new ErrorPeticion(403, "El archivo debe estar en el directorio del servidor");
+    }
+    if (!raiz.equals(real.getParent()))
+      throw new ErrorPeticion(403, "El archivo debe estar en el directorio del servidor");
+    return real;
+  }
+
+  /**
+   * lee los parametros de la URL
+   * @param consulta parte de la URL tras la interrogacion, sin decodificar, o null
+   * @return los parametros por nombre
+   */
+  private static Map<String, String> parametros(String consulta) {
+    Map<String, String> parametros = new HashMap<>();
+    if (consulta == null)
+      return parametros;
+    for (String parametro : consulta.split("&")) {
+      int igual = parametro.indexOf('=');
+      if (igual > 0)
+        parametros.put(URLDecoder.decode(parametro.substring(0, igual), StandardCharsets.UTF_8),
+            URLDecoder.decode(parametro.substring(igual + 1), StandardCharsets.UTF_8));
+    }
+    return parametros;
+  }
+
+  /**
+   * @param parametros parametros de la peticion
+   * @param nombre nombre del parametro
+   * @param defecto valor si no esta
+   * @return el valor entero del parametro
+   * @throws ErrorPeticion si no es un entero
+   */
+  private static int entero(Map<String, String> parametros, String nombre, int defecto)
+      throws ErrorPeticion {
+    String valor = parametros.get(nombre);
+    return valor == null ? defecto : entero(valor, nombre);
+  }
+
+  /**
+   * @param parametros parametros de la peticion
+   * @param nombre nombre del parametro
+   * @param defecto valor si no esta
+   * @return el valor del parametro como entero largo
+   * @throws ErrorPeticion si no es un entero
+   */
+  private static long enteroLargo(Map<String, String> parametros, String nombre, long defecto)
+      throws ErrorPeticion {
+    String valor = parametros.get(nombre);
+    try {
+      return valor == null ? defecto : Long.parseLong(valor);
+    } catch (NumberFormatException e) {
+      throw new ErrorPeticion(400, "El " + nombre + " debe ser un numero entero: " + valor);
+    }
+  }
+
+  /**
+   * @param valor texto
+   * @param nombre nombre del valor, para el mensaje
+   * @return el entero
+   * @throws ErrorPeticion si no es un entero
+   */
+  private static int entero(String valor, String nombre) throws ErrorPeticion {
+    try {
+      return Integer.parseInt(valor);
+    } catch (NumberFormatException e) {
+      throw new ErrorPeticion(400, "El " + nombre + " debe ser un numero entero: " + valor);
+    }
+  }
+
+  /**
+   * responde con un error
+   * @param peticion peticion HTTP
+   * @param estado codigo HTTP
+   * @param mensaje mensaje del error
+   */
+  private static void responderError(HttpExchange peticion, int estado, String mensaje) {
+    responder(peticion, estado, Collections.singletonMap("error", mensaje));
+  }
+
+  /**
+   * responde con un objeto en JSON y cierra la peticion. Si falla el envio (por ejemplo porque el
+   * cliente ha cerrado la conexion) solo se cierra. El cuerpo de la peticion se termina de leer
+   * antes de responder: sin cuerpo en la respuesta, el servidor da la peticion por terminada al
+   * enviar las cabeceras y cierra la conexion si aun queda algo por leer
+   * @param peticion peticion HTTP
+   * @param estado codigo HTTP
+   * @param respuesta objeto que se responde, o null para responder sin cuerpo
+   */
+  private static void responder(HttpExchange peticion, int estado, Object respuesta) {
+    try {
+      peticion.getRequestBody().close();
+      if (respuesta == null) {
+        peticion.sendResponseHeaders(estado, -1);
+      } else {
+        byte[] cuerpo = GSON.toJson(respuesta).getBytes(StandardCharsets.UTF_8);
+        peticion.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        peticion.sendResponseHeaders(estado, cuerpo.length);
+        try (OutputStream salida = peticion.getResponseBody()) {
+          salida.write(cuerpo);
+        }
+      }
+    } catch (IOException e) {
+      // el cliente ya no espera la respuesta
+    } finally {
+      peticion.close();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package gestisimal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tabla que dice en que almacen de una {@link RedAlmacenes} esta cada articulo. Los codigos salen
+ * de un unico contador (ver {@link Articulo#reservarCodigos(int)}), asi que son densos y basta un
+ * byte por codigo, indexado directamente por el: sin hash, sin objetos por articulo y sin
+ * cerrojos. Los bytes se guardan en paginas que se crean al dar de alta el primer codigo de cada
+ * una.
+ * @author Sergio Vera Jurado
+ *
+ */
+class TablaRutas {
+  /**
+   * numero maximo de almacenes (el byte 0 es "sin almacen")
+   */
+  static final int MAXIMO_ALMACENES = 255;
+  /**
+   * bits del codigo que indican la posicion dentro de la pagina
+   */
+  private static final int BITS_PAGINA = 16;
+  /**
+   * acceso a los bytes de las paginas, que se escriben desde los hilos de todos los almacenes
+   */
+  private static final VarHandle CASILLA = MethodHandles.arrayElementVarHandle(byte[].class);
+  /**
+   * paginas de la tabla, null hasta que se usan
+   */
+  private final AtomicReferenceArray<byte[]> paginas =
+      new AtomicReferenceArray<>(1 << (Integer.SIZE - 1 - BITS_PAGINA));
+
+  /**
+   * apunta el almacen de un articulo
+   * @param codigo codigo del articulo (positivo)
+   * @param almacen indice del almacen, de 0 a MAXIMO_ALMACENES - 1
+   */
+  void put(int codigo, int almacen) {
+    if (codigo <= 0)
+      return;
+    byte[] pagina = paginas.get(codigo >>> BITS_PAGINA);
+    if (pagina == null) {
+      paginas.compareAndSet(codigo >>> BITS_PAGINA, null, new byte[1 << BITS_PAGINA]);
+      pagina = paginas.get(codigo >>> BITS_PAGINA);
+    }
+    CASILLA.setRelease(pagina, codigo & ((1 << BITS_PAGINA) - 1), (byte) (almacen + 1));
+  }
+
+  /**
+   * borra el almacen de un articulo, si sigue siendo el indicado
+   * @param codigo codigo del articulo
+   * @param almacen indice del almacen del que se ha eliminado
+   */
+  void remove(int codigo, int almacen) {
+    byte[] pagina = codigo <= 0 ? null : paginas.get(codigo >>> BITS_PAGINA);
+    if (pagina != null)
+      CASILLA.compareAndSet(pagina, codigo & ((1 << BITS_PAGINA) - 1), (byte) (almacen + 1),
+          (byte) 0);
+  }
+
+  /**
+   * @param codigo codigo del articulo
+   * @return indice de su almacen, o -1 si no esta en ninguno
+   */
+  int get(int codigo) {
+    byte[] pagina = codigo <= 0 ? null : paginas.get(codigo >>> BITS_PAGINA);
+    if (pagina == null)
+      return -1;
+    return ((byte) CASILLA.getAcquire(pagina, codigo & ((1 << BITS_PAGINA) - 1)) & 0xff) - 1;
+  }
+}
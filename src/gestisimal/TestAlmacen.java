@@ -1,7 +1,14 @@
 package gestisimal;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import gestisimal.excepciones.AlmacenCSVException;
 import gestisimal.excepciones.AlmacenXMLException;
@@ -12,14 +19,34 @@ import gestisimal.excepciones.NumeroNegativoException;
 import utiles.Menu;
 
 /**
- * Clase test para el almacen
+ * Clase test para el almacen. Con los argumentos --lote [archivo] no muestra el menu y ejecuta las
+ * ordenes del archivo o de la entrada estandar (ver {@link LoteAlmacen}). Con --servidor [puerto
+ * [hilos [directorio]]] da acceso a un almacen vacio por HTTP (ver {@link ServidorAlmacen}) hasta
+ * que se cierra la entrada estandar
  * @author Sergio Vera Jurado
  *
  */
 public class TestAlmacen {
+  /**
+   * entrada de teclado, la misma para todas las preguntas para no perder lo que ya se ha leido
+   * (por ejemplo cuando la entrada viene de un archivo)
+   */
+  private static final Scanner ENTRADA = new Scanner(System.in);
+  /**
+   * tamaño de los buffers del modo lote
+   */
+  private static final int BUFFER = 1 << 16;
 
   public static void main(String[] args) throws NumeroNegativoException, ArticuloRepetidoException,
-      CodigoNoValidoException, ArticuloInexistenteException, FileNotFoundException {
+      CodigoNoValidoException, ArticuloInexistenteException, IOException {
+    if (args.length > 0 && args[0].equals("--lote")) {
+      lote(args.length > 1 ? args[1] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--servidor")) {
+      servidor(args);
+      return;
+    }
 
     int opcion;
     Menu menu = new Menu("Almacen", "Alta de un articulo", "Incrementar articulo",
@@ -31,7 +58,7 @@ public class TestAlmacen {
  * Inicio del menu en el que se muestran las distintas opciones
  */
     do {
-      opcion = menu.elegir();
+      opcion = menu.elegir(ENTRADA);
 
       try {
         switch (opcion) {
@@ -52,7 +79,7 @@ public class TestAlmacen {
             System.out.println(almacen.buscarArticulo(pedircodigo()));
             break;
           case 5:
-            System.out.println(almacen);
+            almacen.listar(System.out);
             break;
           case 6:
             System.out.println(almacen.eliminar((pedircodigo())));
@@ -63,7 +90,7 @@ public class TestAlmacen {
             System.out.println("El CSV se ha guardado correctamente");
             break;
           case 8:
-            Almacen.cargarCSV(pedirNombre());
+            almacen.cargarCSV(pedirNombre());
             System.out.println("El CSV se ha importado correctamente");
             break;
           case 9:
@@ -72,7 +99,7 @@ public class TestAlmacen {
             System.out.println("El XML se ha guardado correctamente");
             break;
           case 10:
-            Almacen.cargarXml(pedirNombre());
+            almacen.cargarXml(pedirNombre());
             System.out.println("El XML se ha importado correctamente");
             break;
           case 11:
@@ -89,78 +116,116 @@ public class TestAlmacen {
     } while (opcion != 11);
 
   }
+
+  /**
+   * metodo que ejecuta las ordenes de un archivo sobre un almacen nuevo, escribe los resultados en
+   * la salida estandar y al terminar escribe en la salida de errores cuantas ordenes se han
+   * ejecutado y a que velocidad
+   * @param archivo archivo de ordenes, o null para leerlas de la entrada estandar
+   * @throws IOException si falla la lectura de las ordenes o la escritura de los resultados
+   */
+  private static void lote(String archivo) throws IOException {
+    LoteAlmacen lote = new LoteAlmacen(new Almacen());
+    long inicio = System.nanoTime();
+    try (BufferedReader entrada = archivo == null
+        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER)
+        : Files.newBufferedReader(Paths.get(archivo));
+        BufferedWriter salida = new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER)) {
+      lote.ejecutar(entrada, salida);
+    }
+    double segundos = (System.nanoTime() - inicio) / 1e9;
+    System.err.printf("%d ordenes, %d errores, %.3f s, %.0f ordenes/s%n", lote.getOrdenes(),
+        lote.getErrores(), segundos, lote.getOrdenes() / segundos);
+  }
+  /**
+   * metodo que atiende por HTTP un almacen nuevo hasta que se termina la entrada estandar
+   * @param args argumentos del programa: --servidor, puerto (8080), hilos (dos por procesador) y
+   *        directorio de los archivos de importar y exportar (el actual)
+   * @throws IOException si no se puede abrir el puerto
+   */
+  private static void servidor(String[] args) throws IOException {
+    int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+    int hilos = args.length > 2 ? Integer.parseInt(args[2])
+        : 2 * Runtime.getRuntime().availableProcessors();
+    String directorio = args.length > 3 ? args[3] : ".";
+    ServidorAlmacen.activarNodelay();
+    ServidorAlmacen servidor = new ServidorAlmacen(new Almacen(), new InetSocketAddress(puerto),
+        hilos, Paths.get(directorio));
+    servidor.iniciar();
+    System.err.println("Almacen en el puerto " + servidor.puerto());
+    while (System.in.read() >= 0)
+      continue;
+    try {
+      servidor.parar(5);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 /**
  * metodo que pide un nombre para saber que archivo tiene que usar
  * para leer los datos
  * @return nombre del archivo
  */
   private static String pedirNombre() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el nombre del archivo: ");
-    return s.nextLine();
+    return ENTRADA.nextLine();
   }
 /**
  * metodo que pide el stock maximo
  * @return int
  */
   private static int pedirStockMaximo() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el stock maximo: ");
-    return s.nextInt();
+    return leerEntero();
   }
   /**
    * metodo que pide el stock de seguridad
    * @return int
    */
   private static int pedirStockSeguridad() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el stock de seguridad: ");
-    return s.nextInt();
+    return leerEntero();
   }
   /**
    * metodo que pide el numero de unidades
    * @return int
    */
   private static int pedirUnidades() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el numero de unidades: ");
-    return s.nextInt();
+    return leerEntero();
   }
   /**
    * metodo que pide la descripcion de un artículo
    * @return string
    */
   private static String pedirDescripcion() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce la descripción del articulo: ");
-    return s.nextLine();
+    return ENTRADA.nextLine();
   }
   /**
    * metodo que pide el precio de compra de un articulo
    * @return int
    */
   private static double pedirPrecioCompra() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el precio de compra del art�culo: ");
-    return s.nextDouble();
+    return leerDecimal();
   }
   /**
    * metodo que pide el precio de venta de un articulo
    * @return int
    */
   private static double pedirPrecioVenta() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el precio de venta del art�culo: ");
-    return s.nextDouble();
+    return leerDecimal();
   }
   /**
    * metodo que pide el codigo de un articulo
    * @return int
    */
   private static int pedircodigo() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce el codigo del artículo :");
-    return s.nextInt();
+    return leerEntero();
   }
 
   /**
@@ -168,9 +233,30 @@ public class TestAlmacen {
    * @return int
    */
   private static int pedirCantidad() {
-    Scanner s = new Scanner(System.in);
     System.out.println("Introduce la cantidad :");
-    return s.nextInt();
+    return leerEntero();
+  }
+
+  /**
+   * metodo que lee un entero y el resto de su linea, para que la siguiente pregunta empiece en la
+   * linea siguiente
+   * @return int
+   */
+  private static int leerEntero() {
+    int numero = ENTRADA.nextInt();
+    ENTRADA.nextLine();
+    return numero;
+  }
+
+  /**
+   * metodo que lee un numero decimal (con el formato del idioma del sistema) y el resto de su
+   * linea
+   * @return double
+   */
+  private static double leerDecimal() {
+    double numero = ENTRADA.nextDouble();
+    ENTRADA.nextLine();
+    return numero;
   }
 
 }
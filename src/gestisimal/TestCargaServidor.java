@@ -0,0 +1,165 @@
+package gestisimal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Prueba de carga de {@link ServidorAlmacen} en la propia maquina, sin red ni dependencias: arranca
+ * el servidor en la interfaz local con un almacen lleno y varios clientes con una conexion
+ * persistente cada uno piden a la vez, sin pausas, buscar articulos al azar (tres de cada cuatro
+ * peticiones) y entradas de una unidad. Al terminar escribe las peticiones por segundo y los
+ * percentiles de la latencia vista por los clientes. Los primeros segundos son de calentamiento y
+ * no se cuentan. Los argumentos son el numero de clientes, de hilos del servidor, de articulos y
+ * de segundos que se mide; termina con estado 1 si alguna peticion falla.
+ * @author Sergio Vera Jurado
+ *
+ */
+public class TestCargaServidor {
+  /**
+   * peticiones de cada cien que son busquedas; el resto son entradas
+   */
+  private static final int BUSQUEDAS = 75;
+  /**
+   * segundos de calentamiento
+   */
+  private static final int CALENTAMIENTO = 2;
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException, NumeroNegativoException, ArticuloRepetidoException {
+    int clientes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int hilos = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int articulos = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+    int segundos = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    Almacen almacen = new Almacen();
+    int[] codigos = new int[articulos];
+    for (int i = 0; i < articulos; i++)
+      codigos[i] = almacen.alta(10.0, 15.0, "articulo " + i, 100, 10, 1_000_000_000);
+    ServidorAlmacen.activarNodelay();
+    ServidorAlmacen servidor = new ServidorAlmacen(almacen,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), hilos,
+        Paths.get(System.getProperty("java.io.tmpdir")));
+    servidor.iniciar();
+
+    Histograma latencias = new Histograma();
+    LongAdder errores = new LongAdder();
+    long medir = System.nanoTime() + CALENTAMIENTO * 1_000_000_000L;
+    long fin = medir + segundos * 1_000_000_000L;
+    Thread[] hilosClientes = new Thread[clientes];
+    for (int i = 0; i < clientes; i++) {
+      hilosClientes[i] = new Thread(() -> {
+        try {
+          cliente(servidor.puerto(), codigos, medir, fin, latencias, errores);
+        } catch (IOException e) {
+          System.out.println("Cliente terminado por un error: " + e);
+          errores.increment();
+        }
+      });
+      hilosClientes[i].start();
+    }
+    for (Thread cliente : hilosClientes)
+      cliente.join();
+    servidor.parar(1);
+
+    System.out.printf("%d clientes, %d hilos, %d articulos: %d peticiones, %d errores, "
+        + "%.0f peticiones/s%n", clientes, hilos, articulos, latencias.numero(), errores.sum(),
+        latencias.numero() / (double) segundos);
+    System.out.printf("latencia: media %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, "
+        + "max %.3f ms%n", latencias.media() / 1e6, latencias.percentil(50) / 1e6,
+        latencias.percentil(99) / 1e6, latencias.percentil(99.9) / 1e6,
+        latencias.maximo() / 1e6);
+    if (errores.sum() > 0)
+      System.exit(1);
+  }
+
+  /**
+   * hace peticiones por una conexion persistente hasta el final de la prueba
+   * @param puerto puerto del servidor
+   * @param codigos codigos de los articulos
+   * @param medir momento (System.nanoTime) desde el que se miden las peticiones
+   * @param fin momento en el que se termina
+   * @param latencias latencias de las peticiones medidas
+   * @param errores peticiones medidas que no han respondido 200
+   * @throws IOException si falla la conexion
+   */
+  private static void cliente(int puerto, int[] codigos, long medir, long fin,
+      Histograma latencias, LongAdder errores) throws IOException {
+    ThreadLocalRandom azar = ThreadLocalRandom.current();
+    try (Socket conexion = new Socket(InetAddress.getLoopbackAddress(), puerto)) {
+      conexion.setTcpNoDelay(true);
+      OutputStream salida = new BufferedOutputStream(conexion.getOutputStream());
+      InputStream entrada = new BufferedInputStream(conexion.getInputStream());
+      for (long inicio = System.nanoTime(); inicio < fin; inicio = System.nanoTime()) {
+        int codigo = codigos[azar.nextInt(codigos.length)];
+        String peticion = azar.nextInt(100) < BUSQUEDAS
+            ? "GET /articulos/" + codigo + " HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            : "POST /articulos/" + codigo + "/entrada?cantidad=1 HTTP/1.1\r\n"
+                + "Host: localhost\r\nContent-Length: 0\r\n\r\n";
+        salida.write(peticion.getBytes(StandardCharsets.US_ASCII));
+        salida.flush();
+        int estado = leerRespuesta(entrada);
+        if (inicio >= medir) {
+          latencias.registrar(System.nanoTime() - inicio);
+          if (estado != 200)
+            errores.increment();
+        }
+      }
+    }
+  }
+
+  /**
+   * lee una respuesta HTTP entera, cabeceras y cuerpo
+   * @param entrada conexion con el servidor
+   * @return el codigo HTTP de la respuesta
+   * @throws IOException si falla la lectura o el servidor cierra la conexion
+   */
+  private static int leerRespuesta(InputStream entrada) throws IOException {
+    String estado = leerLinea(entrada);
+    long longitud = 0;
+    for (String cabecera = leerLinea(entrada); !cabecera.isEmpty(); cabecera = leerLinea(entrada)) {
+      int dosPuntos = cabecera.indexOf(':');
+      if (dosPuntos > 0 && cabecera.substring(0, dosPuntos).equalsIgnoreCase("Content-Length"))
+        longitud = Long.parseLong(cabecera.substring(dosPuntos + 1).trim());
+    }
+    while (longitud > 0) {
+      long saltados = entrada.skip(longitud);
+      if (saltados <= 0) {
+        if (entrada.read() < 0)
+          throw new EOFException("Respuesta incompleta");
+        saltados = 1;
+      }
+      longitud -= saltados;
+    }
+    return Integer.parseInt(estado.split(" ")[1]);
+  }
+
+  /**
+   * lee una linea terminada en CRLF
+   * @param entrada conexion con el servidor
+   * @return la linea, sin el final
+   * @throws IOException si falla la lectura o el servidor cierra la conexion
+   */
+  private static String leerLinea(InputStream entrada) throws IOException {
+    StringBuilder linea = new StringBuilder();
+    for (int c = entrada.read(); c != '\n'; c = entrada.read()) {
+      if (c < 0)
+        throw new EOFException("El servidor ha cerrado la conexion");
+      if (c != '\r')
+        linea.append((char) c);
+    }
+    return linea.toString();
+  }
+}
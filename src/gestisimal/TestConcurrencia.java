@@ -0,0 +1,97 @@
+package gestisimal;
+
+import java.util.concurrent.ThreadLocalRandom;
+import gestisimal.excepciones.ArticuloInexistenteException;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Clase test de los movimientos de mercancia concurrentes. Varios hilos incrementan y decrementan
+ * a la vez, al azar, las unidades de unos pocos articulos, y cada uno apunta cuanto ha movido de
+ * cada articulo. Al terminar, las unidades de cada articulo y las del almacen tienen que ser las
+ * iniciales mas lo que han movido todos los hilos: si se perdiera alguna actualizacion no
+ * coincidirian. Escribe tambien los movimientos por segundo. Los argumentos son el numero de
+ * hilos, de operaciones por hilo y de articulos; termina con estado 1 si alguna comprobacion falla.
+ * @author Sergio Vera Jurado
+ *
+ */
+public class TestConcurrencia {
+  /**
+   * unidades iniciales de cada articulo, de sobra para que ninguna salida se quede sin unidades
+   */
+  private static final int UNIDADES = 500_000_000;
+
+  public static void main(String[] args) throws InterruptedException, NumeroNegativoException,
+      ArticuloRepetidoException, ArticuloInexistenteException {
+    int hilos = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int operaciones = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    int articulos = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+    Almacen almacen = new Almacen();
+    int[] codigos = new int[articulos];
+    for (int i = 0; i < articulos; i++)
+      codigos[i] = almacen.alta(1.0, 2.0, "articulo " + i, UNIDADES, 0, Integer.MAX_VALUE);
+    long[][] movidas = new long[hilos][articulos];
+    Thread[] trabajadores = new Thread[hilos];
+    long inicio = System.nanoTime();
+    for (int h = 0; h < hilos; h++) {
+      long[] propias = movidas[h];
+      trabajadores[h] = new Thread(() -> mover(almacen, codigos, propias, operaciones));
+      trabajadores[h].start();
+    }
+    for (Thread trabajador : trabajadores)
+      trabajador.join();
+    double segundos = (System.nanoTime() - inicio) / 1e9;
+
+    boolean correcto = true;
+    long total = 0;
+    for (int i = 0; i < articulos; i++) {
+      long esperadas = UNIDADES;
+      for (long[] propias : movidas)
+        esperadas += propias[i];
+      total += esperadas;
+      int unidades = almacen.buscarArticulo(codigos[i]).getNumeroUnidades();
+      if (unidades != esperadas) {
+        System.out.println("articulo " + codigos[i] + ": " + unidades + " unidades, se esperaban "
+            + esperadas);
+        correcto = false;
+      }
+    }
+    if (almacen.unidadesTotales() != total) {
+      System.out.println("almacen: " + almacen.unidadesTotales() + " unidades, se esperaban "
+          + total);
+      correcto = false;
+    }
+    System.out.printf("%d hilos, %d articulos: %.0f movimientos/s, %s%n", hilos, articulos,
+        (double) hilos * operaciones / segundos, correcto ? "sin actualizaciones perdidas"
+            : "con actualizaciones perdidas");
+    if (!correcto)
+      System.exit(1);
+  }
+
+  /**
+   * incrementa y decrementa al azar unidades de los articulos
+   * @param almacen almacen
+   * @param codigos codigos de los articulos
+   * @param movidas unidades movidas de cada articulo por este hilo
+   * @param operaciones numero de movimientos
+   */
+  private static void mover(Almacen almacen, int[] codigos, long[] movidas, int operaciones) {
+    ThreadLocalRandom azar = ThreadLocalRandom.current();
+    try {
+      for (int i = 0; i < operaciones; i++) {
+        int articulo = azar.nextInt(codigos.length);
+        int cantidad = azar.nextInt(1, 10);
+        if (azar.nextBoolean()) {
+          almacen.incrementarCantidad(cantidad, codigos[articulo]);
+          movidas[articulo] += cantidad;
+        } else {
+          almacen.decrementarCantidad(cantidad, codigos[articulo]);
+          movidas[articulo] -= cantidad;
+        }
+      }
+    } catch (NumeroNegativoException | ArticuloInexistenteException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
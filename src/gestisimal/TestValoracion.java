@@ -0,0 +1,145 @@
+package gestisimal;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import gestisimal.excepciones.ArticuloRepetidoException;
+import gestisimal.excepciones.CodigoNoValidoException;
+import gestisimal.excepciones.NumeroNegativoException;
+
+/**
+ * Clase test para la valoracion del almacen (ver {@link Valoracion}). Varios hilos hacen a la vez
+ * entradas, salidas, lotes, altas y bajas al azar sobre los mismos articulos, y al terminar se
+ * comparan las unidades y los valores que mantiene el almacen con los que salen de recorrer todos
+ * sus articulos. Despues se eliminan todos, y los totales tienen que quedar a cero y los indices
+ * de stock y de unidades vacios (ver {@link IndiceStock} e {@link IndiceOrdenado}). Se repite
+ * varias veces con almacenes pequeños, donde las bajas se cruzan mas con los movimientos. Los
+ * argumentos son el numero de rondas, de hilos y de operaciones por hilo y ronda; termina con
+ * estado 1 si alguna comprobacion falla.
+ * @author Sergio Vera Jurado
+ *
+ */
+public class TestValoracion {
+  /**
+   * articulos con los que empieza cada ronda
+   */
+  private static final int ARTICULOS = 64;
+
+  public static void main(String[] args) throws InterruptedException, NumeroNegativoException,
+      ArticuloRepetidoException, CodigoNoValidoException {
+    int rondas = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int hilos = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int operaciones = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+    int erroneas = 0;
+    for (int ronda = 1; ronda <= rondas; ronda++) {
+      Almacen almacen = new Almacen();
+      almacen.crearIndiceOrdenado(IndiceOrdenado.Campo.NUMERO_UNIDADES);
+      int primero = 0;
+      for (int i = 0; i < ARTICULOS; i++) {
+        int codigo = alta(almacen, ThreadLocalRandom.current());
+        primero = i == 0 ? codigo : primero;
+      }
+      Thread[] trabajadores = new Thread[hilos];
+      for (int h = 0; h < hilos; h++) {
+        int desde = primero;
+        trabajadores[h] = new Thread(() -> trabajar(almacen, desde, operaciones));
+        trabajadores[h].start();
+      }
+      for (Thread trabajador : trabajadores)
+        trabajador.join();
+      boolean correcta = comprobar(almacen, "ronda " + ronda);
+      try (VistaAlmacen vista = almacen.vista()) {
+        for (int i = 0; i < vista.numero(); i++)
+          almacen.eliminar(vista.articulo(i).getCodigo());
+      }
+      correcta &= comprobar(almacen, "ronda " + ronda + " vaciada");
+      if (almacen.articulosBajoMinimos().length + almacen.articulosSobreMaximo().length > 0) {
+        System.out.println("ronda " + ronda + " vaciada: quedan articulos en el indice de stock");
+        correcta = false;
+      }
+      if (almacen.mayores(IndiceOrdenado.Campo.NUMERO_UNIDADES, 1).length > 0) {
+        System.out.println("ronda " + ronda + " vaciada: quedan articulos en el indice ordenado");
+        correcta = false;
+      }
+      if (!correcta)
+        erroneas++;
+    }
+    System.out.println(rondas - erroneas + " de " + rondas + " rondas correctas");
+    if (erroneas > 0)
+      System.exit(1);
+  }
+
+  /**
+   * hace operaciones al azar sobre los articulos de una ronda y los que se van dando de alta
+   * @param almacen almacen de la ronda
+   * @param primero codigo del primer articulo de la ronda
+   * @param operaciones numero de operaciones
+   */
+  private static void trabajar(Almacen almacen, int primero, int operaciones) {
+    ThreadLocalRandom azar = ThreadLocalRandom.current();
+    int ultimo = primero + ARTICULOS;
+    try {
+      for (int i = 0; i < operaciones; i++) {
+        int codigo = primero + azar.nextInt(ultimo - primero);
+        int operacion = azar.nextInt(100);
+        if (operacion < 40) {
+          almacen.entrada(azar.nextInt(1, 20), codigo);
+        } else if (operacion < 80) {
+          almacen.salida(azar.nextInt(1, 20), codigo);
+        } else if (operacion < 90) {
+          int[] codigos = {codigo, primero + azar.nextInt(ultimo - primero), codigo};
+          int[] cantidades = {azar.nextInt(-10, 10), azar.nextInt(-10, 10), azar.nextInt(-10, 10)};
+          almacen.aplicarMovimientos(codigos, cantidades, azar.nextBoolean());
+        } else if (operacion < 95) {
+          almacen.eliminar(codigo);
+        } else {
+          ultimo = Math.max(ultimo, alta(almacen, azar) + 1);
+        }
+      }
+    } catch (NumeroNegativoException | ArticuloRepetidoException | CodigoNoValidoException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * da de alta un articulo con precios de dos decimales y unidades al azar
+   * @param almacen almacen
+   * @param azar generador de numeros al azar
+   * @return el codigo del articulo
+   * @throws NumeroNegativoException nunca, los precios y unidades son positivos
+   * @throws ArticuloRepetidoException nunca, el codigo es nuevo
+   */
+  private static int alta(Almacen almacen, ThreadLocalRandom azar)
+      throws NumeroNegativoException, ArticuloRepetidoException {
+    return almacen.alta(azar.nextInt(1, 100_000) / 100.0, azar.nextInt(1, 100_000) / 100.0,
+        "articulo", azar.nextInt(0, 50), 10, 40);
+  }
+
+  /**
+   * compara los totales del almacen con los que salen de recorrer sus articulos, y muestra la
+   * diferencia si no coinciden
+   * @param almacen almacen sin operaciones en marcha
+   * @param nombre nombre de la comprobacion en el mensaje
+   * @return true si coinciden
+   */
+  private static boolean comprobar(Almacen almacen, String nombre) {
+    long unidades = 0;
+    BigDecimal compra = BigDecimal.ZERO;
+    BigDecimal venta = BigDecimal.ZERO;
+    try (VistaAlmacen vista = almacen.vista()) {
+      for (int i = 0; i < vista.numero(); i++) {
+        Articulo articulo = vista.articulo(i);
+        BigDecimal cantidad = BigDecimal.valueOf(vista.unidades(i));
+        unidades += vista.unidades(i);
+        compra = compra.add(BigDecimal.valueOf(articulo.getPrecioCompra()).multiply(cantidad));
+        venta = venta.add(BigDecimal.valueOf(articulo.getPrecioVenta()).multiply(cantidad));
+      }
+    }
+    if (unidades == almacen.unidadesTotales() && compra.compareTo(almacen.valorCompra()) == 0
+        && venta.compareTo(almacen.valorVenta()) == 0)
+      return true;
+    System.out.println(nombre + ": unidades " + almacen.unidadesTotales() + " (" + unidades
+        + "), valor de compra " + almacen.valorCompra() + " (" + compra + "), valor de venta "
+        + almacen.valorVenta() + " (" + venta + ")");
+    return false;
+  }
+}
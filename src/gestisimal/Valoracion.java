@@ -0,0 +1,270 @@
+package gestisimal;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Totales del almacen (unidades y valor a precio de compra y de venta) que se mantienen al dia con
+ * cada alta, baja y movimiento (ver {@link ObservadorAlmacen}), asi que consultarlos no depende
+ * del numero de articulos. Las sumas son exactas: cada precio se toma con su valor decimal (el de
+ * {@link BigDecimal#valueOf(double)}), y por muchos movimientos que se hagan los totales no se
+ * desvian del resultado de recalcularlos.
+ * <p>
+ * Los totales se reparten en acumuladores por franjas de codigo, para que los movimientos de
+ * articulos distintos no compitan por el mismo. Los precios con cuatro decimales como mucho (lo
+ * normal) se suman sin la coma con un long; el resto, o si el long se desborda, con BigDecimal.
+ * @author Sergio Vera Jurado
+ *
+ */
+class Valoracion implements ObservadorAlmacen {
+  /**
+   * numero de acumuladores (potencia de dos)
+   */
+  private static final int NUMERO_ACUMULADORES = 64;
+  /**
+   * decimales de los precios que se suman con un long
+   */
+  private static final int DECIMALES = 4;
+  /**
+   * 10 elevado a DECIMALES
+   */
+  private static final double ESCALA = 1e4;
+  /**
+   * mayor precio que se suma con un long: por debajo, dos precios distintos con DECIMALES
+   * decimales nunca dan el mismo double
+   */
+  private static final double MAXIMO_ESCALADO = 1e11;
+
+  /**
+   * Totales de una franja de articulos. Se modifica con su propio monitor
+   */
+  private static class Acumulador {
+    /**
+     * unidades
+     */
+    private long unidades;
+    /**
+     * valor a precio de compra de los precios con DECIMALES decimales, sin la coma
+     */
+    private long escaladoCompra;
+    /**
+     * valor a precio de venta de los precios con DECIMALES decimales, sin la coma
+     */
+    private long escaladoVenta;
+    /**
+     * resto del valor a precio de compra
+     */
+    private BigDecimal restoCompra = BigDecimal.ZERO;
+    /**
+     * resto del valor a precio de venta
+     */
+    private BigDecimal restoVenta = BigDecimal.ZERO;
+
+    /**
+     * suma las unidades que entran o salen de un articulo
+     * @param articulo articulo
+     * @param cantidad unidades que entran (positiva) o salen (negativa)
+     */
+    synchronized void sumar(Articulo articulo, long cantidad) {
+      unidades += cantidad;
+      long escalado = escalar(articulo.getPrecioCompra());
+      if (escalado < 0 || !sumarEscaladoCompra(escalado, cantidad))
+        restoCompra = restoCompra.add(producto(articulo.getPrecioCompra(), cantidad));
+      escalado = escalar(articulo.getPrecioVenta());
+      if (escalado < 0 || !sumarEscaladoVenta(escalado, cantidad))
+        restoVenta = restoVenta.add(producto(articulo.getPrecioVenta(), cantidad));
+    }
+
+    /**
+     * suma los totales de otro acumulador
+     * @param otro acumulador que ya no se modifica
+     */
+    synchronized void juntar(Acumulador otro) {
+      unidades += otro.unidades;
+      if (!sumarEscaladoCompra(otro.escaladoCompra, 1))
+        restoCompra = restoCompra.add(BigDecimal.valueOf(otro.escaladoCompra, DECIMALES));
+      if (!sumarEscaladoVenta(otro.escaladoVenta, 1))
+        restoVenta = restoVenta.add(BigDecimal.valueOf(otro.escaladoVenta, DECIMALES));
+      restoCompra = restoCompra.add(otro.restoCompra);
+      restoVenta = restoVenta.add(otro.restoVenta);
+    }
+
+    /**
+     * suma al valor sin la coma a precio de compra
+     * @param escalado precio sin la coma
+     * @param cantidad unidades
+     * @return false si se desborda, en cuyo caso no se suma
+     */
+    private boolean sumarEscaladoCompra(long escalado, long cantidad) {
+      try {
+        escaladoCompra = Math.addExact(escaladoCompra, Math.multiplyExact(escalado, cantidad));
+        return true;
+      } catch (ArithmeticException e) {
+        return false;
+      }
+    }
+
+    /**
+     * suma al valor sin la coma a precio de venta
+     * @param escalado precio sin la coma
+     * @param cantidad unidades
+     * @return false si se desborda, en cuyo caso no se suma
+     */
+    private boolean sumarEscaladoVenta(long escalado, long cantidad) {
+      try {
+        escaladoVenta = Math.addExact(escaladoVenta, Math.multiplyExact(escalado, cantidad));
+        return true;
+      } catch (ArithmeticException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * acumuladores, repartidos por el codigo de los articulos
+   */
+  private final Acumulador[] acumuladores = new Acumulador[NUMERO_ACUMULADORES];
+
+  /**
+   * Constructor de unos totales a cero
+   */
+  Valoracion() {
+    for (int i = 0; i < acumuladores.length; i++)
+      acumuladores[i] = new Acumulador();
+  }
+
+  /**
+   * suma los articulos de una carga: cada trozo se suma en paralelo en sus propios acumuladores,
+   * y despues se juntan con los del almacen
+   */
+  @Override
+  public void altas(Articulo[][] trozos) {
+    Acumulador[][] parciales =
+        Arrays.stream(trozos).parallel().map(Valoracion::sumar).toArray(Acumulador[][]::new);
+    for (Acumulador[] parcial : parciales) {
+      for (int i = 0; i < acumuladores.length; i++)
+        acumuladores[i].juntar(parcial[i]);
+    }
+  }
+
+  /**
+   * suma el articulo nuevo
+   */
+  @Override
+  public void alta(Articulo articulo) {
+    acumulador(articulo).sumar(articulo, articulo.getNumeroUnidades());
+  }
+
+  /**
+   * resta el articulo eliminado
+   */
+  @Override
+  public void baja(Articulo articulo) {
+    acumulador(articulo).sumar(articulo, -(long) articulo.getNumeroUnidades());
+  }
+
+  /**
+   * suma la diferencia de unidades
+   */
+  @Override
+  public void movimiento(Articulo articulo, int unidadesAnteriores) {
+    long cantidad = (long) articulo.getNumeroUnidades() - unidadesAnteriores;
+    if (cantidad != 0)
+      acumulador(articulo).sumar(articulo, cantidad);
+  }
+
+  /**
+   * @return unidades de todos los articulos
+   */
+  long unidades() {
+    long total = 0;
+    for (Acumulador acumulador : acumuladores) {
+      synchronized (acumulador) {
+        total += acumulador.unidades;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return valor exacto de todos los articulos a precio de compra
+   */
+  BigDecimal valorCompra() {
+    BigDecimal total = BigDecimal.ZERO;
+    for (Acumulador acumulador : acumuladores) {
+      synchronized (acumulador) {
+        total = total.add(BigDecimal.valueOf(acumulador.escaladoCompra, DECIMALES))
+            .add(acumulador.restoCompra);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return valor exacto de todos los articulos a precio de venta
+   */
+  BigDecimal valorVenta() {
+    BigDecimal total = BigDecimal.ZERO;
+    for (Acumulador acumulador : acumuladores) {
+      synchronized (acumulador) {
+        total = total.add(BigDecimal.valueOf(acumulador.escaladoVenta, DECIMALES))
+            .add(acumulador.restoVenta);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * devuelve el acumulador de un articulo
+   * @param articulo articulo
+   * @return su acumulador
+   */
+  private Acumulador acumulador(Articulo articulo) {
+    return acumuladores[indice(articulo)];
+  }
+
+  /**
+   * devuelve la posicion del acumulador de un articulo
+   * @param articulo articulo
+   * @return posicion en el array de acumuladores
+   */
+  private static int indice(Articulo articulo) {
+    return IndiceArticulos.hash(articulo.getCodigo()) & (NUMERO_ACUMULADORES - 1);
+  }
+
+  /**
+   * suma unos articulos en acumuladores nuevos, repartidos igual que los del almacen
+   * @param articulos articulos
+   * @return los acumuladores
+   */
+  private static Acumulador[] sumar(Articulo[] articulos) {
+    Acumulador[] parcial = new Acumulador[NUMERO_ACUMULADORES];
+    for (int i = 0; i < parcial.length; i++)
+      parcial[i] = new Acumulador();
+    for (Articulo articulo : articulos)
+      parcial[indice(articulo)].sumar(articulo, articulo.getNumeroUnidades());
+    return parcial;
+  }
+
+  /**
+   * quita la coma a un precio si no tiene mas de DECIMALES decimales
+   * @param precio precio
+   * @return el precio sin la coma, o -1 si tiene mas decimales o es demasiado grande
+   */
+  private static long escalar(double precio) {
+    if (!(precio < MAXIMO_ESCALADO))
+      return -1;
+    long escalado = Math.round(precio * ESCALA);
+    return escalado / ESCALA == precio ? escalado : -1;
+  }
+
+  /**
+   * multiplica de forma exacta un precio por unas unidades
+   * @param precio precio
+   * @param cantidad unidades
+   * @return el producto
+   */
+  private static BigDecimal producto(double precio, long cantidad) {
+    return BigDecimal.valueOf(precio).multiply(BigDecimal.valueOf(cantidad));
+  }
+}
@@ -0,0 +1,145 @@
+package gestisimal;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Vista del almacen en un momento dado, para exportarlo mientras sigue trabajando (ver
+ * {@link Almacen#vista()}). Guarda los articulos que habia en ese momento y, como observador,
+ * las unidades que tenia cada articulo antes de su primer movimiento posterior, asi que las
+ * entradas y salidas no esperan a la exportacion ni copian nada hasta que tocan un articulo. Hay
+ * que cerrarla al terminar para que el almacen deje de avisarla.
+ * @author Sergio Vera Jurado
+ *
+ */
+class VistaAlmacen implements ObservadorAlmacen, AutoCloseable {
+  /**
+   * Recibe el avance de una exportacion
+   */
+  interface Progreso {
+    /**
+     * se han escrito mas articulos
+     * @param escritos articulos escritos hasta ahora
+     * @param total articulos de la vista
+     */
+    void avance(long escritos, long total);
+  }
+
+  /**
+   * cada cuantos articulos escritos se avisa del avance (potencia de dos)
+   */
+  private static final int AVANCE = 4096;
+  /**
+   * cerrojos de las unidades del almacen
+   */
+  private final ReentrantLock[] franjas;
+  /**
+   * almacen que avisa a la vista
+   */
+  private final Almacen almacen;
+  /**
+   * unidades de los articulos movidos desde que se creo la vista, por codigo
+   */
+  private final ConcurrentHashMap<Integer, Integer> anteriores = new ConcurrentHashMap<>();
+  /**
+   * articulos del almacen cuando se creo la vista, en orden de alta
+   */
+  private Articulo[] articulos;
+  /**
+   * true cuando la vista ya no se usa
+   */
+  private volatile boolean cerrada;
+
+  /**
+   * Constructor de la vista, que empieza a guardar unidades en cuanto el almacen la avisa
+   * @param almacen almacen que avisa a la vista
+   * @param franjas cerrojos de las unidades del almacen
+   */
+  VistaAlmacen(Almacen almacen, ReentrantLock[] franjas) {
+    this.almacen = almacen;
+    this.franjas = franjas;
+  }
+
+  /**
+   * fija los articulos de la vista; se llama una vez, antes de entregarla
+   * @param articulos articulos del almacen cuando se creo la vista
+   */
+  void fijar(Articulo[] articulos) {
+    this.articulos = articulos;
+  }
+
+  /**
+   * @return numero de articulos de la vista
+   */
+  int numero() {
+    return articulos.length;
+  }
+
+  /**
+   * @param posicion posicion del articulo en la vista
+   * @return el articulo (sus unidades pueden haber cambiado, ver {@link #unidades(int)})
+   */
+  Articulo articulo(int posicion) {
+    return articulos[posicion];
+  }
+
+  /**
+   * devuelve las unidades que tenia un articulo cuando se creo la vista. Se leen con el cerrojo
+   * del articulo porque el almacen avisa despues de cambiarlas
+   * @param posicion posicion del articulo en la vista
+   * @return las unidades
+   */
+  int unidades(int posicion) {
+    Articulo articulo = articulos[posicion];
+    ReentrantLock franja = franjas[Almacen.indiceFranja(articulo.getCodigo())];
+    franja.lock();
+    try {
+      Integer unidades = anteriores.get(articulo.getCodigo());
+      return unidades != null ? unidades : articulo.getNumeroUnidades();
+    } finally {
+      franja.unlock();
+    }
+  }
+
+  /**
+   * guarda las unidades de un articulo antes de su primer movimiento
+   */
+  @Override
+  public void movimiento(Articulo articulo, int unidadesAnteriores) {
+    anteriores.putIfAbsent(articulo.getCodigo(), unidadesAnteriores);
+  }
+
+  /**
+   * avisa del avance de una exportacion al empezar, cada cierto numero de articulos y al terminar.
+   * Se llama despues de escribir cada articulo
+   * @param progreso recibe el avance, o null
+   * @param escritos articulos escritos hasta ahora
+   * @throws CancellationException si la vista se ha cerrado antes de terminar
+   */
+  void avanzar(Progreso progreso, long escritos) {
+    if (cerrada)
+      throw new CancellationException("Exportacion cancelada");
+    if (progreso != null && ((escritos & (AVANCE - 1)) == 0 || escritos == articulos.length))
+      progreso.avance(escritos, articulos.length);
+  }
+
+  /**
+   * @return true si la vista se ha cerrado, por ejemplo al cancelar la exportacion
+   */
+  boolean cerrada() {
+    return cerrada;
+  }
+
+  /**
+   * deja de recibir los cambios del almacen
+   */
+  @Override
+  public void close() {
+    if (cerrada)
+      return;
+    cerrada = true;
+    almacen.quitarObservador(this);
+    anteriores.clear();
+  }
+}
@@ -0,0 +1,18 @@
+package gestisimal.excepciones;
+/**
+ * Si da error al llamar a la instantanea binaria del almacen
+ * @author Sergio Vera Jurado
+ *
+ */
+public class AlmacenBinarioException extends Exception {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 3158204621937720465L;
+
+  public AlmacenBinarioException(String string) {
+    super(string);
+  }
+
+}
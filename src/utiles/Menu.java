@@ -28,6 +28,15 @@ public class Menu {
  * @return numero de la opcion
  */
   public int elegir() {
+    return elegir(new Scanner(System.in));
+  }
+/**
+ * elige una opcion del menu leyendo una linea de una entrada que se sigue usando despues, para
+ * no perder lo que ya se ha leido de ella
+ * @param s entrada de la que se lee la opcion
+ * @return numero de la opcion
+ */
+  public int elegir(Scanner s) {
     
     System.out.println(this.titulo);
     System.out.println("-".repeat(this.titulo.length()) +"\n");
@@ -37,16 +46,27 @@ public class Menu {
     }
     System.out.print("\nIntroduce una opci�n: ");
     
-    Scanner s = new Scanner(System.in);
-    int opcion = s.nextInt();
+    int opcion = leerOpcion(s);
     
     while (opcion <= 0 || opcion > this.opciones.size()) {
       System.out.print("Opci�n incorrecta, introduzca otra: ");
-      opcion = s.nextInt();
+      opcion = leerOpcion(s);
     }
     
     return opcion;
   }
+/**
+ * lee una linea con una opcion
+ * @param s entrada
+ * @return la opcion, o 0 si la linea no es un numero
+ */
+  private static int leerOpcion(Scanner s) {
+    try {
+      return Integer.parseInt(s.nextLine().trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
 /**
  * toString del menu
  */